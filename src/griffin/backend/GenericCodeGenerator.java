@@ -11,9 +11,11 @@ import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import sourceanalysis.Aggregate;
@@ -51,12 +53,14 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 		super();
 		m_program = program;
 		m_output = output;
-		m_subjects = new HashSet<Aggregate>();
-		m_subjectTemplates = new HashSet<Aggregate>();
-		m_enums = new HashSet<sourceanalysis.Enum>();
-		m_typedefs = new HashSet<Alias>();
-		m_globalFuncs = new HashSet<Routine>();
-		m_namespaces = new HashSet<Namespace>();
+		// the collections keep their insertion order, so that the same input
+		// always generates the same code
+		m_subjects = new LinkedHashSet<Aggregate>();
+		m_subjectTemplates = new LinkedHashSet<Aggregate>();
+		m_enums = new LinkedHashSet<sourceanalysis.Enum>();
+		m_typedefs = new LinkedHashSet<Alias>();
+		m_globalFuncs = new LinkedHashSet<Routine>();
+		m_namespaces = new LinkedHashSet<Namespace>();
 		m_templates = templates;
 		m_separateClassTemplates = false; // if set to true, classes are put
 		// in 'subjects' while class templates are put in
@@ -65,6 +69,7 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 		// initialize instances
 		m_instanceSet = new HashSet<String>();
 		m_instanceMap = new HashMap<String, Aggregate>();
+		m_invested = new HashSet<Entity>();
 		m_supervisedTemplates = new SupervisedTemplates();
 	}
 
@@ -116,8 +121,30 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 	 *            scopes.
 	 */
 	public void collect(String componentname) {
-		collect(m_program.getGlobalNamespace().getScope(), componentname);
-		collect(m_program.getExternals(), componentname);
+		// Same as collecting from the global namespace and then from the
+		// externals, but through the program's name index
+		for (ContainedConnection<Namespace, ? extends Entity> connection: 
+				m_program.lookupByName(componentname, NAMING)) {
+			Entity entity = connection.getContained();
+			if (entity instanceof Aggregate) {
+				consume((Aggregate)entity);
+			}
+			else if (entity instanceof sourceanalysis.Enum) {
+				if (connection.getVisibility() == Specifiers.Visibility.PUBLIC)
+					m_enums.add((sourceanalysis.Enum)entity);
+			}
+			else if (entity instanceof Alias) {
+				if (connection.getVisibility() == Specifiers.Visibility.PUBLIC)
+					m_typedefs.add((Alias)entity);
+			}
+			else if (entity instanceof Routine) {
+				m_globalFuncs.add((Routine)entity);
+			}
+			else if (entity instanceof Namespace) {
+				m_namespaces.add((Namespace)entity);
+				autocollect(((Namespace)entity).getScope());
+			}
+		}
 	}
 
 	/**
@@ -233,6 +260,17 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 		return names;
 	}
 
+	/**
+	 * Names entities by allPossibleNames(), for looking them up in the
+	 * program database.
+	 */
+	public static final ProgramDatabase.Naming NAMING =
+		new ProgramDatabase.Naming() {
+			public Collection<String> namesOf(Entity entity) {
+				return allPossibleNames(entity);
+			}
+		};
+
 	protected boolean nameMatches(Entity entity, String name) {
 		Collection<String> names = allPossibleNames(entity);
 		for (String one_name : names) {
@@ -473,11 +511,11 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 			try {
 				m_output.write(m_templates.fillTemplate(elementTemplate, scope,
 						this));
-				m_output.flush();
 			} catch (ElementNotFoundException e) {
 				System.err.println("*** ERROR: template not found: " + e);
 			}
 		}
+		m_output.flush();
 	}
 
 	/**
@@ -533,6 +571,13 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 	 * Locates template instances which seem to be a "must" for the wrapping of
 	 * the collected classes, and creates instances for them which are then
 	 * added to the subjects list.
+	 * <p>The new instances may call for more instances in turn, so they are
+	 * investigated as well, in passes, until no new instance appears. Every
+	 * subject, global function and typedef is only investigated once - an
+	 * instantiation is never attempted twice, so investigating them again
+	 * cannot yield anything new. Thus calling this method again only looks
+	 * at the entities which have been collected since. (Should more class
+	 * templates be collected in between, everything is looked at again).</p>
 	 */
 	public void investImplicitInstantiations() {
 		final List<Aggregate> instanceList = new LinkedList<Aggregate>();
@@ -550,28 +595,21 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 			}
 		};
 
+		if (m_subjectTemplates.size() != m_investedTemplateCount) {
+			m_invested.clear();
+			m_investedTemplateCount = m_subjectTemplates.size();
+		}
+
 		// Find templates to instantiate in classes
+		List<Aggregate> subjects = new ArrayList<Aggregate>();
 		for (Aggregate subject : m_subjects) {
-			if (!GenericFilters.isDeclared(subject)) {
-				continue;
-			}
-			for (InheritanceConnection connection: subject.getBases()) {
-				Aggregate base = connection.getBase();
-				// Specialize templates
-				if (base.isTemplated()) {
-					TemplateArgument[] targs = connection
-							.getBaseTemplateArguments();
-					investThisTemplateInstantiation(base, targs, instanceList);
-				}
-			}
-			// Traverse methods
-			Traverse t = new Traverse();
-			t.traverse(subject.getScope(), instantiateVisitor, false,
-					Specifiers.Visibility.PUBLIC);
+			if (m_invested.add(subject)) subjects.add(subject);
 		}
+		investSubjects(subjects, instantiateVisitor, instanceList);
 
 		// Find templates to instantiate in global functions
 		for (Routine subject : m_globalFuncs) {
+			if (!m_invested.add(subject)) continue;
 			// don't instantiate templates in functions
 			// that weren't declared in headers
 			if (!GenericFilters.isDeclared(subject)) {
@@ -586,6 +624,7 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 
 		// Find template instances which are the targets of typedefs
 		for (Alias typedef : m_typedefs) {
+			if (!m_invested.add(typedef)) continue;
 			// This disables instantiation of templates
 			// in typedefs not declared in headers.
 			// One could argue that it's useful, but it brings its
@@ -602,10 +641,86 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 						+ typedef.getAliasedType());
 			}
 		}
+		++m_instantiationPasses;
 
-		m_subjects.addAll(instanceList);
-		if (!instanceList.isEmpty())
-			investImplicitInstantiations(); // repeat process
+		// Repeat the process for the new instances only
+		while (!instanceList.isEmpty()) {
+			List<Aggregate> instances = new ArrayList<Aggregate>(instanceList);
+			instanceList.clear();
+			m_subjects.addAll(instances);
+			m_instantiations += instances.size();
+			for (Aggregate instance : instances) {
+				m_invested.add(instance);
+			}
+			investSubjects(instances, instantiateVisitor, instanceList);
+			++m_instantiationPasses;
+		}
+	}
+
+	/**
+	 * Looks for templates to instantiate in the bases and in the public
+	 * members of classes.
+	 * 
+	 * @param subjects
+	 *            classes to investigate
+	 * @param instantiateVisitor
+	 *            a visitor which collects instances from member types
+	 * @param instanceList
+	 *            list into which new instances are inserted
+	 */
+	private void investSubjects(List<Aggregate> subjects,
+			Traverse.TypeInformationVisitor instantiateVisitor,
+			List<Aggregate> instanceList) {
+		for (Aggregate subject : subjects) {
+			if (!GenericFilters.isDeclared(subject)) {
+				continue;
+			}
+			for (InheritanceConnection connection: subject.getBases()) {
+				Aggregate base = connection.getBase();
+				// Specialize templates
+				if (base.isTemplated()) {
+					TemplateArgument[] targs = connection
+							.getBaseTemplateArguments();
+					investThisTemplateInstantiation(base, targs, instanceList);
+				}
+			}
+			// Traverse methods
+			Traverse t = new Traverse();
+			t.traverse(subject.getScope(), instantiateVisitor, false,
+					Specifiers.Visibility.PUBLIC);
+		}
+	}
+
+	/**
+	 * Returns the number of passes made by investImplicitInstantiations()
+	 * so far; each pass investigates the instances created by the previous
+	 * one.
+	 */
+	public int getInstantiationPasses() {
+		return m_instantiationPasses;
+	}
+
+	/**
+	 * Returns the number of template instances created by
+	 * investImplicitInstantiations() so far.
+	 */
+	public int getInstantiationCount() {
+		return m_instantiations;
+	}
+
+	/**
+	 * Returns the number of template instances known to this generator
+	 * whose members were actually instantiated. Unless instances are
+	 * created lazily (see Utils.isLazyInstantiation()), these are all of
+	 * them.
+	 */
+	public int getMaterializedInstanceCount() {
+		int count = 0;
+		for (Aggregate instance : m_instanceMap.values()) {
+			if (Utils.isMaterialized(instance))
+				++count;
+		}
+		return count;
 	}
 
 	/**
@@ -721,7 +836,11 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 
 	/**
 	 * Sorts the subjects in m_subjects such that no base class occurs after any
-	 * class which derives it.
+	 * class which derives it. Among the classes whose bases have all been
+	 * placed, the one which comes first in m_subjects is always placed next,
+	 * so the order only depends on that of m_subjects. Classes which take
+	 * part in an inheritance cycle (which can only result from corrupt
+	 * input) are reported and placed at the end, in their original order.
 	 * 
 	 * @param considerInstantiations
 	 *            if set to <b>true</b>, the topological- sort will consider
@@ -731,25 +850,21 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 	 */
 	protected List<Aggregate> topologicallySortSubjects(
 			boolean considerInstantiations) {
-		class TopologicalNode {
-			public TopologicalNode() {
-				entryDegree = 0;
-				exit = new LinkedList<Aggregate>();
-			}
-
-			public int entryDegree;
-			public List<Aggregate> exit;
-		}
-		;
-
-		// Translate the inheritance information into a graph
-		Map<Aggregate, TopologicalNode> bases = new HashMap<Aggregate, TopologicalNode>();
-
-		for (Aggregate subject : m_subjects) {
-			bases.put(subject, new TopologicalNode());
-		}
-		for (Aggregate subject : m_subjects) {
-			for (InheritanceConnection connection: subject.getBases()) {
+		// Translate the inheritance information into a graph; the nodes are
+		// numbered by the position of the subjects in m_subjects
+		List<Aggregate> subjects = new ArrayList<Aggregate>(m_subjects);
+		int nsubjects = subjects.size();
+		Map<Aggregate, Integer> numbers = new HashMap<Aggregate, Integer>();
+		for (int i = 0; i < nsubjects; ++i) {
+			numbers.put(subjects.get(i), i);
+		}
+		int[] entryDegree = new int[nsubjects];
+		List<List<Integer>> exits = new ArrayList<List<Integer>>(nsubjects);
+		for (int i = 0; i < nsubjects; ++i) {
+			exits.add(null);
+		}
+		for (int i = 0; i < nsubjects; ++i) {
+			for (InheritanceConnection connection: subjects.get(i).getBases()) {
 				Aggregate base = connection.getBase();
 				// Find the specialization if one was generated
 				if (base.isTemplated() && considerInstantiations) {
@@ -757,41 +872,98 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 							connection.getBaseTemplateArguments());
 					base = m_instanceMap.get(expression);
 				}
-				// Update the topo-nodes
-				if (base != null && bases.containsKey(base)) {
-					(bases.get(base)).exit.add(subject);
-					(bases.get(subject)).entryDegree++;
+				// Add an edge from the base to the derived class
+				Integer from = (base == null) ? null : numbers.get(base);
+				if (from != null) {
+					if (exits.get(from) == null)
+						exits.set(from, new ArrayList<Integer>(2));
+					exits.get(from).add(i);
+					entryDegree[i]++;
 				}
 			}
 		}
 
 		// Now,
-		// Perform a basic topological-sort on the graph formed by the
-		// TopologicalNode objects
-
-		List<Aggregate> sorted_subjects = new LinkedList<Aggregate>();
-
-		while (!bases.isEmpty()) {
-			for (Aggregate node : bases.keySet()) {
-				TopologicalNode topo = bases.get(node);
-				// Find a node with a zero entry degree
-				if (topo.entryDegree == 0) {
-					// Remove node from graph including all edges connected
-					// to it
-					for (Aggregate exit : topo.exit) {
-						TopologicalNode exitTarget = bases
-								.get(exit);
-						exitTarget.entryDegree--;
+		// Perform a topological-sort on the graph (Kahn's algorithm), taking
+		// the earliest of the nodes with a zero entry degree each time
+		List<Aggregate> sorted_subjects = new ArrayList<Aggregate>(nsubjects);
+		PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+		for (int i = 0; i < nsubjects; ++i) {
+			if (entryDegree[i] == 0) ready.add(i);
+		}
+		while (!ready.isEmpty()) {
+			int node = ready.poll();
+			sorted_subjects.add(subjects.get(node));
+			// Remove all edges leaving the node from the graph
+			if (exits.get(node) == null) continue;
+			for (int exit: exits.get(node)) {
+				if (--entryDegree[exit] == 0) ready.add(exit);
+			}
+		}
+
+		if (sorted_subjects.size() < nsubjects) {
+			reportInheritanceCycles(subjects, entryDegree, exits);
+			for (int i = 0; i < nsubjects; ++i) {
+				if (entryDegree[i] > 0) sorted_subjects.add(subjects.get(i));
+			}
+		}
+		return sorted_subjects;
+	}
+
+	/**
+	 * Prints a warning listing the classes which are left over by the
+	 * topological sort. Classes which merely derive from a cycle are not
+	 * listed, only those which are part of a cycle or lie between cycles.
+	 * 
+	 * @param subjects
+	 *            the nodes of the graph
+	 * @param entryDegree
+	 *            remaining entry degree of each node; nodes which have been
+	 *            sorted have zero
+	 * @param exits
+	 *            edges leaving each node
+	 */
+	private static void reportInheritanceCycles(List<Aggregate> subjects,
+			int[] entryDegree, List<List<Integer>> exits) {
+		// Count the edges which lead from each left-over node to other
+		// left-over nodes, and peel off the nodes which have none
+		int nsubjects = subjects.size();
+		int[] exitDegree = new int[nsubjects];
+		List<List<Integer>> entries = new ArrayList<List<Integer>>(nsubjects);
+		for (int i = 0; i < nsubjects; ++i) {
+			entries.add(new ArrayList<Integer>(1));
+		}
+		LinkedList<Integer> peel = new LinkedList<Integer>();
+		for (int i = 0; i < nsubjects; ++i) {
+			if (entryDegree[i] == 0) continue;
+			if (exits.get(i) != null) {
+				for (int exit: exits.get(i)) {
+					if (entryDegree[exit] > 0) {
+						exitDegree[i]++;
+						entries.get(exit).add(i);
 					}
-					bases.remove(node);
-					// Add removed node to new subjects list
-					sorted_subjects.add(node);
-					break;
 				}
 			}
+			if (exitDegree[i] == 0) peel.add(i);
+		}
+		boolean[] peeled = new boolean[nsubjects];
+		while (!peel.isEmpty()) {
+			int node = peel.removeFirst();
+			peeled[node] = true;
+			for (int entry: entries.get(node)) {
+				if (--exitDegree[entry] == 0) peel.add(entry);
+			}
 		}
 
-		return sorted_subjects;
+		StringBuffer cycle = new StringBuffer();
+		for (int i = 0; i < nsubjects; ++i) {
+			if (entryDegree[i] > 0 && !peeled[i]) {
+				if (cycle.length() > 0) cycle.append(", ");
+				cycle.append(Utils.cleanFullName(subjects.get(i)));
+			}
+		}
+		System.err.println("*** WARNING: inheritance cycle among " + cycle
+				+ "; these classes and their subclasses are left unsorted");
 	}
 
 	// @}
@@ -812,6 +984,10 @@ public class GenericCodeGenerator implements sourceanalysis.view.Perspective {
 	// Template-related
 	protected Set<String> m_instanceSet;
 	protected Map<String, Aggregate> m_instanceMap;
+	private Set<Entity> m_invested;
+	private int m_investedTemplateCount;
+	private int m_instantiationPasses;
+	private int m_instantiations;
 
 	protected SupervisedTemplates m_supervisedTemplates;
 }
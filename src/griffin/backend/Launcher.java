@@ -1,5 +1,6 @@
 package backend;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
@@ -12,6 +13,7 @@ import sourceanalysis.ElementNotFoundException;
 import sourceanalysis.MissingInformationException;
 import sourceanalysis.ProgramDatabase;
 import sourceanalysis.dox.DoxygenAnalyzer;
+import sourceanalysis.dox.ProgramDatabaseSnapshot;
 import sourceanalysis.mixin.JythonMixIn;
 import sourceanalysis.mixin.MixIn;
 import backend.configuration.BackendConfiguration;
@@ -41,6 +43,7 @@ public class Launcher {
        } catch (Exception e) {
            System.err.println("*** ERROR: " + e.getMessage());
            e.printStackTrace();
+           System.exit(1);
        }
    }
    
@@ -61,7 +64,8 @@ public class Launcher {
    protected void launch(String[] args) throws BackendException {
        if(args.length == 0) {
            printBasicLaunchHelp();
-           System.exit(2);
+           exit(2);
+           return;
        }
        
        
@@ -86,7 +90,7 @@ public class Launcher {
            } catch (BackendNotFoundException e) {
                System.err.println("Backend " + backendName + " does not exist.\n" +
                           "Use --" + Launcher.LIST_ALL_FLAG + " to show all available backends");
-               System.exit(1);
+               exit(1);
            }
        }
            
@@ -242,12 +246,43 @@ public class Launcher {
            
            
            dox.logger.setLevel(Level.WARNING);
-           ProgramDatabase pdb = dox.processIndex();
+           ProgramDatabase pdb = null;
+           
+           // Reuse the snapshot of a previous analysis if the input is the
+           // same, or update it if only some of the documents changed
+           ProgramDatabaseSnapshot snapshot = getSnapshot(dox, backendProperties);
+           ProgramDatabaseSnapshot.Contents previous = null;
+           String inputKey = null;
+           if (snapshot != null) {
+               inputKey = getInputKey(dox);
+               previous = snapshot.read();
+               if (previous != null && previous.getKey().equals(inputKey)) {
+                   pdb = previous.getProgram();
+               }
+           }
+           
+           if (pdb == null) {
+               if (previous != null && previous.getHistory() != null) {
+                   pdb = dox.processIndex(previous.getProgram(),
+                                          previous.getHistory());
+               }
+               else {
+                   pdb = dox.processIndex();
+               }
+               if (Boolean.getBoolean(STATISTICS_PROPERTY)) {
+                   dox.reportStatistics(System.err);
+               }
+               if (snapshot != null) {
+                   snapshot.save(pdb, inputKey, dox.getHistory());
+               }
+           }
            
            // Apply mix-ins
            for (MixIn mixin: mixins) {
         	   mixin.apply(pdb);
            }
+           // - index the complete program once, for collecting names
+           pdb.buildNameIndex(GenericCodeGenerator.NAMING);
            
            // create an instance of the backend
            Backend backend = backendData.getBackendInterface().newInstance();
@@ -268,6 +303,45 @@ public class Launcher {
        
    }
 
+   /**
+    * Returns the snapshot in which the program database is kept between
+    * runs. By default, this is the file given by the "snapshot" property.
+    * @param dox analyzer of the input
+    * @param backendProperties properties passed to the backend
+    * @return snapshot to use, or <b>null</b> to analyze the input from
+    * scratch without keeping the result
+    */
+   protected ProgramDatabaseSnapshot getSnapshot(DoxygenAnalyzer dox, PropertyPage backendProperties) {
+       String snapshotFile =
+           backendProperties.getString(BackendData.DEFAULT_SNAPSHOT_PROPERTY.getPropertyName());
+       if (snapshotFile.length() > 0) {
+           return new ProgramDatabaseSnapshot(new File(snapshotFile));
+       }
+       return null;
+   }
+   
+   /**
+    * Returns the key of the current input, to be compared with the key of
+    * the snapshot. By default, the whole input is digested. The key need
+    * not identify the build of Griffin: a snapshot is only ever read by
+    * the build which wrote it (see ProgramDatabaseSnapshot).
+    * @param dox analyzer of the input
+    * @return key of the input
+    * @throws IOException if the input cannot be read
+    */
+   protected String getInputKey(DoxygenAnalyzer dox) throws IOException {
+       return dox.digestInput();
+   }
+   
+   /**
+    * Terminates the launcher with an exit status, when the command line is
+    * wrong. By default, the JVM exits.
+    * @param status exit status
+    */
+   protected void exit(int status) {
+       System.exit(status);
+   }
+
    /**
     * Handles a utility flag passed to Griffin
     * @param flag utility flag (help, etc)
@@ -388,5 +462,11 @@ public class Launcher {
    
    private static final String HELP_FLAG = "help";
    private static final String LIST_ALL_FLAG = "backends";
+   
+   /**
+    * System property which, when set to true, makes the launcher print
+    * statistics gathered during the run
+    */
+   public static final String STATISTICS_PROPERTY = "griffin.stats";
 
 }
@@ -0,0 +1,287 @@
+package backend;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Collects the files generated by a backend, and only writes those whose
+ * contents actually changed.
+ * <p>Each file is generated into memory through a Writer obtained from
+ * open(). When that Writer is closed, the new contents are compared with
+ * the existing file; if they are the same, the file is left alone - along
+ * with its modification time, so make and ccache do not consider it out of
+ * date. Otherwise, the contents are written to a temporary file in the same
+ * directory, which then atomically replaces the old file. When the old
+ * file is a symbolic link, the file it points to is replaced instead, and
+ * the replacement keeps the permissions of the old file; a file which did
+ * not exist gets the permissions the umask gives any new file.</p>
+ * <p>The Writers are buffered, so code generators need not (and should not)
+ * flush them after every small piece of output.</p>
+ *
+ * <h1>Example</h1>
+ * <pre>
+ * OutputSink sink = new OutputSink("robin");
+ * Writer out = sink.open("4robin.cc");
+ * ...
+ * sink.close(); // closes 'out'
+ * </pre>
+ */
+public class OutputSink {
+
+	/**
+	 * Constructor for OutputSink.
+	 * @param name name of the backend, used when reporting
+	 */
+	public OutputSink(String name)
+	{
+		m_name = name;
+		m_pending = new ArrayList<Writer>();
+	}
+
+	/**
+	 * Starts generating a file.
+	 * @param filename name of the file to generate
+	 * @return Writer a writer which accumulates the contents of the file, and
+	 * writes it when closed
+	 */
+	public Writer open(String filename)
+	{
+		Writer writer = new PendingFile(new File(filename));
+		m_pending.add(writer);
+		return writer;
+	}
+
+	/**
+	 * Closes all the files opened which were not closed yet. How many files
+	 * were changed, and the amount of output, are reported when statistics
+	 * are requested (see Launcher.STATISTICS_PROPERTY).
+	 * @throws IOException if a file cannot be written
+	 */
+	public void close() throws IOException
+	{
+		for (Writer writer: new ArrayList<Writer>(m_pending)) {
+			writer.close();
+		}
+		if (Boolean.getBoolean(Launcher.STATISTICS_PROPERTY)) {
+			reportStatistics(System.err);
+		}
+	}
+
+	/**
+	 * Prints the amount of generated output, and how many files were
+	 * changed.
+	 * @param out stream to print to
+	 */
+	public void reportStatistics(PrintStream out)
+	{
+		out.println("| " + m_name + " output: " + m_emitted + " bytes in "
+				+ (m_unchanged + m_rewritten + m_created) + " files - "
+				+ m_unchanged + " unchanged, " + m_rewritten + " rewritten, "
+				+ m_created + " new");
+	}
+
+	/**
+	 * Returns the number of files which already had the generated contents.
+	 */
+	public int getUnchangedCount() { return m_unchanged; }
+
+	/**
+	 * Returns the number of existing files which were replaced.
+	 */
+	public int getRewrittenCount() { return m_rewritten; }
+
+	/**
+	 * Returns the number of files which did not exist before.
+	 */
+	public int getCreatedCount() { return m_created; }
+
+	/**
+	 * Returns the total size of the files generated, whether they were
+	 * written or not.
+	 */
+	public long getEmittedBytes() { return m_emitted; }
+
+	/**
+	 * Writes generated contents to a file, unless the file already has
+	 * exactly these contents.
+	 */
+	private void commit(File file, byte[] contents) throws IOException
+	{
+		m_emitted += contents.length;
+		boolean exists = file.isFile();
+		if (exists && file.length() == contents.length
+				&& Arrays.equals(digest(file), digest(contents))) {
+			++m_unchanged;
+			return;
+		}
+		// Replace the file a symbolic link points to rather than the link
+		// itself, and write next to it so that it can be renamed in place
+		Path target = exists ? file.toPath().toRealPath() : file.toPath();
+		Path directory = target.toAbsolutePath().getParent();
+		File temp = createTemp(directory, target.getFileName().toString());
+		try {
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(contents);
+			}
+			finally {
+				out.close();
+			}
+			if (exists) keepMode(target, temp);
+			try {
+				Files.move(temp.toPath(), target,
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), target,
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			temp.delete();
+		}
+		if (exists) ++m_rewritten; else ++m_created;
+	}
+
+	/**
+	 * Creates an empty file with a unique name in a directory. Unlike
+	 * File.createTempFile(), which makes the file private to its owner,
+	 * this leaves its permissions to the umask.
+	 */
+	private static File createTemp(Path directory, String name)
+		throws IOException
+	{
+		while (true) {
+			Path temp = directory.resolve("." + name + "." + Long.toString(
+					m_random.nextLong() & Long.MAX_VALUE, 36) + ".tmp");
+			try {
+				return Files.createFile(temp).toFile();
+			}
+			catch (FileAlreadyExistsException e) {
+				// taken - try another name
+			}
+		}
+	}
+
+	/**
+	 * Gives the temporary file the permissions of the file it replaces.
+	 */
+	private static void keepMode(Path target, File temp) throws IOException
+	{
+		try {
+			Files.setPosixFilePermissions(temp.toPath(),
+					Files.getPosixFilePermissions(target));
+		}
+		catch (UnsupportedOperationException e) {
+			// not a POSIX file system - nothing to keep
+		}
+	}
+
+	private static byte[] digest(byte[] contents)
+	{
+		MessageDigest digest = newDigest();
+		digest.update(contents);
+		return digest.digest();
+	}
+
+	private static byte[] digest(File file) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+		}
+		finally {
+			in.close();
+		}
+		return digest.digest();
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-1 is not available", e);
+		}
+	}
+
+	/**
+	 * A file being generated in memory.
+	 */
+	private class PendingFile extends Writer
+	{
+		PendingFile(File file)
+		{
+			m_file = file;
+			m_buffer = new ByteArrayOutputStream();
+			m_writer = new BufferedWriter(new OutputStreamWriter(m_buffer),
+					BUFFER_SIZE);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException
+		{
+			m_writer.write(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException
+		{
+			m_writer.write(str, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			m_writer.flush();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (!m_pending.remove(this)) return; // already closed
+			m_writer.close();
+			commit(m_file, m_buffer.toByteArray());
+		}
+
+		private File m_file;
+		private ByteArrayOutputStream m_buffer;
+		private Writer m_writer;
+	}
+
+	private String m_name;
+	private List<Writer> m_pending;
+	private int m_unchanged;
+	private int m_rewritten;
+	private int m_created;
+	private long m_emitted;
+
+	private static final Random m_random = new Random();
+
+	private static final int BUFFER_SIZE = 1 << 16;
+}
@@ -0,0 +1,693 @@
+package backend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import sourceanalysis.dox.BuildStamp;
+import sourceanalysis.dox.DoxygenAnalyzer;
+import sourceanalysis.dox.ProgramDatabaseSnapshot;
+import backend.configuration.BackendConfiguration;
+import backend.exceptions.configuration.ConfigurationParseException;
+
+/**
+ * A long-running Griffin process, which runs backends on behalf of clients
+ * connecting to a port on the local host. Successive runs share a warm JVM
+ * and the backend configuration, and each input directory analyzed is kept
+ * as an in-memory ProgramDatabaseSnapshot: as long as none of its XML
+ * documents change, the analysis is skipped altogether, and when some do,
+ * the snapshot is updated incrementally.
+ * <p>A request carries the arguments of Launcher and the system properties
+ * (such as griffin.dox.path) to set while it runs; the output of the run is
+ * sent back to the client, followed by the exit status. Requests are served
+ * one at a time. Paths in a request are resolved relative to the directory
+ * in which the server was started, so clients should send absolute ones.</p>
+ * <p>Before digesting the input again, the server compares the names, sizes
+ * and modification times of the XML documents with those it saw the last
+ * time; only if they differ are the documents read. When a snapshot file is
+ * requested with --snapshot, it is used instead of the one in memory.</p>
+ * <p>Only clients which can read the token file of the server, written to
+ * the home directory of the user who started it, may send requests.</p>
+ * <p>Clients also send the BuildStamp of the Griffin classes they would
+ * run. When it differs from that of the classes the server runs - because
+ * Griffin was rebuilt since the server started - the server does not carry
+ * out the request, and stops; the client should start a new server.</p>
+ *
+ * <h1>Protocol</h1>
+ * Both sides send lines of UTF-8 text. The client sends:
+ * <pre>
+ * griffin-server-2 &lt;token&gt; &lt;build stamp&gt;
+ * property &lt;name&gt;=&lt;value&gt;   (any number of these)
+ * arg &lt;argument&gt;           (any number of these)
+ * run                      (or: stop)
+ * </pre>
+ * and the server answers with lines of output - "out &lt;text&gt;" or
+ * "err &lt;text&gt;", or "out+ &lt;text&gt;" and "err+ &lt;text&gt;" for text
+ * which does not end a line - and finally "exit &lt;status&gt;". A request
+ * with the wrong token is answered by "reject &lt;reason&gt;", and a server
+ * running another build answers "stale &lt;build stamp&gt;" instead.
+ */
+public class Server {
+
+	/**
+	 * Starts a server, or stops a running one.
+	 * <pre>
+	 * java backend.Server [--port N] [--idle minutes] [--stop]
+	 * </pre>
+	 * @param args command-line arguments
+	 */
+	public static void main(String[] args)
+	{
+		int port = DEFAULT_PORT;
+		int idle = DEFAULT_IDLE_MINUTES;
+		boolean stop = false;
+		try {
+			for (int i = 0; i < args.length; ++i) {
+				if (args[i].equals("--port") && i + 1 < args.length)
+					port = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--idle") && i + 1 < args.length)
+					idle = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--stop"))
+					stop = true;
+				else
+					throw new NumberFormatException(args[i]);
+			}
+		}
+		catch (NumberFormatException e) {
+			System.err.println("Usage: java backend.Server [--port N] "
+					+ "[--idle minutes] [--stop]");
+			System.exit(2);
+		}
+		try {
+			if (stop) {
+				stop(port);
+			}
+			else {
+				Server server = new Server(new BackendConfiguration(), port);
+				System.err.println("Griffin server listening on port "
+						+ server.getPort());
+				server.serve(idle * 60000L);
+			}
+		}
+		catch (Exception e) {
+			System.err.println("*** ERROR: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Creates a server, listening on a port of the loopback interface.
+	 * @param bc backend configuration shared by all runs
+	 * @param port port number; 0 picks a free port
+	 * @throws IOException if the port cannot be bound or the token file
+	 * cannot be written
+	 */
+	public Server(BackendConfiguration bc, int port) throws IOException
+	{
+		m_configuration = bc;
+		m_socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+		m_build = BuildStamp.get();
+		m_token = newToken();
+		m_tokenFile = getTokenFile(m_socket.getLocalPort());
+		try {
+			writeToken(m_tokenFile, m_token);
+		}
+		catch (IOException e) {
+			m_socket.close();
+			throw e;
+		}
+		final int maxInputs = Integer.getInteger(MAX_INPUTS_PROPERTY,
+				DEFAULT_MAX_INPUTS);
+		m_inputs = new LinkedHashMap<String, CachedInput>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, CachedInput> eldest)
+			{
+				return size() > maxInputs;
+			}
+		};
+		// Log records go to whatever System.err is at the time, so that
+		// warnings reach the client of the current request
+		Logger root = Logger.getLogger("");
+		for (Handler handler: root.getHandlers())
+			root.removeHandler(handler);
+		root.addHandler(new Handler() {
+			{
+				setLevel(Level.INFO);
+				setFormatter(new SimpleFormatter());
+			}
+			@Override
+			public void publish(LogRecord record) {
+				if (isLoggable(record))
+					System.err.print(getFormatter().format(record));
+			}
+			@Override
+			public void flush() { System.err.flush(); }
+			@Override
+			public void close() { }
+		});
+	}
+
+	/**
+	 * Returns the port on which the server listens.
+	 */
+	public int getPort()
+	{
+		return m_socket.getLocalPort();
+	}
+
+	/**
+	 * Serves requests until a client asks the server to stop, or until no
+	 * request arrives for a while. The server is closed when done.
+	 * @param idleMillis time to wait for a request before stopping; 0 to
+	 * wait forever
+	 * @throws IOException if the server socket fails
+	 */
+	public void serve(long idleMillis) throws IOException
+	{
+		try {
+			m_socket.setSoTimeout((int)Math.min(idleMillis, Integer.MAX_VALUE));
+			while (!m_stopped) {
+				Socket client;
+				try {
+					client = m_socket.accept();
+				}
+				catch (SocketTimeoutException e) {
+					break;
+				}
+				try {
+					handle(client);
+				}
+				catch (IOException e) {
+					System.err.println("*** WARNING: request failed: " + e);
+				}
+				finally {
+					client.close();
+				}
+			}
+		}
+		finally {
+			close();
+		}
+	}
+
+	/**
+	 * Stops listening, and removes the token file.
+	 */
+	public void close() throws IOException
+	{
+		m_socket.close();
+		m_inputs.clear();
+		try {
+			if (m_token.equals(readToken(m_tokenFile)))
+				m_tokenFile.delete();
+		}
+		catch (IOException e) {
+			// - already gone, or replaced by another server
+		}
+	}
+
+	/**
+	 * Sends a request to a running server, and copies the output of the run
+	 * to the given streams.
+	 * @param port port on which the server listens
+	 * @param properties system properties to set during the run
+	 * @param args arguments for Launcher
+	 * @param out stream to copy standard output to
+	 * @param err stream to copy standard error to
+	 * @return int exit status of the run
+	 * @throws IOException if the server cannot be reached, rejects the
+	 * request, or runs another build of Griffin
+	 */
+	public static int request(int port, Map<String, String> properties,
+			String[] args, PrintStream out, PrintStream err)
+		throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, String> property: properties.entrySet())
+			lines.add("property " + property.getKey() + "="
+					+ property.getValue());
+		for (String arg: args)
+			lines.add("arg " + arg);
+		lines.add("run");
+		return exchange(port, lines, out, err);
+	}
+
+	/**
+	 * Asks a running server to stop.
+	 * @param port port on which the server listens
+	 * @throws IOException if the server cannot be reached
+	 */
+	public static void stop(int port) throws IOException
+	{
+		exchange(port, Collections.singletonList("stop"), System.out,
+				System.err);
+	}
+
+	/**
+	 * Returns the file in which the server listening on a port keeps the
+	 * token which clients must present.
+	 * @param port port number
+	 */
+	public static File getTokenFile(int port)
+	{
+		return new File(System.getProperty("user.home"),
+				".griffin-server-" + port);
+	}
+
+	private static int exchange(int port, List<String> lines, PrintStream out,
+			PrintStream err) throws IOException
+	{
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			Writer writer = new BufferedWriter(
+					new OutputStreamWriter(socket.getOutputStream(), UTF8));
+			writer.write(PROTOCOL + " " + readToken(getTokenFile(port)) + " "
+					+ BuildStamp.get() + "\n");
+			for (String line: lines)
+				writer.write(line + "\n");
+			writer.flush();
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), UTF8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String tag = (space < 0) ? line : line.substring(0, space);
+				String text = (space < 0) ? "" : line.substring(space + 1);
+				if (tag.equals("exit"))
+					return Integer.parseInt(text);
+				if (tag.equals("reject"))
+					throw new IOException("the server on port " + port
+							+ " rejected the request: " + text);
+				if (tag.equals("stale"))
+					throw new IOException("the server on port " + port
+							+ " runs another build of Griffin, and is stopping");
+				PrintStream stream = tag.startsWith("err") ? err : out;
+				if (tag.endsWith("+"))
+					stream.print(text);
+				else
+					stream.println(text);
+			}
+			throw new IOException("server closed the connection");
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Reads one request from a client, and carries it out.
+	 */
+	private void handle(Socket socket) throws IOException
+	{
+		socket.setSoTimeout(REQUEST_TIMEOUT);
+		BufferedReader in = new BufferedReader(
+				new InputStreamReader(socket.getInputStream(), UTF8));
+		Writer out = new BufferedWriter(
+				new OutputStreamWriter(socket.getOutputStream(), UTF8));
+		String header = in.readLine();
+		int space = (header == null) ? -1 : header.lastIndexOf(' ');
+		if (space < 0 || !MessageDigest.isEqual(
+				header.substring(0, space).getBytes(UTF8),
+				(PROTOCOL + " " + m_token).getBytes(UTF8))) {
+			reply(out, "reject", "not a valid Griffin request");
+			out.flush();
+			return;
+		}
+		if (!header.substring(space + 1).equals(m_build)) {
+			// - make way for a server running the client's classes
+			m_stopped = true;
+			reply(out, "stale", m_build);
+			out.flush();
+			return;
+		}
+		Map<String, String> properties = new LinkedHashMap<String, String>();
+		List<String> args = new ArrayList<String>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.startsWith("property ") && line.indexOf('=') > 0) {
+				int eq = line.indexOf('=');
+				properties.put(line.substring("property ".length(), eq),
+						line.substring(eq + 1));
+			}
+			else if (line.startsWith("arg ")) {
+				args.add(line.substring("arg ".length()));
+			}
+			else if (line.equals("run")) {
+				int status = run(properties, args.toArray(new String[0]), out);
+				reply(out, "exit", "" + status);
+				out.flush();
+				return;
+			}
+			else if (line.equals("stop")) {
+				m_stopped = true;
+				reply(out, "exit", "0");
+				out.flush();
+				return;
+			}
+			else {
+				reply(out, "err", "*** ERROR: invalid request line: " + line);
+				reply(out, "exit", "2");
+				out.flush();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Runs the launcher with the given arguments, with the system
+	 * properties set and the standard streams sent to the client.
+	 * @return int exit status
+	 */
+	private int run(Map<String, String> properties, String[] args, Writer out)
+	{
+		Channel stdout = new Channel(out, "out");
+		Channel stderr = new Channel(out, "err");
+		PrintStream savedOut = System.out;
+		PrintStream savedErr = System.err;
+		Map<String, String> savedProperties = new HashMap<String, String>();
+		for (Map.Entry<String, String> property: properties.entrySet()) {
+			savedProperties.put(property.getKey(),
+					System.getProperty(property.getKey()));
+			System.setProperty(property.getKey(), property.getValue());
+		}
+		int status = 0;
+		try {
+			System.setOut(new PrintStream(stdout, true, UTF8.name()));
+			System.setErr(new PrintStream(stderr, true, UTF8.name()));
+			new RequestLauncher().launch(args);
+		}
+		catch (Exit e) {
+			status = e.m_status;
+		}
+		catch (Exception e) {
+			// - reported in the same way as by Launcher.main()
+			System.err.println("*** ERROR: " + e.getMessage());
+			e.printStackTrace();
+			status = 1;
+		}
+		catch (Error e) {
+			System.err.println("*** ERROR: " + e);
+			e.printStackTrace();
+			status = 1;
+		}
+		finally {
+			System.out.flush();
+			System.err.flush();
+			System.setOut(savedOut);
+			System.setErr(savedErr);
+			for (Map.Entry<String, String> property:
+					savedProperties.entrySet()) {
+				if (property.getValue() == null)
+					System.clearProperty(property.getKey());
+				else
+					System.setProperty(property.getKey(), property.getValue());
+			}
+			stdout.finish();
+			stderr.finish();
+		}
+		return status;
+	}
+
+	private static void reply(Writer out, String tag, String text)
+		throws IOException
+	{
+		synchronized (out) {
+			out.write(tag + " " + text + "\n");
+		}
+	}
+
+	/**
+	 * Returns the cached state of an input, creating it on first use.
+	 * @param path the input directory and the rest of the search path
+	 */
+	private CachedInput getInput(String[] path)
+	{
+		String[] absolute = new String[path.length];
+		for (int i = 0; i < path.length; ++i)
+			absolute[i] = new File(path[i]).getAbsolutePath();
+		String name = Arrays.toString(absolute);
+		CachedInput input = m_inputs.get(name);
+		if (input == null) {
+			input = new CachedInput(absolute);
+			m_inputs.put(name, input);
+		}
+		return input;
+	}
+
+	/**
+	 * A Launcher which keeps the program database in the memory of the
+	 * server, and which reports wrong command lines by an exit status
+	 * rather than by terminating the JVM.
+	 */
+	private class RequestLauncher extends Launcher
+	{
+		RequestLauncher() throws ConfigurationParseException
+		{
+			super(m_configuration);
+		}
+
+		@Override
+		protected ProgramDatabaseSnapshot getSnapshot(DoxygenAnalyzer dox,
+				PropertyPage backendProperties)
+		{
+			ProgramDatabaseSnapshot snapshot =
+				super.getSnapshot(dox, backendProperties);
+			if (snapshot != null) return snapshot;
+			m_input = getInput(dox.getInputPath());
+			return m_input.m_snapshot;
+		}
+
+		@Override
+		protected String getInputKey(DoxygenAnalyzer dox) throws IOException
+		{
+			if (m_input == null) return super.getInputKey(dox);
+			return m_input.getKey(dox);
+		}
+
+		@Override
+		protected void exit(int status)
+		{
+			throw new Exit(status);
+		}
+
+		private CachedInput m_input;
+	}
+
+	/**
+	 * Thrown by RequestLauncher in place of System.exit().
+	 */
+	private static class Exit extends RuntimeException
+	{
+		Exit(int status)
+		{
+			super("exit " + status);
+			m_status = status;
+		}
+
+		private int m_status;
+	}
+
+	/**
+	 * The state kept for an input directory between runs.
+	 */
+	private static class CachedInput
+	{
+		CachedInput(String[] path)
+		{
+			m_path = path;
+			m_snapshot = new ProgramDatabaseSnapshot();
+		}
+
+		/**
+		 * Returns the key of the input. It is only computed again if the
+		 * listing of the XML documents changed since the last time.
+		 */
+		String getKey(DoxygenAnalyzer dox) throws IOException
+		{
+			String listing = list();
+			boolean unchanged = (m_key != null && listing.equals(m_listing));
+			if (!unchanged) {
+				m_key = dox.digestInput();
+				m_listing = listing;
+			}
+			if (Boolean.getBoolean(Launcher.STATISTICS_PROPERTY)) {
+				System.err.println("| Server: XML input "
+						+ (unchanged ? "unchanged since the last run"
+								: "digested"));
+			}
+			return m_key;
+		}
+
+		/**
+		 * Describes the XML documents in the search path by their names,
+		 * sizes and modification times.
+		 */
+		private String list()
+		{
+			StringBuffer sb = new StringBuffer();
+			for (String directory: m_path) {
+				sb.append(directory + "\n");
+				File[] files = new File(directory).listFiles();
+				if (files == null) continue;
+				Arrays.sort(files);
+				for (File file: files) {
+					if (!file.getName().endsWith(".xml")) continue;
+					sb.append(file.getName() + " " + file.length() + " "
+							+ file.lastModified() + "\n");
+				}
+			}
+			return sb.toString();
+		}
+
+		private String[] m_path;
+		private ProgramDatabaseSnapshot m_snapshot;
+		private String m_key;
+		private String m_listing;
+	}
+
+	/**
+	 * Sends what is written to it to the client, one line at a time.
+	 */
+	private static class Channel extends OutputStream
+	{
+		Channel(Writer out, String tag)
+		{
+			m_out = out;
+			m_tag = tag;
+			m_line = new ByteArrayOutputStream();
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException
+		{
+			if (b == '\n') {
+				reply(m_out, m_tag, new String(m_line.toByteArray(), UTF8));
+				m_line.reset();
+			}
+			else {
+				m_line.write(b);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			m_out.flush();
+		}
+
+		/**
+		 * Sends the rest of the last line, if it was not ended.
+		 */
+		synchronized void finish()
+		{
+			try {
+				if (m_line.size() > 0) {
+					reply(m_out, m_tag + "+",
+							new String(m_line.toByteArray(), UTF8));
+					m_line.reset();
+				}
+				m_out.flush();
+			}
+			catch (IOException e) {
+				// - the client went away; nothing to tell it
+			}
+		}
+
+		private Writer m_out;
+		private String m_tag;
+		private ByteArrayOutputStream m_line;
+	}
+
+	private static String newToken()
+	{
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuffer sb = new StringBuffer();
+		for (byte b: bytes)
+			sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		return sb.toString();
+	}
+
+	private static void writeToken(File file, String token) throws IOException
+	{
+		// The token is written to a private file, which is then moved into
+		// place so that clients never see it half-written
+		Path temp = new File(file.getPath() + ".tmp").toPath();
+		Files.deleteIfExists(temp);
+		try {
+			Files.createFile(temp, PosixFilePermissions.asFileAttribute(
+					PosixFilePermissions.fromString("rw-------")));
+		}
+		catch (UnsupportedOperationException e) {
+			Files.createFile(temp);
+		}
+		Files.write(temp, token.getBytes(UTF8));
+		Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String readToken(File file) throws IOException
+	{
+		return new String(Files.readAllBytes(file.toPath()), UTF8).trim();
+	}
+
+	private BackendConfiguration m_configuration;
+	private ServerSocket m_socket;
+	private String m_build;
+	private String m_token;
+	private File m_tokenFile;
+	private Map<String, CachedInput> m_inputs;
+	private volatile boolean m_stopped;
+
+	private static final String PROTOCOL = "griffin-server-2";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int REQUEST_TIMEOUT = 60000;
+
+	/**
+	 * Port on which the server listens unless told otherwise
+	 */
+	public static final int DEFAULT_PORT = 7380;
+	/**
+	 * Minutes without requests after which the server stops by default
+	 */
+	public static final int DEFAULT_IDLE_MINUTES = 60;
+	/**
+	 * System property which sets the number of input directories whose
+	 * analyzed program is kept in memory; the least recently used is
+	 * dropped first
+	 */
+	public static final String MAX_INPUTS_PROPERTY = "griffin.server.inputs";
+	private static final int DEFAULT_MAX_INPUTS = 4;
+}
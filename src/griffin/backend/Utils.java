@@ -5,18 +5,25 @@ package backend;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreeNode;
 
 import sourceanalysis.Aggregate;
 import sourceanalysis.Alias;
@@ -325,7 +332,7 @@ public class Utils {
 		}
 		else {
 			Entity container = entity.getContainer();
-			String containerName = cleanFullNameBase(container);
+			String containerName = container.formatName(CLEAN_BASE_FORMATTER);
 			// Prepend container's name to entity's only if it's not empty,
 			// thus avoiding orphan colons.
 			cleanName = (containerName.equals("")) ?
@@ -351,7 +358,12 @@ public class Utils {
 	 */
 	public static String cleanFullName(Entity entity)
 	{
-		return Type.formatBaseUsing(entity, CLEAN_TYPE_FORMATTER);
+		// - specializations get their arguments appended
+		if (entity instanceof TemplateEnabledEntity
+				&& ((TemplateEnabledEntity)entity).isSpecialized())
+			return Type.formatBaseUsing(entity, CLEAN_TYPE_FORMATTER);
+		else
+			return CLEAN_TYPE_FORMATTER.formatBase(entity);
 	}
 
 	/**
@@ -584,34 +596,9 @@ public class Utils {
 		// Check whether given entity is a specialization
 		Entity metaEntity = seekOriginalTemplate(entity);
 		
-		// Scan each and every routine in the global namespace
-		for (ContainedConnection<Namespace, Routine> connection: program.getGlobalNamespace().getScope().getRoutines()) {
-			Routine fcn = connection.getContained();
-			
-			// Filter "operator<<"
-			if (fcn.getName().equals("operator<<")) {
-				Iterator<Parameter> pi = fcn.getParameters().iterator();
-				if (pi.hasNext()) {
-					// Obtain left operand type
-					Parameter left = pi.next();
-					if (pi.hasNext()) {
-						// Obtain right operand type
-						Parameter right = pi.next();
-						// Check types
-						if (left.getType().isFlat()
-							&& left.getType().getBaseType()
-								.getFullName().endsWith("ostream") /*@@@*/
-							&& right.getType().isFlat()
-							&& (areCongruent(right.getType().getBaseType(), entity)
-								|| areCongruent(right.getType().getBaseType(), metaEntity)))
-						{
-							return true;
-						}
-					}
-				}
-			}
-		}
-		return false;
+		OperatorIndex index = OperatorIndex.of(program);
+		return index.m_outputOperands.contains(stableUnalias(entity))
+			|| index.m_outputOperands.contains(stableUnalias(metaEntity));
 	}
 	
 	/**
@@ -627,31 +614,89 @@ public class Utils {
 											ProgramDatabase program)
 		throws MissingInformationException
 	{
-		// Scan each and every routine in the global namespace
 		List<Routine> matches = new LinkedList<Routine>();
 		if (with.isTemplated()) return matches;
 		
-		for (ContainedConnection<Namespace, Routine> connection: program.getGlobalNamespace().getScope().getRoutines()) {
-			Routine fcn = connection.getContained();
-			
-			// Filter operators
-			if (fcn.isOperator() && !fcn.isTemplated()) {
+		List<Routine> operators = 
+			OperatorIndex.of(program).m_byLeftOperand.get(with);
+		// - an alias of a template instance never matched, because
+		//   naiveUnalias() creates a new instance for it on every call
+		if (operators != null && stableUnalias(with) != null)
+			matches.addAll(operators);
+		return matches;
+	}
+
+	/**
+	 * The operators in the global namespace of a program, arranged for
+	 * hasOutputOperator() and findGloballyScopedOperators(). The index is
+	 * built on first use, kept with the program, and rebuilt once any scope
+	 * changes.
+	 */
+	private static class OperatorIndex
+	{
+		/**
+		 * Returns the index of a program, building it if necessary.
+		 */
+		static synchronized OperatorIndex of(ProgramDatabase program)
+			throws MissingInformationException
+		{
+			OperatorIndex index =
+				(OperatorIndex)program.getAttachment(OperatorIndex.class);
+			if (index == null || index.m_changes != Scope.getChangeCount()) {
+				index = new OperatorIndex(program);
+				program.setAttachment(OperatorIndex.class, index);
+			}
+			return index;
+		}
+		
+		private OperatorIndex(ProgramDatabase program)
+			throws MissingInformationException
+		{
+			m_changes = Scope.getChangeCount();
+			m_outputOperands = new HashSet<Entity>();
+			m_byLeftOperand = new HashMap<Entity, List<Routine>>();
+			// Scan each and every routine in the global namespace
+			for (ContainedConnection<Namespace, Routine> connection: program.getGlobalNamespace().getScope().getRoutines()) {
+				Routine fcn = connection.getContained();
+				boolean output = fcn.getName().equals("operator<<");
+				boolean operator = fcn.isOperator() && !fcn.isTemplated();
+				if (!output && !operator) continue;
 				Iterator<Parameter> pi = fcn.getParameters().iterator();
-				if (pi.hasNext()) {
-					// Obtain left operand type
-					Parameter left = pi.next();
-					// Check types
-					if (left.getType().isFlat()
-							&& left.getType().getBaseType() == with
-							&& (areCongruent(left.getType().getBaseType(), with) /*
-									|| matches(left.getType().getBaseType(), metaEntity)*/))
-					{
-							matches.add(fcn);
+				if (!pi.hasNext()) continue;
+				// Obtain left operand type
+				Parameter left = pi.next();
+				if (!left.getType().isFlat()) continue;
+				Entity leftBase = left.getType().getBaseType();
+				
+				// "operator<<" with an ostream on the left is an output
+				// operator for the right operand
+				if (output && pi.hasNext()) {
+					// Obtain right operand type
+					Parameter right = pi.next();
+					if (leftBase.getFullName().endsWith("ostream") /*@@@*/
+						&& right.getType().isFlat()) {
+						Entity operand =
+							stableUnalias(right.getType().getBaseType());
+						if (operand != null) m_outputOperands.add(operand);
 					}
 				}
-			}		
+				// Operators by left operand
+				if (operator) {
+					List<Routine> operators = m_byLeftOperand.get(leftBase);
+					if (operators == null) {
+						operators = new ArrayList<Routine>(1);
+						m_byLeftOperand.put(leftBase, operators);
+					}
+					operators.add(fcn);
+				}
+			}
 		}
-		return matches;
+		
+		// Right operands of output operators, as returned by stableUnalias()
+		private Set<Entity> m_outputOperands;
+		// Operators by the base type of the left operand
+		private Map<Entity, List<Routine>> m_byLeftOperand;
+		private int m_changes;
 	}
 
 	/**
@@ -769,6 +814,10 @@ public class Utils {
 	/**
 	 * Generates a specialization for a template class, given actual
 	 * values for the template parameters.
+	 * <p>In lazy mode (see isLazyInstantiation()), only the name, bases and
+	 * properties of the instance are set here; its members are instantiated
+	 * when its scope is first accessed. Member types which do not mention
+	 * anything substituted are shared with the template in both modes.</p>
 	 * @param template a templated Aggregate entity
 	 * @param arguments array of template arguments to place in template,
 	 * <i>must</i> be of the same length as the list of template parameters in
@@ -868,7 +917,8 @@ public class Utils {
 		// ---------------------------------
 		// Create an entity for the instance
 		// ---------------------------------
-		Aggregate templateInstance = (d == null) ? new Aggregate() : d;
+		Aggregate templateInstance = (d != null) ? d
+			: isLazyInstantiation() ? new LazyInstance() : new Aggregate();
 		templateInstance.setName(template.getName());
 		if (arguments.length > 0) {
 			templateInstance.setGeneralTemplateForSpecialization(template, 
@@ -917,6 +967,45 @@ public class Utils {
 			templateInstance.addBase(connection.getBase(), baseTemplateArgs,
 				connection.getVisibility());
 		}
+		// - members are instantiated now, or when they are first accessed
+		if (templateInstance instanceof LazyInstance) {
+			((LazyInstance)templateInstance).defer(template, substitution,
+					macros, existingInstancesMap);
+		}
+		else {
+			instantiateScope(template, templateInstance, substitution, macros,
+					existingInstancesMap);
+		}
+		
+		if (existingInstancesMap != null) {
+			String expression = templateExpression(template, arguments);
+			existingInstancesMap.put(expression, templateInstance);
+		}
+		
+		return templateInstance;
+	}
+	
+	/**
+	 * Fills the scope of a template instance with instances of the members
+	 * of the class template: inner classes, typedefs, enums, methods and
+	 * data members.
+	 * @param template a templated Aggregate entity
+	 * @param templateInstance the instance, whose header was already filled
+	 * by instantiateTemplate()
+	 * @param substitution type substitution map (Entity -&gt; Type)
+	 * @param macros textual substitution map (String -&gt; String)
+	 * @param existingInstancesMap map of existing template instantiations
+	 * @throws MissingInformationException when some information inside the
+	 * template object is incomplete
+	 * @throws InappropriateKindException when a malformed type expression
+	 * is encountered
+	 */
+	private static void instantiateScope(Aggregate template,
+		Aggregate templateInstance, Map<Entity, Type> substitution,
+		Map<String, TemplateArgument> macros,
+		Map<String, Aggregate> existingInstancesMap)
+		throws MissingInformationException, InappropriateKindException
+	{
 		// ------------------------------------
 		// Instantiate inner class declarations
 		// ------------------------------------
@@ -926,7 +1015,8 @@ public class Utils {
 				connection.getContained();
 			if (!isATemplateParameter(innerClass)) {
 				// Create a class by the same name in templateInstance
-				Aggregate instance = new Aggregate();
+				Aggregate instance = (templateInstance instanceof LazyInstance)
+					? new LazyInstance() : new Aggregate();
 				instance.setName(innerClass.getName());
 				templateInstance.getScope().addMember(
 						instance, connection.getVisibility());
@@ -1029,15 +1119,91 @@ public class Utils {
 			instantiateTemplate(innerClass, new TemplateArgument[0],
 					substitution, instance, existingInstancesMap);
 		}
+	}
+	
+	/**
+	 * Checks whether template instances are created with their members
+	 * deferred. This is the case when the system property
+	 * griffin.lazyinstances is set to true.
+	 */
+	public static boolean isLazyInstantiation()
+	{
+		return Boolean.getBoolean(LAZY_INSTANTIATION_PROPERTY);
+	}
+	
+	/**
+	 * Checks whether the members of a template instance were instantiated.
+	 * @param instance an Aggregate returned by instantiateTemplate()
+	 * @return <b>false</b> if the instance was created in lazy mode and its
+	 * scope was never accessed; <b>true</b> otherwise
+	 */
+	public static boolean isMaterialized(Aggregate instance)
+	{
+		return !(instance instanceof LazyInstance)
+			|| ((LazyInstance)instance).m_template == null;
+	}
+	
+	/**
+	 * A template instance whose members are instantiated only when its
+	 * scope is first accessed. Until then the instance only holds what is
+	 * needed to instantiate them - the class template and the substitution
+	 * maps. Backends that never look inside an instance (because it is only
+	 * mentioned in a type-expression, or is filtered out) don't pay for
+	 * copying its members.
+	 */
+	private static class LazyInstance extends Aggregate
+	{
+		/**
+		 * Records what the scope will be instantiated from.
+		 */
+		void defer(Aggregate template, Map<Entity, Type> substitution,
+			Map<String, TemplateArgument> macros,
+			Map<String, Aggregate> existingInstancesMap)
+		{
+			m_template = template;
+			m_substitution = substitution;
+			m_macros = macros;
+			m_existingInstancesMap = existingInstancesMap;
+		}
 		
-		if (existingInstancesMap != null) {
-			String expression = templateExpression(template, arguments);
-			existingInstancesMap.put(expression, templateInstance);
+		@Override
+		public Scope<Aggregate> getScope()
+		{
+			if (m_template != null) {
+				// - clear first, instantiateScope() accesses the scope too
+				Aggregate template = m_template;
+				m_template = null;
+				try {
+					instantiateScope(template, this, m_substitution, m_macros,
+							m_existingInstancesMap);
+				}
+				catch (MissingInformationException e) {
+					System.err.println("*** WARNING: members of template "
+							+ "instance of " + template.getFullName()
+							+ " are incomplete: " + e);
+				}
+				catch (InappropriateKindException e) {
+				}
+				m_substitution = null;
+				m_macros = null;
+				m_existingInstancesMap = null;
+			}
+			return super.getScope();
 		}
 		
-		return templateInstance;
+		Aggregate m_template;
+		Map<Entity, Type> m_substitution;
+		Map<String, TemplateArgument> m_macros;
+		Map<String, Aggregate> m_existingInstancesMap;
 	}
 	
+	/**
+	 * System property which, when set to true, makes instantiateTemplate()
+	 * defer the instantiation of members until they are needed
+	 */
+	public static final String LAZY_INSTANTIATION_PROPERTY =
+		"griffin.lazyinstances";
+	
 	/**
 	 * Substitutes template parameters for actual arguments in a
 	 * type expression.
@@ -1057,24 +1223,35 @@ public class Utils {
 		new Type.ExtendedTransformation() {
 			public TypeNode transform(TypeNode original)
 				throws InappropriateKindException {
+				// Make sure the class template itself is left alone in a legal
+				// instantiation (that is, never transform 'A' in 'A<X>')
+				if (original.getKind() == Type.TypeNode.NODE_TEMPLATE_INSTANTIATION) {
+					Type.TypeNode transformed = new Type.TypeNode(original.getKind());
+					transformed.add(original.getChildAt(0));
+					for (int child = 1; child < original.getChildCount(); ++child) {
+						TreeNode childNode = original.getChildAt(child);
+						if (childNode instanceof Type.TypeNode) {
+							transformed.add(Type.transformType(
+									(Type.TypeNode)childNode, this));
+							continue;
+						}
+						Object argument = 
+							((DefaultMutableTreeNode)childNode).getUserObject();
+						if (argument instanceof TemplateArgument)
+							argument = transform((TemplateArgument)argument);
+						transformed.add(new DefaultMutableTreeNode(argument));
+					}
+					transformed.setCV(original.getCV());
+					return transformed;
+				}
 				// Transform all other leaf nodes according to substitution
 				// map
 				if (original.getKind() == Type.TypeNode.NODE_LEAF) {
-					// Make sure I am not the class template itself in a legal
-					// instantiation (that is, never transform 'A' in 'A<X>')
-					if (original.getParent() != null
-						&& ((Type.TypeNode)original.getParent()).getKind()
-							== Type.TypeNode.NODE_TEMPLATE_INSTANTIATION 
-						&& original.getParent().getChildAt(0) == original) {
-						return null;
-					}
 					Entity base = original.getBase();
 					Object replaced = final_substitution.get(base);
 					if (replaced != null) {
-						Type.TypeNode transformed = Type.transformType
-										((Type)replaced, this).getRootNode();
-						transformed.setCV(original.getCV());
-						return transformed;
+						return Type.transformType((Type)replaced, this)
+							.getRootNode().withCV(original.getCV());
 					}
 					else						
 						return null;
@@ -1268,30 +1445,22 @@ public class Utils {
 	public static Entity lookup(Scope<? extends Entity> scope, String componentname)
 	{
 		// Find aggregates
-		for (ContainedConnection<? extends Entity, Aggregate> connection: scope.getAggregates()) {
-			Aggregate agg = connection.getContained();
-			if (agg.getName().equals(componentname))
-				return agg;
+		for (ContainedConnection<? extends Entity, Aggregate> connection: scope.lookupAggregates(componentname)) {
+			return connection.getContained();
 		}
 		// Find namespaces
-		for (ContainedConnection<? extends Entity, Namespace> connection: scope.getNamespaces()) {
-			Namespace ns = connection.getContained();
-			if (ns.getName().equals(componentname))
-				return ns;
+		for (ContainedConnection<? extends Entity, Namespace> connection: scope.lookupNamespaces(componentname)) {
+			return connection.getContained();
 		}
 		// Find enums
-		for (ContainedConnection<? extends Entity, sourceanalysis.Enum> connection: scope.getEnums()) {
-			sourceanalysis.Enum enume = connection.getContained();
-			if (connection.getVisibility() == Specifiers.Visibility.PUBLIC
-					&& enume.getName().equals(componentname))
-				return enume;
+		for (ContainedConnection<? extends Entity, sourceanalysis.Enum> connection: scope.lookupEnums(componentname)) {
+			if (connection.getVisibility() == Specifiers.Visibility.PUBLIC)
+				return connection.getContained();
 		}
 		// Find typedefs
-		for (ContainedConnection<? extends Entity, Alias> connection: scope.getAliass()) {
-			Alias alias = connection.getContained();
-			if (connection.getVisibility() == Specifiers.Visibility.PUBLIC
-					&& alias.getName().equals(componentname))
-				return alias;
+		for (ContainedConnection<? extends Entity, Alias> connection: scope.lookupAliases(componentname)) {
+			if (connection.getVisibility() == Specifiers.Visibility.PUBLIC)
+				return connection.getContained();
 		}
 		// - not found
 		return null;
@@ -1498,14 +1667,27 @@ public class Utils {
 			int minimumAllowedVisibility)
 		throws MissingInformationException
 	{
+		return new LinkedList<Field>(accessibleFields(subject, instanceMap,
+				minimumAllowedVisibility, HierarchyCache.of(instanceMap)));
+	}
+	
+	private static List<Field> accessibleFields(Aggregate subject, Map<String, Aggregate> instanceMap, 
+			int minimumAllowedVisibility, HierarchyCache cache)
+		throws MissingInformationException
+	{
+		Map<Aggregate, List<Field>> memo = cache.fields(minimumAllowedVisibility);
+		List<Field> accessible = memo.get(subject);
+		if (accessible != null) return accessible;
 		
-		List<Field> accessible = new LinkedList<Field>();
+		accessible = new ArrayList<Field>();
+		Set<String> names = new HashSet<String>();
 		
 		for (ContainedConnection<Aggregate, Field> fieldConnection: subject.getScope().getFields()) {
 			Field myField = fieldConnection.getContained();
 			
 			if(isVisible(minimumAllowedVisibility, fieldConnection.getVisibility())) {
 				accessible.add(myField);
+				names.add(myField.getName());
 			}
 			
 		}
@@ -1559,25 +1741,17 @@ public class Utils {
 				continue;
 			}
 			
-			Collection<Field> baseVisibleFields = accessibleFields(base, instanceMap, baseMinimumAllowedVisibility);
+			Collection<Field> baseVisibleFields = accessibleFields(base, instanceMap, baseMinimumAllowedVisibility, cache);
 			for (Field baseField: baseVisibleFields) {
-                // - ensure that a compatible method has not previously 
+                // - ensure that a field of the same name has not previously 
                 //  occurred
-				boolean found = false;
-				
-				for (Field childField: accessible) {
-					if (childField.getName().equals(baseField.getName())) {
-						found = true;
-						break;
-					}
-				}
-				
-				if(!found) {
+				if(names.add(baseField.getName())) {
 					accessible.add(baseField);
 				}
             }
 		}
 		
+		memo.put(subject, accessible);
 		return accessible;
 	}
 	
@@ -1595,7 +1769,21 @@ public class Utils {
 	public static Collection<Routine> virtualMethods(Aggregate subject,
 			Map<String, Aggregate> instanceMap, boolean withDestructors) throws MissingInformationException
 	{
-		List<Routine> virtual = new LinkedList<Routine>();
+		return new LinkedList<Routine>(virtualMethods(subject, instanceMap,
+				withDestructors, HierarchyCache.of(instanceMap)));
+	}
+	
+	private static List<Routine> virtualMethods(Aggregate subject,
+			Map<String, Aggregate> instanceMap, boolean withDestructors,
+			HierarchyCache cache) throws MissingInformationException
+	{
+		Map<Aggregate, List<Routine>> memo = withDestructors
+			? cache.m_virtualWithDestructors : cache.m_virtual;
+		List<Routine> virtual = memo.get(subject);
+		if (virtual != null) return virtual;
+		
+		virtual = new ArrayList<Routine>();
+		SignatureBuckets buckets = new SignatureBuckets();
 		
 		// Add virtual methods declared in this class
 		for (ContainedConnection<Aggregate, Routine> rconnection: subject.getScope().getRoutines()) {
@@ -1605,6 +1793,7 @@ public class Utils {
 			    != Specifiers.Virtuality.NON_VIRTUAL &&
 				(withDestructors || !myMethod.isDestructor())) {
 			    virtual.add(myMethod); 
+			    buckets.add(myMethod);
 			}
 		}
 		
@@ -1619,14 +1808,14 @@ public class Utils {
 			}
 			if (base == null) continue;
 			// - recursively fetch the virtual methods in the base class
-			Collection<Routine> baseVirtual = virtualMethods(base, instanceMap, withDestructors);
+			Collection<Routine> baseVirtual = virtualMethods(base, instanceMap, withDestructors, cache);
 			for (Routine baseMethod: baseVirtual) {
 
                 // - ensure that a compatible method has not previously 
                 //  occurred
 				boolean found = false;
 				
-				for (Routine virtMethod: virtual) {
+				for (Routine virtMethod: buckets.get(baseMethod)) {
 					if (virtMethod.isCompatible(baseMethod)) {
 						found = true;
 						break;
@@ -1635,10 +1824,12 @@ public class Utils {
 				
 				if (!found) {
 				    virtual.add(baseMethod);
+				    buckets.add(baseMethod);
                 }
             }
 		}
 
+		memo.put(subject, virtual);
 		return virtual;
 	}
 	
@@ -1658,7 +1849,19 @@ public class Utils {
 	public static Collection<Routine> unimplementedMethods(Aggregate subject,
 			Map<String, Aggregate> instanceMap) throws MissingInformationException
 	{
-		List<Routine> unimplemented = new LinkedList<Routine>();
+		return new LinkedList<Routine>(unimplementedMethods(subject,
+				instanceMap, HierarchyCache.of(instanceMap)));
+	}
+	
+	private static List<Routine> unimplementedMethods(Aggregate subject,
+			Map<String, Aggregate> instanceMap, HierarchyCache cache)
+		throws MissingInformationException
+	{
+		List<Routine> unimplemented = cache.m_unimplemented.get(subject);
+		if (unimplemented != null) return unimplemented;
+		
+		unimplemented = new ArrayList<Routine>();
+		SignatureBuckets implemented = null;
 		
 		// Get unimplemented methods from base classes
 		for (InheritanceConnection bconnection: subject.getBases()) {
@@ -1671,19 +1874,25 @@ public class Utils {
 			}
 			if (base == null) continue;
 			// - recursively fetch the unimplemented methods in the base class
-			Collection<Routine> baseUnimplemented = unimplementedMethods(base, instanceMap);
+			Collection<Routine> baseUnimplemented = unimplementedMethods(base, instanceMap, cache);
+			if (!baseUnimplemented.isEmpty() && implemented == null) {
+				// - methods of subject which may implement them
+				implemented = new SignatureBuckets();
+				for (ContainedConnection<Aggregate, Routine> rconnection: subject.getScope().getRoutines()) {
+					if (rconnection.getVirtuality() 
+						  != Specifiers.Virtuality.PURE_VIRTUAL)
+						implemented.add(rconnection.getContained());
+				}
+			}
 			for (Routine baseMethod: baseUnimplemented) {
 				// - search this method in subject to check that the method is
 				//   still unimplemented in derived class
 				boolean found = false;
 				
-				for (ContainedConnection<Aggregate, Routine> rconnection: subject.getScope().getRoutines()) {
-					Routine myMethod = rconnection.getContained();
+				for (Routine myMethod: implemented.get(baseMethod)) {
 					// - compare unimplemented method in parent and method in
 					//   derived
-					if (rconnection.getVirtuality() 
-						  != Specifiers.Virtuality.PURE_VIRTUAL 
-					 	&& hasCompatibleSignatures(baseMethod, myMethod)) {
+					if (hasCompatibleSignatures(baseMethod, myMethod)) {
 						found = true;
 						break;
 					}
@@ -1705,6 +1914,7 @@ public class Utils {
 			}
 		}
 		
+		cache.m_unimplemented.put(subject, unimplemented);
 		return unimplemented;
 	}
 	
@@ -1730,17 +1940,204 @@ public class Utils {
 	}
 	
 	/**
-	 * Checks whether the two given entities are compatible, that is, refer
-	 * to the same actual entity in the program - this may happen for non-
-	 * identical entities in case of typedefs in the program. 
-	 * @param first the first entity for comparison
-	 * @param second the second entity for comparison
-	 * @return <b>true</b> if entities refer to the same entity (eventually); 
-	 * <b>false</b> otherwise.
+	 * Groups routines by name, constness and number of parameters, so that
+	 * only routines in the same group need to be compared by
+	 * Routine.isCompatible() or hasCompatibleSignatures(); routines in
+	 * different groups are never compatible.
+	 */
+	private static class SignatureBuckets
+	{
+		void add(Routine routine)
+		{
+			String key = key(routine);
+			List<Routine> bucket = m_buckets.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<Routine>(1);
+				m_buckets.put(key, bucket);
+			}
+			bucket.add(routine);
+		}
+		
+		/**
+		 * Returns the routines which may be compatible with the given one,
+		 * in the order they were added.
+		 */
+		List<Routine> get(Routine routine)
+		{
+			List<Routine> bucket = m_buckets.get(key(routine));
+			if (bucket == null) return Collections.emptyList();
+			return bucket;
+		}
+		
+		private static String key(Routine routine)
+		{
+			int nparams = 0;
+			for (Iterator<Parameter> pi = routine.getParameters().iterator();
+					pi.hasNext(); pi.next())
+				++nparams;
+			return routine.getName() + (routine.isConst() ? " const/" : "/") 
+				+ nparams;
+		}
+		
+		private Map<String, List<Routine>> m_buckets = 
+			new HashMap<String, List<Routine>>();
+	}
+	
+	/**
+	 * Remembers the results of virtualMethods(), unimplementedMethods() and
+	 * accessibleFields() for every class, so that each class is analyzed
+	 * once (together with its bases, bottom-up), rather than again for
+	 * each class deriving it. Results depend on the instance map used to
+	 * resolve template bases, so there is a cache for each instance map.
+	 * They also depend on its contents and on the contents of the classes,
+	 * so the cache of an instance map is dropped once the map grows, and all
+	 * of them are dropped once any scope or any list of bases changes.
+	 * Instance maps are held by weak references, and the cache of a map which
+	 * was collected is dropped on the next query, so that the caches of
+	 * earlier runs (and their programs) do not pile up in a server.
+	 */
+	private static class HierarchyCache
+	{
+		/**
+		 * Returns the cache for an instance map, creating a new one if
+		 * there is none or if it is out of date.
+		 */
+		static synchronized HierarchyCache of(Map<String, Aggregate> instanceMap)
+		{
+			if (m_changes != Scope.getChangeCount()) {
+				m_caches.clear();
+				m_unmapped = null;
+				m_changes = Scope.getChangeCount();
+			}
+			purge();
+			int instances = (instanceMap == null) ? 0 : instanceMap.size();
+			HierarchyCache cache = (instanceMap == null) ? m_unmapped
+				: m_caches.get(new Key(instanceMap, null));
+			if (cache == null || cache.m_instances != instances) {
+				cache = new HierarchyCache(instances);
+				if (instanceMap == null) m_unmapped = cache;
+				else m_caches.put(new Key(instanceMap, m_queue), cache);
+			}
+			return cache;
+		}
+		
+		/**
+		 * Returns the number of instance maps which currently have a cache.
+		 */
+		static synchronized int size()
+		{
+			purge();
+			return m_caches.size() + ((m_unmapped == null) ? 0 : 1);
+		}
+		
+		/**
+		 * Removes the caches of instance maps which were collected.
+		 */
+		private static void purge()
+		{
+			for (Reference<? extends Map<String, Aggregate>> collected;
+					(collected = m_queue.poll()) != null; )
+				m_caches.remove(collected);
+		}
+		
+		private HierarchyCache(int instances)
+		{
+			m_instances = instances;
+			m_virtual = new HashMap<Aggregate, List<Routine>>();
+			m_virtualWithDestructors = new HashMap<Aggregate, List<Routine>>();
+			m_unimplemented = new HashMap<Aggregate, List<Routine>>();
+			m_fields = new HashMap<Integer, Map<Aggregate, List<Field>>>();
+		}
+		
+		/**
+		 * Returns the accessible fields found so far with the given
+		 * minimal visibility.
+		 */
+		Map<Aggregate, List<Field>> fields(int minimumAllowedVisibility)
+		{
+			Map<Aggregate, List<Field>> fields = 
+				m_fields.get(minimumAllowedVisibility);
+			if (fields == null) {
+				fields = new HashMap<Aggregate, List<Field>>();
+				m_fields.put(minimumAllowedVisibility, fields);
+			}
+			return fields;
+		}
+		
+		private int m_instances;
+		private Map<Aggregate, List<Routine>> m_virtual;
+		private Map<Aggregate, List<Routine>> m_virtualWithDestructors;
+		private Map<Aggregate, List<Routine>> m_unimplemented;
+		private Map<Integer, Map<Aggregate, List<Field>>> m_fields;
+		
+		/**
+		 * Refers to an instance map weakly, comparing by identity.
+		 */
+		private static class Key extends WeakReference<Map<String, Aggregate>>
+		{
+			Key(Map<String, Aggregate> instanceMap,
+					ReferenceQueue<Map<String, Aggregate>> queue)
+			{
+				super(instanceMap, queue);
+				m_hash = System.identityHashCode(instanceMap);
+			}
+			
+			@Override
+			public int hashCode()
+			{
+				return m_hash;
+			}
+			
+			@Override
+			public boolean equals(Object other)
+			{
+				if (other == this) return true;
+				if (!(other instanceof Key)) return false;
+				Map<String, Aggregate> instanceMap = get();
+				return instanceMap != null && instanceMap == ((Key)other).get();
+			}
+			
+			private int m_hash;
+		}
+		
+		// Caches by the identity of their instance maps
+		private static Map<Key, HierarchyCache> m_caches =
+			new HashMap<Key, HierarchyCache>();
+		private static ReferenceQueue<Map<String, Aggregate>> m_queue =
+			new ReferenceQueue<Map<String, Aggregate>>();
+		// Cache for a null instance map
+		private static HierarchyCache m_unmapped;
+		private static int m_changes;
+	}
+	
+	/**
+	 * Returns the number of instance maps for which the results of
+	 * virtualMethods(), unimplementedMethods() and accessibleFields() are
+	 * currently remembered.
+	 * @return int count of hierarchy caches
 	 */
-	private static boolean areCongruent(Entity first, Entity second)
+	public static int getHierarchyCacheCount()
 	{
-		return (naiveUnalias(first) == naiveUnalias(second));
+		return HierarchyCache.size();
+	}
+	
+	/**
+	 * Resolves typedefs as naiveUnalias() does, but without creating
+	 * anything: where naiveUnalias() would reach a template and make up a
+	 * new instance of it - which is never identical to any other entity -
+	 * <b>null</b> is returned instead.
+	 * @param entity the original entity to reference
+	 * @return the final entity reached, or <b>null</b>
+	 */
+	private static Entity stableUnalias(Entity entity)
+	{
+		while (entity instanceof Alias) {
+			Type type =  ((Alias)entity).getAliasedType();
+			if (!type.isFlat()) return entity; // cannot handle non-flat types
+			entity = type.getBaseType();
+			if (entity.isTemplated()) return null;
+		}
+		return entity;
 	}
 	
 	/**
@@ -1918,10 +2315,15 @@ public class Utils {
 	
 	// A formatter which uses cleanFullName() instead of Entity.getFullName()
 	// for formatting base-names.
-	static public final Type.BaseTypeFormatter CLEAN_TYPE_FORMATTER =
+	static private final Type.BaseTypeFormatter CLEAN_BASE_FORMATTER =
 		new Type.BaseTypeFormatter() {
 			public String formatBase(Entity e) { return cleanFullNameBase(e); }
 		};
+
+	static public final Type.BaseTypeFormatter CLEAN_TYPE_FORMATTER =
+		new Type.BaseTypeFormatter() {
+			public String formatBase(Entity e) { return e.formatName(CLEAN_BASE_FORMATTER); }
+		};
 		
 	static public Map<String, Aggregate> defaultInstanceMap = null;
 
@@ -144,6 +144,8 @@ public class BackendData {
        propertiesMap.put(BackendData.DEFAULT_INPUT_PROPERTY.getPropertyName(), BackendData.DEFAULT_INPUT_PROPERTY);
        // place the default mixins property
        propertiesMap.put(BackendData.DEFAULT_MIXINS_PROPERTY.getPropertyName(), BackendData.DEFAULT_MIXINS_PROPERTY);
+       // place the default snapshot property
+       propertiesMap.put(BackendData.DEFAULT_SNAPSHOT_PROPERTY.getPropertyName(), BackendData.DEFAULT_SNAPSHOT_PROPERTY);
        
        
        // scan all class fields for fields that implement property annotation
@@ -222,6 +224,26 @@ public class BackendData {
        return pd;
    }
 
+   /**
+    * Gets the default snapshot property
+    * @return default snapshot property
+    */
+   
+   private static PropertyData getDefaultSnapshotProperty() {
+       PropertyData pd = null;
+       try {
+           pd = new PropertyData("snapshot",                       // name
+                           "Program database snapshot file",       // description
+                           1,                                      // # of arguments
+                           false,                                  // required
+                           new String[] { "" });
+       } catch (InvalidBackendException e) {
+           // can't happen
+       }
+       
+       return pd;
+   }
+
    /**
     * Class name of the implementing backend
     * (i.e Griffin.backend.robin.Launcher)
@@ -263,6 +285,14 @@ public class BackendData {
    
    public static final PropertyData DEFAULT_MIXINS_PROPERTY = BackendData.getDefaultMixinsProperty();
    
+   /**
+    * Default snapshot property
+    * When set, the program database is cached in this file and reused as
+    * long as the input does not change
+    */
+   
+   public static final PropertyData DEFAULT_SNAPSHOT_PROPERTY = BackendData.getDefaultSnapshotProperty();
+   
    
        
    
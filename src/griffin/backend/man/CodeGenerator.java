@@ -1,8 +1,6 @@
 package backend.man;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.StringTokenizer;
@@ -19,10 +17,12 @@ import sourceanalysis.Routine;
 import sourceanalysis.Scope;
 import sourceanalysis.view.TemplateBank;
 import backend.GenericCodeGenerator;
+import backend.OutputSink;
 import backend.Utils;
 
 public class CodeGenerator extends GenericCodeGenerator {
 	String m_dir;
+	private OutputSink m_sink;
 	private static final int MAX_LINE_LENGTH = 50;
 	/**
 	 * @param program
@@ -38,15 +38,25 @@ public class CodeGenerator extends GenericCodeGenerator {
 
 	/**
 	 * @param program
-	 * @param output
+	 * @param dir directory to put manual pages in
 	 */
 	public CodeGenerator(ProgramDatabase program, String dir) {
+		this(program, dir, new OutputSink("man"));
+	}
+
+	/**
+	 * @param program
+	 * @param dir directory to put manual pages in
+	 * @param sink receives the generated pages; only pages which changed
+	 * are actually written
+	 */
+	public CodeGenerator(ProgramDatabase program, String dir, OutputSink sink) {
 		super(program, null);
 		this.m_dir = dir;
 		if (!m_dir.endsWith(File.separator)) {
 			m_dir += File.separator;
 		}
-
+		m_sink = sink;
 	}
 
 	/**
@@ -75,9 +85,7 @@ public class CodeGenerator extends GenericCodeGenerator {
 		String name = agg.getName();		
 		
 		System.out.println("Handle :"+name);
-		Writer w =
-			new BufferedWriter(
-				new FileWriter(m_dir + agg.getName() + ".3z"));
+		Writer w = m_sink.open(m_dir + agg.getName() + ".3z");
 		writeHeader(agg, w);
 		writeName(agg, w);
 		writeDescription(agg, w);
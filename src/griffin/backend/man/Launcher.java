@@ -9,6 +9,7 @@ import java.io.IOException;
 import sourceanalysis.MissingInformationException;
 import sourceanalysis.ProgramDatabase;
 import backend.Backend;
+import backend.OutputSink;
 import backend.PropertyPage;
 import backend.annotations.BackendDescription;
 import backend.annotations.PropertyDescription;
@@ -26,8 +27,9 @@ public class Launcher implements Backend{
        collected = properties.getStringArray("collected");
        
        
+       OutputSink sink = new OutputSink("man");
        CodeGenerator codegen =
-           new CodeGenerator(program, outputFile);
+           new CodeGenerator(program, outputFile, sink);
        
        
        if(autocollected) {
@@ -39,6 +41,7 @@ public class Launcher implements Backend{
 		}
 
        codegen.generateClassesDocumentation();
+       sink.close();
 		
 	}
    
@@ -3,16 +3,14 @@
  */
 package backend.pydoc;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 
 import sourceanalysis.MissingInformationException;
 import sourceanalysis.ProgramDatabase;
 import sourceanalysis.view.TemplateBank;
 import sourceanalysis.view.TemplateReader;
 import backend.Backend;
+import backend.OutputSink;
 import backend.PropertyPage;
 import backend.annotations.BackendDescription;
 import backend.annotations.PropertyDescription;
@@ -43,15 +41,14 @@ public class Launcher implements Backend {
 			templates = TemplateReader.readTemplatesFromFile(templatefile);
 		}
 		catch (IOException e) {
-			System.err.println("*** FATAL: cannot read template definition"
-				+ " file: " + e);
-			System.exit(1);
+			throw new IOException("cannot read template definition file: "
+				+ e.getMessage(), e);
 		}
 
 		// Create code generator
-		OutputStream cfile = new FileOutputStream(outfile);
+		OutputSink sink = new OutputSink("pydoc");
 		CodeGenerator codegen =
-			new CodeGenerator(program, new OutputStreamWriter(cfile), 
+			new CodeGenerator(program, sink.open(outfile), 
 			                  templates);
 			
        if(autocollect) {
@@ -65,7 +62,7 @@ public class Launcher implements Backend {
 		// Generate output
 		codegen.generateClassDocumentation();
 
-		cfile.close();
+		sink.close();
 	}
 
    @PropertyDescription(propertyName = "outfile",
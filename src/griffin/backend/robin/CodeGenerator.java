@@ -1,16 +1,18 @@
 package backend.robin;
 
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -62,17 +64,19 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	public CodeGenerator(ProgramDatabase program, Writer output) {
 		super(program, output);
 		m_separateClassTemplates = true;
-		m_uidMap = new HashMap<Object, Integer>();
-		m_uidNext = 0;
+		m_uidMap = new HashMap<Object, String>();
+		m_uidTaken = new HashSet<String>();
 		m_globalDataMembers = new LinkedList<Field>();
 		m_interceptorMethods = new HashSet<Routine>();
 		m_downCasters = new LinkedList<String>();
 		m_interceptors = new LinkedList<Aggregate>();
 		m_entry = new LinkedList<RegData>();
 
-	    m_randomNamespace = generateNamespaceName();
-	    
-	    m_included_snippets = new TreeSet<String>();
+	    m_units = new ArrayList<Unit>();
+	    m_units.add(new Unit(output));
+	    m_unitOf = new HashMap<Aggregate, Unit>();
+	    enter(m_units.get(0));
+	    m_sections = new ArrayList<Section>();
 
 		// Register touchups for special types
 		Type voidptr =
@@ -124,23 +128,213 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 						"}\n"));
 	}
 	
+	/**
+	 * Adds a compilation unit to spread the class wrappers across. Once any
+	 * shards are added, the wrappers and registration data of each class are
+	 * written to one of the shards, while the output given in the constructor
+	 * is left with the global wrappers and the entry table, which refers to
+	 * the class registrations in the shards. All the units can then be
+	 * compiled in parallel and linked together.
+	 * <p>Shards must be added before any code is generated.</p>
+	 * @param output target for the wrappers of some of the classes
+	 */
+	public void addShard(Writer output)
+	{
+		m_units.add(new Unit(output));
+	}
+
+	/**
+	 * Redirects generated code to the given compilation unit.
+	 */
+	private void enter(Unit unit)
+	{
+		m_unit = unit;
+		m_output = unit.m_output;
+		m_randomNamespace = unit.m_namespace;
+		m_included_snippets = unit.m_snippets;
+	}
+
+	/**
+	 * Marks the end of a section of the generated code: flushes all the
+	 * compilation units and records the time spent on the section and the
+	 * amount of code it produced. Wrappers are not flushed individually -
+	 * the outputs are expected to be buffered.
+	 * @param name name of the section, for reporting
+	 * @param start System.nanoTime() at the beginning of the section
+	 * @throws IOException if the outputs cannot be flushed
+	 */
+	private void endSection(String name, long start) throws IOException
+	{
+		long emitted = 0;
+		for (Unit unit: m_units) {
+			unit.m_output.flush();
+			emitted += unit.m_output.m_count;
+		}
+		m_sections.add(new Section(name, System.nanoTime() - start, 
+				emitted - m_emitted));
+		m_emitted = emitted;
+	}
+
+	/**
+	 * Prints the time spent on each section of the generated code, and the
+	 * number of characters emitted by it.
+	 * @param out stream to print to
+	 */
+	public void reportStatistics(PrintStream out)
+	{
+		for (Section section: m_sections) {
+			out.println("| robin " + section.m_name + ": " 
+					+ section.m_nanos / 1000000 + " ms, "
+					+ section.m_chars + " characters");
+		}
+		out.println("| robin total: " + m_emitted + " characters in " 
+				+ m_units.size() + " units");
+		out.println("| robin template instances: " + getInstantiationCount()
+				+ " in " + getInstantiationPasses() + " passes");
+		if (Utils.isLazyInstantiation()) {
+			out.println("| robin materialized instances: "
+					+ getMaterializedInstanceCount());
+		}
+	}
+
+	/**
+	 * Returns the compilation unit in which the wrappers of a class are
+	 * generated. Without shards this is always the main unit; otherwise,
+	 * classes are assigned to the least loaded shard as they are first
+	 * encountered.
+	 */
+	private Unit unitOf(Aggregate subject)
+	{
+		Unit unit = m_unitOf.get(subject);
+		if (unit == null) {
+			unit = m_units.get(0);
+			for (Unit shard: m_units.subList(1, m_units.size())) {
+				if (unit == m_units.get(0) || shard.m_load < unit.m_load)
+					unit = shard;
+			}
+			unit.m_load += weight(subject);
+			m_unitOf.put(subject, unit);
+		}
+		return unit;
+	}
+
+	/**
+	 * Estimates the amount of wrapper code generated for a class.
+	 */
+	private static int weight(Aggregate subject)
+	{
+		int weight = 1;
+		for (Iterator<?> i = subject.getScope().getRoutines().iterator();
+				i.hasNext(); i.next()) ++weight;
+		for (Iterator<?> i = subject.getScope().getFields().iterator();
+				i.hasNext(); i.next()) ++weight;
+		return weight;
+	}
+
+	/**
+	 * Returns the prefix which qualifies names defined in the current
+	 * compilation unit when they are referred to from the main unit.
+	 */
+	private String qualifier()
+	{
+		return (m_unit == m_units.get(0)) ? "" : m_randomNamespace + "::";
+	}
+
+	/**
+	 * Declares a wrapper of the current compilation unit in the main unit,
+	 * where the entry table refers to it. Nothing needs to be declared for
+	 * the main unit itself.
+	 * @param declaration C++ declarations
+	 */
+	private void declare(String declaration)
+	{
+		if (m_unit != m_units.get(0))
+			m_unit.m_declarations.add(declaration);
+	}
+
+	/**
+	 * Returns an expression referring to the registration data of a class
+	 * from the main compilation unit.
+	 */
+	private String scopeReference(Aggregate subject)
+	{
+		Unit unit = unitOf(subject);
+		String name = "scope_" + uid(subject.getScope());
+		return (unit == m_units.get(0)) ? name : unit.m_namespace + "::" + name;
+	}
+
 	/**
 	 * Returns an object identifier - for any n invocations of uid(o) with
 	 * the same object o, uid obligates to return the same identifier. For
 	 * any two unidentical objects s,t, uid guarantees that uid(s)!=uid(t).
-	 * @param o
-	 * @return
+	 * <p>The identifier is a digest of the signature of the object, so the
+	 * same input always generates the same names, and names do not change
+	 * when unrelated parts of the input do. Objects with equal signatures
+	 * are told apart by a suffix.</p>
+	 * @param o an Entity or a Scope
+	 * @return a string usable as part of a C++ identifier
 	 */
-	private int uid(Object o) {
-		//return System.identityHashCode(o); <-- this seems not to do well
-		Object got = m_uidMap.get(o);
+	private String uid(Object o) {
+		String got = m_uidMap.get(o);
 		if (got == null) {
-			m_uidNext++;
-			m_uidMap.put(o, new Integer(m_uidNext));
-			return m_uidNext;
+			String digest = digest(signature(o));
+			got = digest;
+			for (int i = 2; m_uidTaken.contains(got); ++i)
+				got = digest + "_" + i;
+			m_uidTaken.add(got);
+			m_uidMap.put(o, got);
+		}
+		return got;
+	}
+
+	/**
+	 * Describes an object by its kind, qualified name and, for routines, the
+	 * parameter types - the identity of the object as far as the generated
+	 * code is concerned.
+	 */
+	private static String signature(Object o)
+	{
+		if (o instanceof Scope)
+			return "{" + signature(((Scope<?>)o).getOwner()) + "}";
+		Entity entity = (Entity)o;
+		StringBuffer signature = new StringBuffer();
+		// - the kind is the program database's class for the entity, even
+		//   for subclasses private to the backend (lazy template instances)
+		Class<?> kind = entity.getClass();
+		while (kind.getPackage() != Entity.class.getPackage())
+			kind = kind.getSuperclass();
+		signature.append(kind.getName());
+		signature.append(' ');
+		signature.append(entity.getFullName());
+		if (entity instanceof Routine) {
+			Routine routine = (Routine)entity;
+			signature.append('(');
+			for (Parameter parameter: routine.getParameters()) {
+				try {
+					signature.append(parameter.getType());
+				}
+				catch (MissingInformationException e) {
+					signature.append('?');
+				}
+				signature.append(',');
+			}
+			signature.append(')');
+			if (routine.isConst()) signature.append(" const");
 		}
-		else
-			return ((Integer)got).intValue();  
+		return signature.toString();
+	}
+
+	/**
+	 * Computes a short, stable digest of a string (64-bit FNV-1a, in base 36).
+	 */
+	private static String digest(String text)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); ++i) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return Long.toString(hash & Long.MAX_VALUE, 36);
 	}
 
 	/**
@@ -219,6 +413,28 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	 * @throws IOException
 	 */
 	public void generatePreface() throws IOException
+	{
+		long start = System.nanoTime();
+		String namespace = generateNamespaceName();
+		for (int i = 0; i < m_units.size(); ++i) {
+			m_units.get(i).m_namespace = 
+				(i == 0) ? namespace : namespace + "_" + i;
+		}
+		for (Unit unit: m_units) {
+			enter(unit);
+			generatePreface(unit == m_units.get(0));
+		}
+		enter(m_units.get(0));
+		endSection("preface", start);
+	}
+
+	/**
+	 * Writes the common beginning of one compilation unit.
+	 * @param main <b>true</b> for the main unit, which defines the variables
+	 * shared by all the units
+	 * @throws IOException
+	 */
+	private void generatePreface(boolean main) throws IOException
 	{
 		m_output.write("#include <memory>\n");
 		
@@ -263,7 +479,10 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
                 "RegData *signature, basic_block args[], " +
                 "basic_block *result, bool isPure)";
 		m_output.write("extern " + callbackvar + ";\n");
-		m_output.write(callbackvar + " = 0;\n\n");
+		if (main)
+			m_output.write(callbackvar + " = 0;\n\n");
+		else
+			m_output.write("\n");
 	
 		m_output.write("\nnamespace " + m_randomNamespace + " {\n\n");
 		
@@ -286,9 +505,26 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	 */
 	public void generateIncludeDirectives()
 		throws IOException
+	{
+		long start = System.nanoTime();
+		for (Unit unit: m_units) {
+			enter(unit);
+			writeIncludeDirectives();
+		}
+		enter(m_units.get(0));
+		endSection("include directives", start);
+	}
+
+	/**
+	 * Writes the <code>#include</code> directives of one compilation unit.
+	 * All the units include the same headers.
+	 * @throws IOException
+	 */
+	private void writeIncludeDirectives()
+		throws IOException
 	{
 		List<SourceFile.DeclDefConnection> decldefs = new LinkedList<SourceFile.DeclDefConnection>();
-		Set<String> headers = new HashSet<String>();
+		Set<String> headers = new TreeSet<String>();
 		
 		// Collect class declarations
 		for (Aggregate subject: m_subjects) {
@@ -489,7 +725,7 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
         }
         m_output.write("__robin_callback(twin, ");
         m_output.write("scope_" + 
-                interceptor.getScope().hashCode() + 
+                uid(interceptor.getScope()) + 
                 " + " +
                 funcCounter + 
                 ", ");
@@ -651,7 +887,7 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
         ++funcCounter;
         
         m_output.write("// Interceptor for " + subject.getFullName() + "\n");
-        m_output.write("extern RegData scope_" + result.getScope().hashCode() + "[];\n");
+        m_output.write("extern RegData scope_" + uid(result.getScope()) + "[];\n");
         m_output.write("class " + result.getName() + " : public " + subject.getFullName() + "\n");
         m_output.write("{\n");
         m_output.write("public:\n");
@@ -801,8 +1037,9 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	public void generateInterceptors()
 		throws IOException, MissingInformationException
 	{
+		long start = System.nanoTime();
 		// New classes to add
-		Set<Aggregate> newSubjects = new HashSet<Aggregate>();
+		Set<Aggregate> newSubjects = new LinkedHashSet<Aggregate>();
 		
 		// Generate interceptor class decleration
 		for (Aggregate subject: m_interceptors) {
@@ -816,11 +1053,20 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
             // Skip when there are only private constructors
             if (!Filters.isClassExtendible(subject)) continue;
         
-            newSubjects.add( createInterceptor(subject) );
-		}
+            // The interceptor is wrapped in the same unit as its definition
+            Unit unit = unitOf(subject);
+            enter(unit);
+            Aggregate interceptor = createInterceptor(subject);
+            unit.m_load += weight(interceptor);
+            declare("class " + interceptor.getName() + ";\n");
+            m_unitOf.put(interceptor, unit);
+            newSubjects.add( interceptor );
+		}
+		enter(m_units.get(0));
 		
 		// Add all of the new subjects to the subjects set
 		m_subjects.addAll(newSubjects);
+		endSection("interceptors", start);
 	}
 	
 	/**
@@ -830,11 +1076,13 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	 */
 	public void generateStaticRoutines() throws IOException 
 	{
+		long start = System.nanoTime();
 		// Generate routine wrappers for class methods
 		for (Aggregate subject: m_subjects) {
                         if (!Filters.isAvailable(subject)) {
                           continue;
                         }
+			enter(unitOf(subject));
 			
 			RoutineDeduction.ParameterTransformer thisParam = 
 				new RoutineDeduction.ParameterTransformer(
@@ -860,9 +1108,13 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 							paramf.add(0, thisParam);
 							m_output.write(Formatters.formatFunction(routine, name, 
 									retf, paramf, new StaticMethodCall(routine)));
+							declare("extern RegData " + name + "_proto[];\n"
+									+ Formatters.formatFunctionHeader(name, 
+											retf, paramf) + ";\n");
 							m_entry.add(new RegData(Utils.cleanFullName(routine), 
 									retf.getRegDataType(), 
-									name+"_proto", name));
+									qualifier() + name + "_proto",
+									qualifier() + name));
 						}
 						catch (MissingInformationException e) {
 							System.err.println("*** Warning: skipped static wrapper for method " + routine.getFullName());
@@ -872,6 +1124,8 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 				}
 			}
 		}		
+		enter(m_units.get(0));
+		endSection("static routines", start);
 	}
 	
 	/**
@@ -882,11 +1136,13 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	public void generateRoutineWrappers()
 		throws IOException, MissingInformationException
 	{ 
+		long start = System.nanoTime();
 		// Generate routine wrappers for class methods
 		for (Aggregate subject: m_subjects) {
                         if (!Filters.isAvailable(subject)) {
                           continue;
                         }
+			enter(unitOf(subject));
 			boolean isAbstractClass = Utils.isAbstract(subject, m_instanceMap);
 			boolean mustHaveCtor = Utils.hasDefaultConstructor(subject);
 			boolean ctors = false;
@@ -939,9 +1195,15 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 				if (!m_globalFuncs.contains(routine) 
 						&& Filters.isAvailable(routine))
 					m_globalFuncs.add(routine);
+				// - the registration of the class refers to these wrappers,
+				//   so a shard needs copies of its own
+				if (m_unit != m_units.get(0) && Filters.isAvailable(routine)
+						&& m_unit.m_wrapped.add(routine))
+					generateFunctionWrappers(routine);
 			}
 			generateSpecialDestructor(subject);
 		}
+		enter(m_units.get(0));
 		
 		// Generate wrappers for encapsulated aliases
 		for (Alias alias: m_typedefs) {
@@ -954,16 +1216,30 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 		// Generated global function wrappers
 		for (Routine func: m_globalFuncs) {
 			if (Filters.isAvailable(func)) {
-				// - align the number of arguments
-				int minArgs = Utils.minimalArgumentCount(func),
-					maxArgs = Utils.countParameters(func);
-				for (int nArguments = minArgs; nArguments <= maxArgs;
-						++nArguments) {
-					generateFlatWrapper(func, nArguments, false);
-					generateRegistrationPrototype(func, nArguments, false);
-				}
+				generateFunctionWrappers(func);
 			}
 		}
+		endSection("routine wrappers", start);
+	}
+
+	/**
+	 * Creates wrappers and prototypes for a global function, one for every
+	 * allowed number of arguments.
+	 * @param func function to wrap
+	 * @throws IOException
+	 * @throws MissingInformationException
+	 */
+	private void generateFunctionWrappers(Routine func)
+		throws IOException, MissingInformationException
+	{
+		// - align the number of arguments
+		int minArgs = Utils.minimalArgumentCount(func),
+			maxArgs = Utils.countParameters(func);
+		for (int nArguments = minArgs; nArguments <= maxArgs;
+				++nArguments) {
+			generateFlatWrapper(func, nArguments, false);
+			generateRegistrationPrototype(func, nArguments, false);
+		}
 	}
 
 	/**
@@ -973,9 +1249,11 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	public void generateConstantWrappers()
 		throws IOException, MissingInformationException
 	{
+		long start = System.nanoTime();
 		for (Field global: m_globalDataMembers) {
 			generateFlatWrapper(global, false, false);
 		}
+		endSection("constants", start);
 	}
 	
 	/**
@@ -985,22 +1263,26 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	public void generateEnumeratedTypeWrappers()
 		throws IOException
 	{
+		long start = System.nanoTime();
 		for (sourceanalysis.Enum subject: m_enums) {
 			// Generate a fine prototype here
 			generateFlatWrapper(subject);
 			generateRegistrationPrototype(subject);
 		}
+		endSection("enumerated types", start);
 	}
 
 	public void generateEntry()
 		throws IOException, MissingInformationException
 	{
+		long start = System.nanoTime();
 		List<Aggregate> sorted_subjects = topologicallySortSubjects(true);
 		
 		for (Aggregate subject: m_subjects) {
                         if (!Filters.isAvailable(subject)) {
                           continue;
                         }
+			enter(unitOf(subject));
 			// Generate the interface for the class
 			generateRegistrationPrototype(subject.getScope(),
 				Utils.cleanFullName(subject),
@@ -1013,10 +1295,31 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 				Utils.findGloballyScopedOperators(subject, m_program));
 		}
 		
+		// close the namespaces of the shards
+		for (Unit shard: m_units.subList(1, m_units.size())) {
+			enter(shard);
+			m_output.write("\n}  // end of " + m_randomNamespace + " namespace\n");
+		}
+		enter(m_units.get(0));
+		
         // close the random namespace and generate a using directive
 		m_output.write("\n}  // end of " + m_randomNamespace + " namespace\n\n");
         m_output.write("using namespace " + m_randomNamespace + ";\n\n");
 		
+		// Declare the registration data and wrappers defined in the shards
+		for (Unit shard: m_units.subList(1, m_units.size())) {
+			m_output.write("namespace " + shard.m_namespace + " {\n");
+			for (String declaration: shard.m_declarations) {
+				m_output.write(declaration);
+			}
+			for (Aggregate subject: sorted_subjects) {
+				if (Filters.isAvailable(subject) && unitOf(subject) == shard)
+					m_output.write("extern RegData scope_"
+							+ uid(subject.getScope()) + "[];\n");
+			}
+			m_output.write("}\n\n");
+		}
+		
 		// Generate main entry point
 		m_output.write("extern \"C\" EXPORT RegData entry[];\n\n");
 		m_output.write("RegData entry[] = {\n");
@@ -1025,7 +1328,7 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 			m_output.write("\t{\"");
 			m_output.write(Utils.cleanFullName(subject));
 			m_output.write("\", \"enum\", ");
-			m_output.write("enumerated_" + subject.hashCode());
+			m_output.write("enumerated_" + uid(subject));
 			m_output.write("},\n");
 		}
 		// - enter typedefs
@@ -1058,7 +1361,7 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 			m_output.write("\t{\"");
 			m_output.write(Utils.cleanFullName(subject));
 			m_output.write("\", \"class\", ");
-			m_output.write("scope_" + subject.getScope().hashCode());
+			m_output.write(scopeReference(subject));
 			m_output.write("},\n");
 		}
 		// - enter global functions
@@ -1081,7 +1384,7 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 			m_output.write("{ " + downCaster + " },\n");
 		}
 		m_output.write(END_OF_LIST);
-		m_output.flush();
+		endSection("entry", start);
 	}
 	
 	/**
@@ -1256,7 +1559,6 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 		}
 		m_output.write(retf.getBodyExpr().evaluate(invocation.toString()));
 		m_output.write(";\n}\n");
-		m_output.flush();
 	}
 	
 	/**
@@ -1271,7 +1573,8 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 		m_output.write("\n */\n");
 		// Write the enumerated constants
 		for (sourceanalysis.Enum.Constant constant: enume.getConstants()) {
-			m_output.write("int const_" + constant.hashCode());
+			m_output.write("int const_" + uid(enume) + "_"
+					+ constant.getLiteral());
 			m_output.write(" = (int)");
 			if (enume.hasContainer()) {
 				m_output.write(enume.getContainer().getFullName());
@@ -1280,7 +1583,6 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 			m_output.write(constant.getLiteral());
 			m_output.write(";\n");
 		}
-		m_output.flush();
 	}
 	
 	/**
@@ -1462,7 +1764,6 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 			m_output.write("\", 0},\n");
 		}
 		m_output.write(END_OF_LIST);
-		m_output.flush();
 	}
 
 	/**
@@ -1473,17 +1774,16 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	private void generateRegistrationPrototype(sourceanalysis.Enum enume)
 		throws IOException
 	{
-		m_output.write("RegData enumerated_" + enume.hashCode() + "[] = {\n");
+		m_output.write("RegData enumerated_" + uid(enume) + "[] = {\n");
 		// Write the enumerated constants
 		for (sourceanalysis.Enum.Constant constant: enume.getConstants()) {
 			m_output.write("\t{ \"");
 			m_output.write(constant.getLiteral());
 			m_output.write("\", 0, 0, (void*)&const_"
-				+ constant.hashCode());			
+				+ uid(enume) + "_" + constant.getLiteral());
 			m_output.write(" },\n");
 		}
 		m_output.write(END_OF_LIST);
-		m_output.flush();
 	}
 	
 	/**
@@ -1655,20 +1955,22 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 						 + "(" + derivedname + " *self) { return self; }\n");
 				 
 				 if (Utils.isPolymorphic(base)) {
-					 m_output.write(
-							 derivedname + "* __CDECL downcast_" + base2derived
-							 + "(" + basename + " *self)");
+					 String downcast = derivedname + "* __CDECL downcast_" 
+					 		 + base2derived + "(" + basename + " *self)";
+					 m_output.write(downcast);
 					 m_output.write(" { return dynamic_cast<" + derivedname
 							 + "*>(self); }\n");
 					 m_output.write(
 							 "RegData downcast_" + base2derived + "_proto[] = {\n" 
 							 + "\t{\"arg0\", \"*" + basename + "\", 0, 0},\n"
 							 + END_OF_LIST);
+					 declare("extern RegData downcast_" + base2derived 
+							 + "_proto[];\n" + downcast + ";\n");
 					 m_downCasters.add("\"dynamic_cast< " + derivedname 
 							 + " >\", "
 							 + "\"&" + derivedname + "\", "
-							 + "downcast_" + base2derived + "_proto, "
-							 + "(void*)&downcast_" + base2derived);
+							 + qualifier() + "downcast_" + base2derived + "_proto, "
+							 + "(void*)&" + qualifier() + "downcast_" + base2derived);
 				 }
 			}
 		}
@@ -1758,7 +2060,7 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 		boolean hasOutput, boolean hasDtor, boolean with, List<Routine> additional)
 		throws IOException, MissingInformationException
 	{
-		m_output.write("RegData scope_" + scope.hashCode() + "[] = {\n");
+		m_output.write("RegData scope_" + uid(scope) + "[] = {\n");
 		// Go through bases
 		Iterator<InheritanceConnection> basesIterator = bases.iterator();
 		if (basesIterator != null) {
@@ -1950,17 +2252,20 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
 	}
 
     private String generateNamespaceName() {
-        final int rnd = (new Random()).nextInt();
+        StringBuffer subjects = new StringBuffer();
+        for (Aggregate subject: m_subjects)
+            subjects.append(subject.getFullName()).append('\n');
 
-        // We're randomizing a namespace name instead of anonymous namespace,
+        // We're using a unique namespace name instead of anonymous namespace,
         // because of a weird bug, where g++ ignores the anonymous namespace in
-        // our case.
-        return ("Robin_" + Integer.toString(rnd,16)).replace("-","_");
+        // our case. The name is derived from the wrapped classes rather than
+        // randomized, so that the same input generates the same code.
+        return "Robin_" + digest(subjects.toString());
     }
 
 	// Private members
-	private Map<Object, Integer> m_uidMap;
-	private int m_uidNext;
+	private Map<Object, String> m_uidMap;
+	private Set<String> m_uidTaken;
 	private List<Field> m_globalDataMembers;
 	private List<String> m_downCasters;
 	private List<RegData> m_entry;
@@ -1973,6 +2278,83 @@ public class CodeGenerator extends backend.GenericCodeGenerator {
     
     // some code snippets are only allowed to appear once
     private Set<String> m_included_snippets;
+
+    // compilation units; the first is the main one
+    private List<Unit> m_units;
+    private Unit m_unit;
+    private Map<Aggregate, Unit> m_unitOf;
+    
+    // emission statistics
+    private List<Section> m_sections;
+    private long m_emitted;
+
+	/**
+	 * A generated compilation unit - either the main one, or a shard
+	 * holding the wrappers of some of the classes.
+	 */
+	private static class Unit {
+		Unit(Writer output) {
+			m_output = new CountingWriter(output);
+			m_snippets = new TreeSet<String>();
+			m_wrapped = new HashSet<Routine>();
+			m_declarations = new ArrayList<String>();
+		}
+
+		CountingWriter m_output;
+		// assigned by generatePreface()
+		String m_namespace;
+		Set<String> m_snippets;
+		// global functions wrapped in this unit in addition to the main one
+		Set<Routine> m_wrapped;
+		// declarations of wrappers which are referred to from the main unit
+		List<String> m_declarations;
+		// estimated amount of code
+		int m_load;
+	}
+	
+	/**
+	 * Counts the characters written to a compilation unit.
+	 */
+	private static class CountingWriter extends FilterWriter {
+		CountingWriter(Writer output) {
+			super(output);
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			out.write(c);
+			++m_count;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			out.write(cbuf, off, len);
+			m_count += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			out.write(str, off, len);
+			m_count += len;
+		}
+
+		long m_count;
+	}
+	
+	/**
+	 * Time and amount of code spent on one section of the generated code.
+	 */
+	private static class Section {
+		Section(String name, long nanos, long chars) {
+			m_name = name;
+			m_nanos = nanos;
+			m_chars = chars;
+		}
+
+		String m_name;
+		long m_nanos;
+		long m_chars;
+	}
 	
 	// Code skeletons
 	private static final String END_OF_LIST = "\t{ 0,0,0,0 }\n};\n\n";
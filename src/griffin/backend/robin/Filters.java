@@ -4,7 +4,7 @@
  */
 package backend.robin;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import sourceanalysis.Aggregate;
@@ -361,7 +361,7 @@ public class Filters extends GenericFilters {
 		public String m_touchupCode;
 	}
 	// The map from function return type to the new type and the touchup code
-	private static Map<Type, Filters.Touchup> m_touchups = new HashMap<Type, Filters.Touchup>();
+	private static Map<Type, Filters.Touchup> m_touchups = new LinkedHashMap<Type, Filters.Touchup>();
 
 	// TODO: should be package protected?
 	public static boolean isPrimitive(Entity base)
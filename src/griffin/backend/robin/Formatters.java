@@ -59,13 +59,19 @@ public class Formatters {
 			List<ParameterTransformer> params, CppExpression semantic)
 	{
 		String doc = (routine == null) ? "" : formatDocBlock(routine);
-		String header = ret.getPrototypeType().formatCpp(name) + "(" + formatParameters(params) + ")"; 
+		String header = formatFunctionHeader(name, ret, params);
 		String body = ret.getBodyExpr().evaluate(
 				semantic.evaluate(formatArguments(params)));
 		String proto = formatRegData(name, params);
 		return doc + header + "\n{\n\t" + body + ";\n}\n" + proto + "\n";
 	}
 	
+	static String formatFunctionHeader(String name, ParameterTransformer ret,
+			List<ParameterTransformer> params)
+	{
+		return ret.getPrototypeType().formatCpp(name) + "(" + formatParameters(params) + ")";
+	}
+	
 	static String formatSimpleType(SimpleType stype)
 	{
 		String typespec = (stype.base instanceof sourceanalysis.Enum) ? "#" : "";
@@ -1,13 +1,11 @@
 package backend.robin;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 
 import sourceanalysis.MissingInformationException;
 import sourceanalysis.ProgramDatabase;
 import backend.Backend;
+import backend.OutputSink;
 import backend.PropertyPage;
 import backend.annotations.BackendDescription;
 import backend.annotations.PropertyDescription;
@@ -24,6 +22,8 @@ import backend.configuration.PropertyData;
  * <p><b>Output:</b></p>
  * <ul>
  *   <li>A C++ file which can be compiled by a C++ compiler</li>
+ *   <li>Optionally, several more C++ files holding the class wrappers, to be
+ *   compiled and linked together with the first one</li>
  * </ul>
  */
 @BackendDescription(backendName = "robin", backendDescription = "Robin (CPP-PY wrapper) backend")
@@ -38,6 +38,7 @@ public class Launcher implements Backend  {
 	 *  - outfile: name of file to bear the output
 	 *  - classes: an array of class names
 	 *  - interceptors: a boolean flag indicating whether interceptors are enabled
+	 *  - shards: number of additional files to spread the class wrappers in
 	 * @throws IOException if an output exception occurs
 	 * @throws MissingInformationException if the program database is 
 	 * incomplete
@@ -48,9 +49,10 @@ public class Launcher implements Backend  {
        outfile = properties.getString("outfile");
        classnames = properties.getStringArray("classes");
        interceptors = properties.getBoolean("interceptors");
+       shards = properties.getInteger("shards");
 		
 		// Execute
-		execute(program, classnames, outfile, interceptors);		
+		execute(program, classnames, outfile, interceptors, shards);
 	}
 	
 	/**
@@ -68,11 +70,37 @@ public class Launcher implements Backend  {
 		String[] classnames, String outfile, boolean interceptors)
 		throws IOException, MissingInformationException 
 	{
+		execute(program, classnames, outfile, interceptors, 1);
+	}
+	
+	/**
+	 * Run Robin back-end and generate code, spreading the class wrappers
+	 * across several files which can be compiled in parallel.
+	 * 
+	 * @param program a program database to operate upon
+	 * @param classnames an array of class names
+	 * @param outfile name of a file to bear the global wrappers and the
+	 * entry table
+	 * @param interceptors <b>true</b> to enable the interceptors feature
+	 * @param shards number of files for the class wrappers, named after
+	 * 'outfile' (see shardFilename()); if it is less than 2, all the code
+	 * goes in 'outfile'
+	 * @throws IOException if an output exception occurs
+	 * @throws MissingInformationException if the program database is 
+	 * incomplete
+	 */
+	public static void execute(ProgramDatabase program,
+		String[] classnames, String outfile, boolean interceptors, int shards)
+		throws IOException, MissingInformationException 
+	{
        
-		OutputStream cfile = new FileOutputStream(outfile);
+		OutputSink sink = new OutputSink("robin");
 		CodeGenerator codegen =
-			new CodeGenerator(program, new OutputStreamWriter(cfile));
+			new CodeGenerator(program, sink.open(outfile));
 		codegen.setOutputFilename(outfile);
+		for (int i = 1; shards > 1 && i <= shards; ++i) {
+			codegen.addShard(sink.open(shardFilename(outfile, i)));
+		}
 		
 		// Collect targets
 		if (classnames.length == 0 
@@ -113,7 +141,28 @@ public class Launcher implements Backend  {
 		codegen.generateEntry();
 		codegen.report(classnames);
 
-		cfile.close();
+		sink.close();
+		if (Boolean.getBoolean(backend.Launcher.STATISTICS_PROPERTY)) {
+			codegen.reportStatistics(System.err);
+		}
+	}
+	
+	/**
+	 * Names a file for some of the class wrappers, by adding the shard
+	 * number to the name of the main output file - e.g. "4robin.cc"
+	 * becomes "4robin_1.cc", "4robin_2.cc" and so on.
+	 * 
+	 * @param outfile name of the main output file
+	 * @param index number of the shard, starting at 1
+	 * @return String name of the shard file
+	 */
+	public static String shardFilename(String outfile, int index)
+	{
+		int dot = outfile.lastIndexOf('.');
+		if (dot <= outfile.lastIndexOf('/') 
+				|| dot <= outfile.lastIndexOf(java.io.File.separatorChar))
+			dot = outfile.length();
+		return outfile.substring(0, dot) + "_" + index + outfile.substring(dot);
 	}
    
    // properties
@@ -139,5 +188,11 @@ public class Launcher implements Backend  {
                         defaultValue = "./4robin.cc")
    private String outfile;
 
+   @PropertyDescription(propertyName = "shards",
+                        propertyDescription = "Number of additional files to spread the class wrappers in, for parallel compilation",
+                        numberOfArguments = 1,
+                        required = false,
+                        defaultValue = "1")
+   private int shards;
    
 }
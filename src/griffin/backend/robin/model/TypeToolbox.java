@@ -25,14 +25,14 @@ public class TypeToolbox {
 		while (root.getKind() == Type.TypeNode.NODE_REFERENCE) {
 			root = (Type.TypeNode)root.getFirstChild();
 		}
-		return new Type(root.clone());
+		return new Type(root);
 	}
 
 	static public Type dereferencePtrOne(Type type) {
 		Type.TypeNode root = type.getRootNode();
 		// Root should be a pointer node. Skip it.
 		assert root.getKind() == Type.TypeNode.NODE_REFERENCE;
-		return new Type(((Type.TypeNode)root.getFirstChild()).clone());
+		return new Type((Type.TypeNode)root.getFirstChild());
 	}
 	
 	/**
@@ -45,7 +45,7 @@ public class TypeToolbox {
 	 */
 	static public Type makeReference(Type refof) {
 		Type.TypeNode root = new Type.TypeNode(Type.TypeNode.NODE_REFERENCE);
-		root.add(refof.getRootNode().clone());
+		root.add(refof.getRootNode());
 		return new Type(root);
 	}
 	
@@ -71,7 +71,7 @@ public class TypeToolbox {
 	 */
 	static public Type makePointer(Type ptrto) {
 		Type.TypeNode root = new Type.TypeNode(Type.TypeNode.NODE_POINTER);
-		root.add(ptrto.getRootNode().clone());
+		root.add(ptrto.getRootNode());
 		return new Type(root);
 	}
 	
@@ -117,9 +117,10 @@ public class TypeToolbox {
 		}
 		// add the const / volatile modifiers back
 		Type.TypeNode rootNode = type.getRootNode();
-		rootNode.setCV(rootNode.getCV() | passedType.getRootNode().getCV());
+		Type.TypeNode qualified = 
+			rootNode.withCV(passedType.getRootNode().getCV());
 		
-		return type;
+		return (qualified == rootNode) ? type : new Type(qualified);
 	}
 	
 	/**
@@ -148,22 +149,17 @@ public class TypeToolbox {
 	
 	private static Type getOriginalTypeDeep(Type.TypeNode root)
 	{
-		Type original = null;
-		
 		switch (root.getKind()) {
 		case Type.TypeNode.NODE_POINTER:
-			original = makePointer(
-					getOriginalTypeDeep((Type.TypeNode)root.getFirstChild()));
-			break;
 		case Type.TypeNode.NODE_REFERENCE:
-			original = makeReference(
-					getOriginalTypeDeep((Type.TypeNode)root.getFirstChild()));
-			break;
+			Type.TypeNode original = new Type.TypeNode(root.getKind());
+			original.add(getOriginalTypeDeep((Type.TypeNode)root.getFirstChild())
+					.getRootNode());
+			original.setCV(root.getCV());
+			return new Type(original);
 		default:
 			return getOriginalTypeShallow(new Type(root));
 		}
-		original.getRootNode().setCV(root.getCV());
-		return original;
 	}
 	
 	/**
@@ -3,10 +3,7 @@
  */
 package backend.swig;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 
 import sourceanalysis.ElementNotFoundException;
 import sourceanalysis.MissingInformationException;
@@ -14,6 +11,7 @@ import sourceanalysis.ProgramDatabase;
 import sourceanalysis.view.TemplateBank;
 import sourceanalysis.view.TemplateReader;
 import backend.Backend;
+import backend.OutputSink;
 import backend.PropertyPage;
 import backend.annotations.BackendDescription;
 import backend.annotations.PropertyDescription;
@@ -31,11 +29,11 @@ public class Launcher implements Backend {
            templatefile = properties.getString("templatefile");
            autocollect = properties.getBoolean("auto");
            
-           OutputStream cfile = new FileOutputStream(outfile);
+           OutputSink sink = new OutputSink("swig");
            TemplateBank templates = TemplateReader.readTemplatesFromFile(templatefile);
 
 			CodeGenerator codegen =
-               new CodeGenerator(program, new OutputStreamWriter(cfile), 
+               new CodeGenerator(program, sink.open(outfile), 
 				                  templates);
            
            if(autocollect) {
@@ -49,7 +47,7 @@ public class Launcher implements Backend {
 			codegen.generateClassInterface();
 			codegen.generateGlobalVariableInterface();
 
-			cfile.close();
+			sink.close();
        } catch (ElementNotFoundException e) {
            throw new MissingInformationException("Some information is missing");
 		}
@@ -267,22 +267,18 @@ public class XMLWriter {
 			boolean found = false;
 			
 			// Look for the parent as a namespace.
-			for (ContainedConnection<? extends Entity, Namespace> cc: location.getNamespaces()) {
+			for (ContainedConnection<? extends Entity, Namespace> cc: location.lookupNamespaces(parent)) {
 				Namespace ns = (Namespace)cc.getContained();
-				if(ns.getName().equals(parent)) {
-					found = true;
-					location = ns.getScope();
-				}	
+				found = true;
+				location = ns.getScope();	
 			}
 
 			// Look for the parent as an aggregate.
 			if( ! found ) {
-				for (ContainedConnection<? extends Entity, Aggregate> cc: location.getAggregates()) {
+				for (ContainedConnection<? extends Entity, Aggregate> cc: location.lookupAggregates(parent)) {
 					Aggregate agg = (Aggregate)cc.getContained();
-					if(agg.getName().equals(parent)) {
-						found = true;
-						location = agg.getScope();
-					}
+					found = true;
+					location = agg.getScope();
 				}	
 			}
 			
@@ -294,11 +290,8 @@ public class XMLWriter {
 		}
 		
 		// Find the entity in the current loction.
-		for (ContainedConnection<? extends Entity, Aggregate> cc: location.getAggregates()) {
-			Aggregate agg = (Aggregate)cc.getContained();
-			if(agg.getName().equals(name)) {
-				return agg;
-			}
+		for (ContainedConnection<? extends Entity, Aggregate> cc: location.lookupAggregates(name)) {
+			return (Aggregate)cc.getContained();
 		}	
 		
 		// If the aggregate wasn't found in the current location throw 
@@ -1539,8 +1532,7 @@ public class XMLWriter {
 					// 'getAggregateByName'.
 					// Therefore if this exception is thrown it is a major
 					// error and the program must stop.
-					System.err.println(iae.getMessage());
-					System.exit(1); 
+					throw iae;
 				}
 			}
 			
@@ -1567,9 +1559,8 @@ public class XMLWriter {
 				} catch(Exception e) {
 					// Every exception thrown from this methods is a 
 					// fatal one and therefore the program must end.
-					e.printStackTrace();
-					System.err.println(e.getMessage());
-					System.exit(1); 
+					if (e instanceof IOException) throw (IOException)e;
+					throw new IOException(e.getMessage(), e);
 				}
 			}
 			
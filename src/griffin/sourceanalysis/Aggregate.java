@@ -51,6 +51,8 @@ public class Aggregate extends TemplateEnabledEntity
 			new InheritanceConnection(base, baseTemplateArgs,
 			                          visibility, this);
 		m_bases.add(connection);
+		// Indexes over the class hierarchy watch Scope.getChangeCount()
+		Scope.countChange();
 		return connection;
 	}
 
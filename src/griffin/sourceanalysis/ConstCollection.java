@@ -2,19 +2,82 @@ package sourceanalysis;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 
 /**
+ * A read-only view of a collection. The view follows changes made to the
+ * collection, so an owner may create it once and hand it out on every
+ * request.
+ * <p>Lists which support random access (such as ArrayList) are iterated
+ * by index, with a read-only iterator; an iterator which is open while
+ * elements are appended to the list will see them. Other collections are
+ * iterated with their own iterator.</p>
  * @author Misha Seltzer
  *
  */
 public class ConstCollection<T> implements Iterable<T> {
 	public ConstCollection(Collection<T> collection) {
 		this.collection = collection;
+		if (collection instanceof RandomAccess && collection instanceof List)
+			this.list = (List<T>)collection;
 	}
-	
+
+	/**
+	 * Constructor for subclasses which hold the elements themselves, and
+	 * override iterator(), size() and isEmpty().
+	 */
+	protected ConstCollection() {
+	}
+
 	public Iterator<T> iterator() {
-		return this.collection.iterator();
+		if (this.list != null)
+			return new IndexIterator<T>(this.list);
+		else
+			return this.collection.iterator();
+	}
+
+	/**
+	 * Returns the number of elements in the collection.
+	 */
+	public int size() {
+		return this.collection.size();
+	}
+
+	/**
+	 * Checks whether the collection is empty.
+	 */
+	public boolean isEmpty() {
+		return this.collection.isEmpty();
 	}
-	
+
+	/**
+	 * Goes over a random-access list by index.
+	 */
+	private static class IndexIterator<T> implements Iterator<T> {
+		IndexIterator(List<T> list) {
+			this.list = list;
+		}
+
+		public boolean hasNext() {
+			return this.index < this.list.size();
+		}
+
+		public T next() {
+			if (this.index >= this.list.size())
+				throw new NoSuchElementException();
+			return this.list.get(this.index++);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("read-only collection");
+		}
+
+		private List<T> list;
+		private int index;
+	}
+
 	private Collection<T> collection;
+	private List<T> list;
 }
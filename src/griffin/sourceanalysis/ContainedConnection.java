@@ -1,5 +1,7 @@
 package sourceanalysis;
 
+import java.io.Serializable;
+
 /**
  * Connects an enclosed entity with its container.
  * Almost every entity in the Program Database is conceptually contained in
@@ -12,7 +14,8 @@ package sourceanalysis;
  * <li>storage specification</li>
  * </ul>
  */
-public class ContainedConnection<Container extends Entity, Contained extends Entity> {
+public class ContainedConnection<Container extends Entity, Contained extends Entity>
+	implements Serializable {
 
 	/**
 	 * Constructor for ContainedConnection. The connection must be
@@ -1,5 +1,6 @@
 package sourceanalysis;
 
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,11 +16,11 @@ import sourceanalysis.hints.IncludedViaHeader;
  * the source analyzer or the documentation reader; it is up to the implementation to put and
  * fetch any special values.</p>
  */
-public abstract class Entity {
+public abstract class Entity implements Serializable {
 	/**
 	 * <p>A string attribute attached to an entity.</p>
 	 */
-	public static class Property {
+	public static class Property implements Serializable {
 
 		/** Initializes an anonymous Property with no value.
 		 */
@@ -91,6 +92,34 @@ public abstract class Entity {
 	public void setName(String name)
 	{
 		m_name = name;
+		// Scopes index their members by name
+		if (m_uplink != null || m_group != null) ++m_renames;
+		namesChanged();
+	}
+
+	/**
+	 * Returns the number of times an entity which was already a member of
+	 * a scope has been renamed, so that scopes can tell when their name
+	 * index is out of date.
+	 */
+	static int getRenameCount()
+	{
+		return m_renames;
+	}
+
+	/**
+	 * Discards the qualified names built from this entity. Called whenever
+	 * something they are made of - the name of the entity, its container,
+	 * its template parameters or specialization arguments - changes.
+	 * <p>Only the entity's own names are dropped if no name was ever built
+	 * from it, as is the case for entities still being put together;
+	 * otherwise, the names remembered by all entities are.</p>
+	 */
+	void namesChanged()
+	{
+		m_fullName = null;
+		m_formatted = null;
+		if (m_nameUsed) ++m_namesEpoch;
 	}
 	
 	/**
@@ -143,6 +172,7 @@ public abstract class Entity {
 		throws InappropriateKindException
 	{
 		m_templateParameters = parameters;
+		namesChanged();
 		// Connect all members of the parameters' vector to the Entity
 		// as "contained"
 		for (TemplateParameter parameter: parameters) {
@@ -219,6 +249,7 @@ public abstract class Entity {
 	protected void connectToContainer(ContainedConnection<? extends Entity, ? extends Entity> connection)
 	{
 		m_uplink = connection;
+		namesChanged();
 	}
     
     /**
@@ -285,10 +316,36 @@ public abstract class Entity {
 	 */
 	public String getFullName()
 	{
-        if (hasContainer())
-            return getContainer().getFullName() + "::" + getName();
-        else
-            return getName();
+		m_nameUsed = true;
+		if (m_fullName == null || m_fullNameEpoch != m_namesEpoch) {
+			if (hasContainer())
+				m_fullName = getContainer().getFullName() + "::" + getName();
+			else
+				m_fullName = getName();
+			m_fullNameEpoch = m_namesEpoch;
+		}
+		return m_fullName;
+	}
+
+	/**
+	 * Formats the name of this entity, remembering the result for as long
+	 * as no names change. Only the result for the most recently used
+	 * formatter is kept.
+	 * @param formatter a formatter whose result depends only on the names
+	 * of entities and on their containment, such as one which builds a
+	 * qualified name
+	 * @return the string returned by formatter.formatBase(this)
+	 */
+	public String formatName(Type.BaseTypeFormatter formatter)
+	{
+		m_nameUsed = true;
+		if (m_formatted == null || m_formatter != formatter
+				|| m_formattedEpoch != m_namesEpoch) {
+			m_formatted = formatter.formatBase(this);
+			m_formatter = formatter;
+			m_formattedEpoch = m_namesEpoch;
+		}
+		return m_formatted;
 	}
 	
 	/**
@@ -501,4 +558,18 @@ public abstract class Entity {
 	private SourceFile.DeclDefConnection m_declarationAt;
 	private SourceFile.DeclDefConnection m_definitionAt;
 	private boolean m_external;
+	
+	// Qualified names, remembered until names change
+	private transient String m_fullName;
+	private transient int m_fullNameEpoch;
+	private transient Type.BaseTypeFormatter m_formatter;
+	private transient String m_formatted;
+	private transient int m_formattedEpoch;
+	// Whether a qualified name was built from this entity - the names of
+	// its members, and of specializations with it as an argument, are built
+	// through getFullName() and formatName() of the entities they contain
+	private transient boolean m_nameUsed;
+	
+	private static int m_renames = 0;
+	private static int m_namesEpoch = 0;
 }
@@ -1,5 +1,6 @@
 package sourceanalysis;
 
+import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -11,7 +12,7 @@ public class Enum extends Entity {
 	/**
 	 * An enumerated constant - tuple of (String, int).
 	 */
-	public static class Constant
+	public static class Constant implements Serializable
 	{
 		/**
 		 * Initializes the constant with all the required information.
@@ -3,6 +3,8 @@
  */
 package sourceanalysis;
 
+import java.io.Serializable;
+
 /**
  * Connects an entity declared in a friend declaration, to the entity
  * (probably an Aggregate) declaring that it is a friend of.
@@ -12,7 +14,7 @@ package sourceanalysis;
  * FriendConnection originating in 'G'. Here, 'G' is referred to as the
  * "declaring" side of the connection and 'o()' as the "declared".
  */
-public class FriendConnection {
+public class FriendConnection implements Serializable {
 
 	/**
 	 * Constructs a friend connection. 
@@ -1,5 +1,7 @@
 package sourceanalysis;
 
-public interface Hint {
+import java.io.Serializable;
+
+public interface Hint extends Serializable {
 
 }
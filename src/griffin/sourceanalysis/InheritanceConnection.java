@@ -1,11 +1,13 @@
 package sourceanalysis;
 
+import java.io.Serializable;
+
 import javax.swing.tree.DefaultMutableTreeNode;
 
 /**
  * enclosing_type - undocumented.
  */
-public class InheritanceConnection {
+public class InheritanceConnection implements Serializable {
 
     /**
      * Constructor for InheritanceConnection. All the fields of the connection
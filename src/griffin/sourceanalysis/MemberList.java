@@ -0,0 +1,107 @@
+package sourceanalysis;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Holds the members of one kind in a Scope, in a plain array. The list is
+ * also the read-only view which the Scope hands out, so going over the
+ * members of a scope allocates nothing but the iterator.
+ * <p>An iterator which is open while members are added will see them.</p>
+ */
+class MemberList<T> extends ConstCollection<T> implements Serializable {
+
+	/**
+	 * Constructor for MemberList - creates an empty list.
+	 */
+	MemberList() {
+		m_elements = NO_ELEMENTS;
+	}
+
+	/**
+	 * Appends an element to the list.
+	 */
+	void add(T element) {
+		if (m_size == m_elements.length) {
+			m_elements = Arrays.copyOf(m_elements,
+					Math.max(INITIAL_CAPACITY, m_size + (m_size >> 1)));
+		}
+		m_elements[m_size++] = element;
+	}
+
+	@SuppressWarnings("unchecked")
+	T get(int index) {
+		if (index >= m_size) throw new IndexOutOfBoundsException("" + index);
+		return (T)m_elements[index];
+	}
+
+	void set(int index, T element) {
+		if (index >= m_size) throw new IndexOutOfBoundsException("" + index);
+		m_elements[index] = element;
+	}
+
+	/**
+	 * Drops the elements from 'size' on.
+	 */
+	void truncate(int size) {
+		Arrays.fill(m_elements, size, m_size, null);
+		m_size = size;
+	}
+
+	/**
+	 * Releases the room reserved for elements which were not added.
+	 */
+	void trimToSize() {
+		if (m_elements.length != m_size) {
+			m_elements = (m_size == 0) ? NO_ELEMENTS
+				: Arrays.copyOf(m_elements, m_size);
+		}
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			public boolean hasNext() {
+				return m_index < m_size;
+			}
+
+			public T next() {
+				if (m_index >= m_size) throw new NoSuchElementException();
+				return get(m_index++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("read-only collection");
+			}
+
+			private int m_index;
+		};
+	}
+
+	@Override
+	public int size() {
+		return m_size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	private void readObject(ObjectInputStream in)
+		throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		trimToSize();
+	}
+
+	private Object[] m_elements;
+	private int m_size;
+
+	private static final int INITIAL_CAPACITY = 4;
+	private static final Object[] NO_ELEMENTS = new Object[0];
+}
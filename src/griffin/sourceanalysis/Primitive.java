@@ -1,5 +1,9 @@
 package sourceanalysis;
 
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
 /**
  * A special type of aggregate which represents a primitive type (such as an
  * integer or a real number).
@@ -42,6 +46,40 @@ public class Primitive extends Aggregate {
 		throw new ElementNotFoundException("primitive", name);
 	}
 	
+	/**
+	 * Standard primitives are compared by identity, so when a serialized
+	 * program database is read back, they must resolve to the same
+	 * instances rather than to copies.
+	 */
+	private static class StandardPrimitive implements Serializable
+	{
+		StandardPrimitive(String name) { m_name = name; }
+		
+		private Object readResolve() throws ObjectStreamException
+		{
+			try {
+				return byName(m_name);
+			}
+			catch (ElementNotFoundException e) {
+				throw new InvalidObjectException("no primitive " + m_name);
+			}
+		}
+		
+		private String m_name;
+	}
+	
+	private Object writeReplace() throws ObjectStreamException
+	{
+		try {
+			if (byName(getName()) == this)
+				return new StandardPrimitive(getName());
+		}
+		catch (ElementNotFoundException e) {
+			// not a standard primitive; write as is
+		}
+		return this;
+	}
+	
 	public static Primitive VOID = new Primitive("void");
 	public static Primitive BOOL = new Primitive("bool");
 	public static Primitive INT = new Primitive("int");
@@ -1,8 +1,14 @@
 package sourceanalysis;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>Saves a bunch of classes and other types in an acessible structure.</p>
@@ -41,6 +47,10 @@ import java.util.List;
  *   declared or defined in it.<br />
  *   To do this, use ProgramDatabase.sourceFileIterator().
  *   </li>
+ *   <li>Look up entities by name using lookupByName(), which consults an
+ *   index over all the namespaces in the program, instead of descending
+ *   the tree for each name.
+ *   </li>
  *   <li>Iterate the list of preprocessing macros (#defines) in the program.
  *   Each macro is represented by a Macro entity.<br />
  *   To do this, use ProgramDatabase.macroIterator().
@@ -85,6 +95,34 @@ public class ProgramDatabase extends Entity {
 	{
 		m_sources.add(source);
 		source.connectToContainer(this, source);
+		m_sourcesByName = null;
+	}
+	
+	/**
+	 * Removes a source file from the program.
+	 * @param source a previously enlisted SourceFile
+	 */
+	public void delistSourceFile(SourceFile source)
+	{
+		m_sources.remove(source);
+		m_sourcesByName = null;
+	}
+	
+	/**
+	 * Puts a source file in place of a previously enlisted one, keeping
+	 * its position in the list of sources.
+	 * @param source a previously enlisted SourceFile
+	 * @param replacement a new SourceFile object
+	 * @return <b>true</b> if 'source' was enlisted and has been replaced
+	 */
+	public boolean replaceSourceFile(SourceFile source, SourceFile replacement)
+	{
+		int index = m_sources.indexOf(source);
+		if (index < 0) return false;
+		m_sources.set(index, replacement);
+		replacement.connectToContainer(this, replacement);
+		m_sourcesByName = null;
+		return true;
 	}
 	
 	/**
@@ -143,12 +181,156 @@ public class ProgramDatabase extends Entity {
 	public SourceFile lookupSourceFile(String filename) 
 		throws ElementNotFoundException
 	{
+		if (m_sourcesByName == null
+				|| m_sourcesIndexedRenames != Entity.getRenameCount())
+			indexSourceFiles();
+		SourceFile source = m_sourcesByName.get(filename);
+		if (source == null)
+			throw new ElementNotFoundException("file", filename);
+		return source;
+	}
+
+	/**
+	 * Maps the name of each source file, and every suffix of its full path
+	 * which follows a '/', to the first source file in the list having it.
+	 */
+	private void indexSourceFiles()
+	{
+		m_sourcesByName = new HashMap<String, SourceFile>();
+		m_sourcesIndexedRenames = Entity.getRenameCount();
 		for (SourceFile source: m_sources) {
-			if (source.getName().equals(filename) 
-					|| source.getFullName().endsWith("/" + filename)) 
-				return source;
+			if (!m_sourcesByName.containsKey(source.getName()))
+				m_sourcesByName.put(source.getName(), source);
+			String full = source.getFullName();
+			for (int slash = full.indexOf('/'); slash >= 0; 
+					slash = full.indexOf('/', slash + 1)) {
+				String suffix = full.substring(slash + 1);
+				if (!m_sourcesByName.containsKey(suffix))
+					m_sourcesByName.put(suffix, source);
+			}
+		}
+	}
+
+	/**
+	 * Decides the names by which an entity can be looked up using
+	 * lookupByName(). Back-ends usually accept the qualified name of an
+	 * entity as well as its short name.
+	 */
+	public interface Naming
+	{
+		/**
+		 * Lists the names of an entity.
+		 * @param entity an entity residing in a namespace
+		 * @return names to index the entity by; duplicates are ignored
+		 */
+		Collection<String> namesOf(Entity entity);
+	}
+
+	/**
+	 * Indexes all the entities residing in namespaces - both in the global
+	 * namespace and in the externals - by the names given to them by
+	 * 'naming'. Lookups through lookupByName() with the same naming use
+	 * this index for as long as the program is not modified; once it is, the
+	 * index is built again on the next lookup.
+	 * <p>It is best to call this once, after the program database has been
+	 * completed by the front-end and by any mix-ins.</p>
+	 * @param naming decides the names of each entity
+	 */
+	public void buildNameIndex(Naming naming)
+	{
+		m_naming = naming;
+		m_byName = new HashMap<String, List<ContainedConnection<Namespace, ? extends Entity>>>();
+		m_indexedRenames = Entity.getRenameCount();
+		m_indexedChanges = Scope.getChangeCount();
+		indexScope(m_globalNamespace.getScope());
+		indexScope(m_externalsNamespace.getScope());
+	}
+
+	/**
+	 * Finds all the entities residing in namespaces which bear the given
+	 * name. Aggregates, enums, typedefs, routines and namespaces are looked
+	 * up; members of classes are not.
+	 * @param name name to look for
+	 * @param naming decides the names of each entity; if the index was built
+	 * with a different naming, it is built again
+	 * @return the containment connections of the entities found, in the
+	 * order of a depth-first traversal of the namespaces: within each scope,
+	 * aggregates come first, then enums, typedefs and routines, and then
+	 * inner namespaces, each followed by its contents.
+	 */
+	public List<ContainedConnection<Namespace, ? extends Entity>> lookupByName(
+			String name, Naming naming)
+	{
+		if (m_byName == null || m_naming != naming
+				|| m_indexedRenames != Entity.getRenameCount()
+				|| m_indexedChanges != Scope.getChangeCount())
+			buildNameIndex(naming);
+		List<ContainedConnection<Namespace, ? extends Entity>> found =
+			m_byName.get(name);
+		if (found == null) return Collections.emptyList();
+		return Collections.unmodifiableList(found);
+	}
+
+	/**
+	 * Adds the members of a namespace scope, and those of its inner
+	 * namespaces, to the name index.
+	 */
+	private void indexScope(Scope<Namespace> scope)
+	{
+		for (ContainedConnection<Namespace, Aggregate> connection: 
+				scope.getAggregates())
+			index(connection);
+		for (ContainedConnection<Namespace, sourceanalysis.Enum> connection: 
+				scope.getEnums())
+			index(connection);
+		for (ContainedConnection<Namespace, Alias> connection: 
+				scope.getAliass())
+			index(connection);
+		for (ContainedConnection<Namespace, Routine> connection: 
+				scope.getRoutines())
+			index(connection);
+		for (ContainedConnection<Namespace, Namespace> connection: 
+				scope.getNamespaces()) {
+			index(connection);
+			indexScope(connection.getContained().getScope());
+		}
+	}
+
+	private void index(ContainedConnection<Namespace, ? extends Entity> connection)
+	{
+		for (String name: new LinkedHashSet<String>(
+				m_naming.namesOf(connection.getContained()))) {
+			List<ContainedConnection<Namespace, ? extends Entity>> named =
+				m_byName.get(name);
+			if (named == null) {
+				named = new ArrayList<ContainedConnection<Namespace, ? extends Entity>>(1);
+				m_byName.put(name, named);
+			}
+			named.add(connection);
 		}
-		throw new ElementNotFoundException("file", filename);
+	}
+	
+	/**
+	 * Returns an object kept with the program by setAttachment().
+	 * @param key identifies the attachment
+	 * @return Object the attachment, or <b>null</b> if there is none
+	 */
+	public Object getAttachment(Object key)
+	{
+		return (m_attachments == null) ? null : m_attachments.get(key);
+	}
+
+	/**
+	 * Keeps an object derived from the program - such as an index built by
+	 * a backend - for as long as the program database itself. Attachments
+	 * are not serialized with the program.
+	 * @param key identifies the attachment
+	 * @param attachment the object to keep
+	 */
+	public void setAttachment(Object key, Object attachment)
+	{
+		if (m_attachments == null) m_attachments = new HashMap<Object, Object>();
+		m_attachments.put(key, attachment);
 	}
 	
 	/**
@@ -166,4 +348,13 @@ public class ProgramDatabase extends Entity {
 	private List<Macro> m_macros;
 
 	private Namespace m_externalsNamespace;
+
+	// Indexes, built on demand
+	private transient Map<String, SourceFile> m_sourcesByName;
+	private transient int m_sourcesIndexedRenames;
+	private transient Naming m_naming;
+	private transient Map<String, List<ContainedConnection<Namespace, ? extends Entity>>> m_byName;
+	private transient int m_indexedRenames;
+	private transient int m_indexedChanges;
+	private transient Map<Object, Object> m_attachments;
 }
@@ -1,7 +1,13 @@
 package sourceanalysis;
 
-import java.util.LinkedList;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Holds contained entities in a Container. Containers are:
@@ -23,8 +29,14 @@ import java.util.List;
  *  <li>Field - scope.fieldIterator()</li>
  *  <li>Group - scope.groupIterator()</li>
  * </ul>
+ * Members can also be looked up by name, using the lookup...() methods.
+ * These use an index of the members of each kind, which is built when the
+ * first lookup is made, and is kept up to date as members are added.
+ * <p>The members of each kind are kept in a MemberList, an array in the
+ * order they were added. The getters return that same list, as a read-only
+ * ConstCollection, on every call.</p>
  */
-public class Scope<Owner extends Entity> {
+public class Scope<Owner extends Entity> implements Serializable {
 
 	/**
 	 * Constructor for Scope.
@@ -37,14 +49,14 @@ public class Scope<Owner extends Entity> {
         m_owner = owner;
 
 		// Prepare empty lists for all slots
-		m_routines = new LinkedList<ContainedConnection<Owner, Routine>>();
-		m_fields = new LinkedList<ContainedConnection<Owner, Field>>();
-		m_aggregates = new LinkedList<ContainedConnection<Owner, Aggregate>>();
-		m_namespaces = new LinkedList<ContainedConnection<Owner, Namespace>>();
-		m_groups = new LinkedList<ContainedConnection<Owner, Group>>();
-		m_enums = new LinkedList<ContainedConnection<Owner, sourceanalysis.Enum>>();
-		m_aliases = new LinkedList<ContainedConnection<Owner, Alias>>();
-		m_friends = new LinkedList<FriendConnection>();
+		m_routines = new MemberList<ContainedConnection<Owner, Routine>>();
+		m_fields = new MemberList<ContainedConnection<Owner, Field>>();
+		m_aggregates = new MemberList<ContainedConnection<Owner, Aggregate>>();
+		m_namespaces = new MemberList<ContainedConnection<Owner, Namespace>>();
+		m_groups = new MemberList<ContainedConnection<Owner, Group>>();
+		m_enums = new MemberList<ContainedConnection<Owner, sourceanalysis.Enum>>();
+		m_aliases = new MemberList<ContainedConnection<Owner, Alias>>();
+		m_friends = new MemberList<FriendConnection>();
 	}
 
 	/** @name Push API
@@ -70,6 +82,8 @@ public class Scope<Owner extends Entity> {
 			new ContainedConnection<Owner, Routine>(m_owner, visibility, virtuality, storage, routine);
 		// Add connection to list of connected routines
 		m_routines.add(connection);
+		if (m_routinesByName != null) m_routinesByName.add(connection);
+		++m_changes;
 		// Connect member to the owner of this scope
 		mirrorRelationToMember(routine, connection);
 	}
@@ -91,6 +105,8 @@ public class Scope<Owner extends Entity> {
 			storage, field);
 		// Add connection to list of connected routines
 		m_fields.add(connection);
+		if (m_fieldsByName != null) m_fieldsByName.add(connection);
+		++m_changes;
 		// Connect member to the owner of this scope
 		mirrorRelationToMember(field, connection);
 	}
@@ -109,6 +125,8 @@ public class Scope<Owner extends Entity> {
 			Specifiers.DONT_CARE, inner);
 		// Add connection to list of connected aggregates
 		m_aggregates.add(connection);
+		if (m_aggregatesByName != null) m_aggregatesByName.add(connection);
+		++m_changes;
 		// Connect member to the owner of this scope
 		mirrorRelationToMember(inner, connection);
 	}
@@ -126,6 +144,8 @@ public class Scope<Owner extends Entity> {
 			Specifiers.DONT_CARE, enume);
 		// Add connection to list of connected enums
 		m_enums.add(connection);
+		if (m_enumsByName != null) m_enumsByName.add(connection);
+		++m_changes;
 		// Connect member to the owner of this scope
 		mirrorRelationToMember(enume, connection);
 	}
@@ -143,6 +163,8 @@ public class Scope<Owner extends Entity> {
 			Specifiers.DONT_CARE, alias);
 		// Add connection to list of connected aliases
 		m_aliases.add(connection);
+		if (m_aliasesByName != null) m_aliasesByName.add(connection);
+		++m_changes;
 		// Connect member to the owner of this scope
 		mirrorRelationToMember(alias, connection);
 	}
@@ -161,6 +183,8 @@ public class Scope<Owner extends Entity> {
 			Specifiers.DONT_CARE, Specifiers.DONT_CARE, inner);
 		// Add connection to list of connected inner namespaces
 		m_namespaces.add(connection);
+		if (m_namespacesByName != null) m_namespacesByName.add(connection);
+		++m_changes;
 		// Connect member to the owner of this scope
 		mirrorRelationToMember(inner, connection);
 	}
@@ -179,6 +203,8 @@ public class Scope<Owner extends Entity> {
 			Specifiers.DONT_CARE, Specifiers.DONT_CARE, group);
 		// Add connection to list of connected groups
 		m_groups.add(connection);
+		if (m_groupsByName != null) m_groupsByName.add(connection);
+		++m_changes;
 		// Connect member to the owner of this scope
 		mirrorRelationToMember(group, connection);
 	}
@@ -198,6 +224,68 @@ public class Scope<Owner extends Entity> {
 		mirrorRelationToMember(friend, connection);
 	}
 
+	/**
+	 * Withdraws members from the Scope. Members which are detached this way
+	 * lose their connection to the owner of the scope, so they may later be
+	 * admitted into another scope. Friend declarations of the given entities
+	 * are removed as well.
+	 * @param members entities to remove; entities which are not members of
+	 * this scope are ignored. Membership is checked with contains(), so
+	 * an identity-based collection is preferable.
+	 */
+	public void removeMembers(Collection<? extends Entity> members)
+	{
+		removeFrom(m_routines, members);
+		removeFrom(m_fields, members);
+		removeFrom(m_aggregates, members);
+		removeFrom(m_namespaces, members);
+		removeFrom(m_enums, members);
+		removeFrom(m_aliases, members);
+		removeFrom(m_groups, members);
+		int kept = 0;
+		for (int i = 0; i < m_friends.size(); ++i) {
+			FriendConnection connection = m_friends.get(i);
+			if (!members.contains(connection.getDeclared()))
+				m_friends.set(kept++, connection);
+		}
+		m_friends.truncate(kept);
+		dropIndex();
+		++m_changes;
+	}
+
+	/**
+	 * Puts an entity in place of an existing member, keeping the position
+	 * and specifiers of the original connection. The replacement must be of
+	 * the same class as the member it replaces. If 'member' is declared as
+	 * a friend, the friend declaration is replaced as well.
+	 * @param member an existing member of the scope
+	 * @param replacement the entity to take its place
+	 * @return <b>true</b> if 'member' was found and replaced
+	 */
+	public boolean replaceMember(Entity member, Entity replacement)
+	{
+		if (member.getClass() != replacement.getClass()) return false;
+		boolean replaced = replaceIn(m_routines, member, replacement)
+			| replaceIn(m_fields, member, replacement)
+			| replaceIn(m_aggregates, member, replacement)
+			| replaceIn(m_namespaces, member, replacement)
+			| replaceIn(m_enums, member, replacement)
+			| replaceIn(m_aliases, member, replacement)
+			| replaceIn(m_groups, member, replacement);
+		for (int i = 0; i < m_friends.size(); ++i) {
+			if (m_friends.get(i).getDeclared() == member) {
+				FriendConnection connection =
+					new FriendConnection(m_owner, replacement);
+				m_friends.set(i, connection);
+				mirrorRelationToMember(replacement, connection);
+				replaced = true;
+			}
+		}
+		dropIndex();
+		++m_changes;
+		return replaced;
+	}
+
 	/*@}*/
 
 
@@ -208,14 +296,22 @@ public class Scope<Owner extends Entity> {
 	 * or storage specifiers (when applicable).
 	 */
 	/*@{*/
-	
+
+	/**
+	 * Returns the entity which holds the Scope.
+	 * @return Owner the Aggregate or Namespace given at construction
+	 */
+	public Owner getOwner() {
+		return m_owner;
+	}
+
 	/**
 	 * Access routines contained in the Scope.
 	 * @return Iterator an iterator over ContainedConnection, referring to
 	 * each member routine in turn.
 	 */
 	public ConstCollection<ContainedConnection<Owner, Routine>> getRoutines() {
-		return new ConstCollection<ContainedConnection<Owner, Routine>>(m_routines);
+		return m_routines;
 	}
 
 	/**
@@ -224,7 +320,7 @@ public class Scope<Owner extends Entity> {
 	 * each member field in turn.
 	 */
 	public ConstCollection<ContainedConnection<Owner, Field>> getFields() {
-		return new ConstCollection<ContainedConnection<Owner, Field>>(m_fields);
+		return m_fields;
 	}
 	
 	/**
@@ -233,7 +329,7 @@ public class Scope<Owner extends Entity> {
 	 * each inner construct in turn.
 	 */
 	public ConstCollection<ContainedConnection<Owner, Aggregate>> getAggregates() {
-		return new ConstCollection<ContainedConnection<Owner, Aggregate>>(m_aggregates);
+		return m_aggregates;
 	}
 
 	/**
@@ -241,7 +337,7 @@ public class Scope<Owner extends Entity> {
 	 * @return Iterator an iterator over ContainedConnection.
 	 */
 	public ConstCollection<ContainedConnection<Owner, sourceanalysis.Enum>> getEnums() {
-		return new ConstCollection<ContainedConnection<Owner, sourceanalysis.Enum>>(m_enums);
+		return m_enums;
 	}
 
 	/**
@@ -249,7 +345,7 @@ public class Scope<Owner extends Entity> {
 	 * @return Iterator an iterator over ContainedConnection.
 	 */
 	public ConstCollection<ContainedConnection<Owner, Alias>> getAliass() {
-		return new ConstCollection<ContainedConnection<Owner, Alias>>(m_aliases);
+		return m_aliases;
 	}
 
 	/**
@@ -260,7 +356,7 @@ public class Scope<Owner extends Entity> {
 	 * each inner namespace in turn.
 	 */
 	public ConstCollection<ContainedConnection<Owner, Namespace>> getNamespaces() {
-		return new ConstCollection<ContainedConnection<Owner, Namespace>>(m_namespaces);
+		return m_namespaces;
 	}
 	
 	/**
@@ -272,7 +368,7 @@ public class Scope<Owner extends Entity> {
 	 * nested groups.
 	 */
 	public ConstCollection<ContainedConnection<Owner, Group>> getGroups() {
-		return new ConstCollection<ContainedConnection<Owner, Group>>(m_groups);
+		return m_groups;
 	}
 	
 	/**
@@ -280,7 +376,7 @@ public class Scope<Owner extends Entity> {
 	 * 
 	 */
 	public ConstCollection<FriendConnection> getFriends() {
-		return new ConstCollection<FriendConnection>(m_friends);
+		return m_friends;
 	}
 	
 	/**
@@ -292,18 +388,96 @@ public class Scope<Owner extends Entity> {
 	public Group groupByName(String groupName) throws ElementNotFoundException
 	{
         assert m_owner != null; // was burned by this before
-        for (ContainedConnection<Owner, Group> conn: m_groups) {
-			Group group = conn.getContained();
-			// Check name of group
-			if (group.getName().equals(groupName)) {
-				return group;
-			}
+        Iterator<ContainedConnection<Owner, Group>> found =
+        	lookupGroups(groupName).iterator();
+        if (found.hasNext()) {
+			return found.next().getContained();
 		}
 		// Group was not found		
 		throw new ElementNotFoundException("Group", 
 			m_owner.getName()+ ":" + groupName);
 	}
 	
+
+	/**
+	 * Finds routines in this Scope by name. Overloaded routines share the
+	 * same name, so there may be more than one.
+	 * @param name name of routine (not qualified)
+	 * @return the connections of the routines by that name, in the order
+	 * they were added; empty if there are none
+	 */
+	public ConstCollection<ContainedConnection<Owner, Routine>> lookupRoutines(String name) {
+		validateIndex();
+		if (m_routinesByName == null) m_routinesByName = new NameIndex<Owner, Routine>(m_routines);
+		return m_routinesByName.get(name);
+	}
+
+	/**
+	 * Finds fields in this Scope by name.
+	 * @param name name of field (not qualified)
+	 * @return the connections of the fields by that name
+	 */
+	public ConstCollection<ContainedConnection<Owner, Field>> lookupFields(String name) {
+		validateIndex();
+		if (m_fieldsByName == null) m_fieldsByName = new NameIndex<Owner, Field>(m_fields);
+		return m_fieldsByName.get(name);
+	}
+
+	/**
+	 * Finds classes, structs, and unions in this Scope by name.
+	 * @param name name of aggregate (not qualified)
+	 * @return the connections of the aggregates by that name
+	 */
+	public ConstCollection<ContainedConnection<Owner, Aggregate>> lookupAggregates(String name) {
+		validateIndex();
+		if (m_aggregatesByName == null) m_aggregatesByName = new NameIndex<Owner, Aggregate>(m_aggregates);
+		return m_aggregatesByName.get(name);
+	}
+
+	/**
+	 * Finds enumerated types in this Scope by name.
+	 * @param name name of enum (not qualified)
+	 * @return the connections of the enums by that name
+	 */
+	public ConstCollection<ContainedConnection<Owner, sourceanalysis.Enum>> lookupEnums(String name) {
+		validateIndex();
+		if (m_enumsByName == null) m_enumsByName = new NameIndex<Owner, sourceanalysis.Enum>(m_enums);
+		return m_enumsByName.get(name);
+	}
+
+	/**
+	 * Finds aliases in this Scope by name.
+	 * @param name name of alias (not qualified)
+	 * @return the connections of the aliases by that name
+	 */
+	public ConstCollection<ContainedConnection<Owner, Alias>> lookupAliases(String name) {
+		validateIndex();
+		if (m_aliasesByName == null) m_aliasesByName = new NameIndex<Owner, Alias>(m_aliases);
+		return m_aliasesByName.get(name);
+	}
+
+	/**
+	 * Finds inner namespaces in this Scope by name.
+	 * @param name name of namespace (not qualified)
+	 * @return the connections of the namespaces by that name
+	 */
+	public ConstCollection<ContainedConnection<Owner, Namespace>> lookupNamespaces(String name) {
+		validateIndex();
+		if (m_namespacesByName == null) m_namespacesByName = new NameIndex<Owner, Namespace>(m_namespaces);
+		return m_namespacesByName.get(name);
+	}
+
+	/**
+	 * Finds groups directly under this Scope by name.
+	 * @param name name of group
+	 * @return the connections of the groups by that name
+	 */
+	public ConstCollection<ContainedConnection<Owner, Group>> lookupGroups(String name) {
+		validateIndex();
+		if (m_groupsByName == null) m_groupsByName = new NameIndex<Owner, Group>(m_groups);
+		return m_groupsByName.get(name);
+	}
+	
 	/*@}*/		
 	
 	/** @name Protected Push API
@@ -339,19 +513,178 @@ public class Scope<Owner extends Entity> {
 	{
 		friend.connectToAffiliate(connection);
 	}
-	
+
+	/**
+	 * Undoes mirrorRelationToMember() for a member which is removed from
+	 * the scope. Only the container connection is reset, and only if it
+	 * still refers to this scope.
+	 * @param contained the member being removed
+	 * @param connection the connection which is removed from the scope
+	 */
+	protected void unmirrorRelationToMember(Entity contained,
+		ContainedConnection<Owner, ? extends Entity> connection)
+	{
+		if (contained.getContainerConnection() == connection)
+			contained.connectToContainer(
+				(ContainedConnection<Entity, Entity>)null);
+	}
+
+	private <Member extends Entity> void removeFrom(
+		MemberList<ContainedConnection<Owner, Member>> connections,
+		Collection<? extends Entity> members)
+	{
+		// - move the remaining connections down in one pass, rather than
+		//   shifting the list for every removal
+		int kept = 0;
+		for (int i = 0; i < connections.size(); ++i) {
+			ContainedConnection<Owner, Member> connection = connections.get(i);
+			if (members.contains(connection.getContained()))
+				unmirrorRelationToMember(connection.getContained(), connection);
+			else
+				connections.set(kept++, connection);
+		}
+		connections.truncate(kept);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <Member extends Entity> boolean replaceIn(
+		MemberList<ContainedConnection<Owner, Member>> connections,
+		Entity member, Entity replacement)
+	{
+		for (int i = 0; i < connections.size(); ++i) {
+			ContainedConnection<Owner, Member> old = connections.get(i);
+			if (old.getContained() == member) {
+				ContainedConnection<Owner, Member> connection =
+					new ContainedConnection<Owner, Member>(m_owner,
+						old.getVisibility(), old.getVirtuality(),
+						old.getStorage(), (Member)replacement);
+				connections.set(i, connection);
+				unmirrorRelationToMember(member, old);
+				mirrorRelationToMember(replacement, connection);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Releases the room reserved for members which were never added. Call
+	 * this once the scope is complete - e.g. at the end of the analysis -
+	 * to make it as compact as possible; members may still be added later.
+	 */
+	public void compact()
+	{
+		m_routines.trimToSize();
+		m_fields.trimToSize();
+		m_aggregates.trimToSize();
+		m_namespaces.trimToSize();
+		m_enums.trimToSize();
+		m_aliases.trimToSize();
+		m_groups.trimToSize();
+		m_friends.trimToSize();
+	}
+
+	/**
+	 * Returns the number of times members have been added to, removed from
+	 * or replaced in any scope, or bases added to any class, so that indexes
+	 * spanning several scopes can tell when they are out of date.
+	 */
+	public static int getChangeCount()
+	{
+		return m_changes;
+	}
+
+	/**
+	 * Counts a change which is not made through a Scope.
+	 */
+	static void countChange()
+	{
+		++m_changes;
+	}
+
+	/**
+	 * Discards the name index if any member was renamed since it was built.
+	 */
+	private void validateIndex()
+	{
+		if (m_indexedRenames != Entity.getRenameCount()) {
+			dropIndex();
+			m_indexedRenames = Entity.getRenameCount();
+		}
+	}
+
+	/**
+	 * Discards the name index, so that it is built again on the next lookup.
+	 */
+	private void dropIndex()
+	{
+		m_routinesByName = null;
+		m_fieldsByName = null;
+		m_aggregatesByName = null;
+		m_namespacesByName = null;
+		m_enumsByName = null;
+		m_aliasesByName = null;
+		m_groupsByName = null;
+	}
+
+	/**
+	 * Maps names to the members of one kind which have that name.
+	 */
+	private static class NameIndex<Owner extends Entity, Member extends Entity>
+	{
+		NameIndex(Iterable<ContainedConnection<Owner, Member>> connections)
+		{
+			m_byName = new HashMap<String, List<ContainedConnection<Owner, Member>>>();
+			for (ContainedConnection<Owner, Member> connection: connections) {
+				add(connection);
+			}
+		}
+
+		void add(ContainedConnection<Owner, Member> connection)
+		{
+			String name = connection.getContained().getName();
+			List<ContainedConnection<Owner, Member>> named = m_byName.get(name);
+			if (named == null) {
+				named = new ArrayList<ContainedConnection<Owner, Member>>(1);
+				m_byName.put(name, named);
+			}
+			named.add(connection);
+		}
+
+		ConstCollection<ContainedConnection<Owner, Member>> get(String name)
+		{
+			List<ContainedConnection<Owner, Member>> named = m_byName.get(name);
+			if (named == null) named = Collections.emptyList();
+			return new ConstCollection<ContainedConnection<Owner, Member>>(named);
+		}
+
+		private Map<String, List<ContainedConnection<Owner, Member>>> m_byName;
+	}
+
 	/*@}*/
 	
 	// Ownership - entity which holds this scope
 	private Owner m_owner;
 
 	// Private members - internal representation of Scope's contents
-	private List<ContainedConnection<Owner, Routine>> m_routines;
-	private List<ContainedConnection<Owner, Field>> m_fields;
-	private List<ContainedConnection<Owner, Aggregate>> m_aggregates;
-	private List<ContainedConnection<Owner, Namespace>> m_namespaces;
-	private List<ContainedConnection<Owner, sourceanalysis.Enum>> m_enums;
-	private List<ContainedConnection<Owner, Alias>> m_aliases;
-	private List<ContainedConnection<Owner, Group>> m_groups;
-	private List<FriendConnection> m_friends;
+	private MemberList<ContainedConnection<Owner, Routine>> m_routines;
+	private MemberList<ContainedConnection<Owner, Field>> m_fields;
+	private MemberList<ContainedConnection<Owner, Aggregate>> m_aggregates;
+	private MemberList<ContainedConnection<Owner, Namespace>> m_namespaces;
+	private MemberList<ContainedConnection<Owner, sourceanalysis.Enum>> m_enums;
+	private MemberList<ContainedConnection<Owner, Alias>> m_aliases;
+	private MemberList<ContainedConnection<Owner, Group>> m_groups;
+	private MemberList<FriendConnection> m_friends;
+
+	// Name index, built on demand
+	private transient NameIndex<Owner, Routine> m_routinesByName;
+	private transient NameIndex<Owner, Field> m_fieldsByName;
+	private transient NameIndex<Owner, Aggregate> m_aggregatesByName;
+	private transient NameIndex<Owner, Namespace> m_namespacesByName;
+	private transient NameIndex<Owner, sourceanalysis.Enum> m_enumsByName;
+	private transient NameIndex<Owner, Alias> m_aliasesByName;
+	private transient NameIndex<Owner, Group> m_groupsByName;
+	private transient int m_indexedRenames;
+
+	private static int m_changes = 0;
 }
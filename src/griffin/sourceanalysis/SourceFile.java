@@ -1,5 +1,7 @@
 package sourceanalysis;
 
+import java.io.Serializable;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,13 +17,13 @@ public class SourceFile extends Entity {
 	 * <p>A position is expressed by:</p>
 	 * <p><tt>(StartLine:StartColumn) - (EndLine:EndColumn)</tt></p>
 	 */
-	public static class Position {
+	public static class Position implements Serializable {
 
 		/**
 		 * Coordinate - undocumented. A simple record containing an X/Y
 		 * location in the source file - in the form of (Line:Column).
 		 */
-		public class Coordinate {
+		public class Coordinate implements Serializable {
 			public int line;
 			public int column;
 		};
@@ -58,7 +60,7 @@ public class SourceFile extends Entity {
 	/**
 	 * Expresses a declaration or a definition within a source file.
 	 */
-	public static class DeclDefConnection
+	public static class DeclDefConnection implements Serializable
 	{
 		/**
 		 * DeclDefConnection constructor. All the connection data must be
@@ -194,6 +196,25 @@ public class SourceFile extends Entity {
 		header.relateIncluded(this);
 	}
 	
+	/**
+	 * Forgets the declarations and definitions of some entities in this
+	 * file, e.g. when the entities are removed from the program.
+	 * @param entities entities whose connections are to be removed;
+	 * membership is checked with contains(), so an identity-based
+	 * collection is preferable
+	 */
+	public void removeConnections(Collection<? extends Entity> entities)
+	{
+		for (Iterator<DeclDefConnection> di = m_declarations.iterator();
+				di.hasNext(); ) {
+			if (entities.contains(di.next().getDeclaredEntity())) di.remove();
+		}
+		for (Iterator<DeclDefConnection> di = m_definitions.iterator();
+				di.hasNext(); ) {
+			if (entities.contains(di.next().getDefinedEntity())) di.remove();
+		}
+	}
+	
 	/*@}*/
 	
 	/**
@@ -244,6 +265,7 @@ public class SourceFile extends Entity {
 	public void setFullPath(String full)
 	{
 		m_fullPath = full;
+		namesChanged();
 	}
 	
 	/*@}*/
@@ -1,5 +1,6 @@
 package sourceanalysis;
 
+import java.io.Serializable;
 import java.util.Vector;
 
 /**
@@ -9,7 +10,7 @@ import java.util.Vector;
  * <p>For example: std::vector&lt;bool&gt; is a specialization of the general
  * template std::vector&lt;T&gt; with the specific arguments {bool}.
  */
-public class SpecializationConnection {
+public class SpecializationConnection implements Serializable {
 
 	/**
 	 * Constructor for SpecializationConnection. All the information about
@@ -1,5 +1,7 @@
 package sourceanalysis;
 
+import java.io.Serializable;
+
 /**
  * Represents an argument for a template. These fill the blanks of template
  * parameters and can be either:
@@ -8,7 +10,7 @@ package sourceanalysis;
  *  <li>Type names - fill in TypeNameParameters</li>
  * </ul>
  */
-public abstract class TemplateArgument {
+public abstract class TemplateArgument implements Serializable {
 
 	/**
 	 * Formats value as a C++-readable expression.
@@ -54,6 +54,7 @@ public abstract class TemplateEnabledEntity extends Entity {
 	private void setGeneralTemplateForSpecialization(SpecializationConnection connection)
 	{
 		m_general4specialization = connection;
+		namesChanged();
 	}
 
 	/*@}*/
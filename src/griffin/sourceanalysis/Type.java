@@ -1,14 +1,17 @@
 package sourceanalysis;
 
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Vector;
 
 import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
-import javax.swing.tree.MutableTreeNode;
 import javax.swing.tree.TreeNode;
 
 /**
@@ -21,8 +24,11 @@ import javax.swing.tree.TreeNode;
  * most types seen in C/C++ programs are quite flat, and for that reason
  * there is also a "flat API" which is less powerful but far more straight-
  * forward.</p>
+ * <p>Types are immutable: the nodes of the tree are frozen when the Type
+ * is created, and structurally equal trees share the same nodes. Two types
+ * are therefore equal if and only if they have the same root node.</p>
  */
-public class Type extends DefaultTreeModel {
+public class Type implements Serializable {
 	
 	public static interface BaseTypeFormatter
 	{
@@ -120,11 +126,14 @@ public class Type extends DefaultTreeModel {
 	 *  <li>DefaultMutableTreeNode with TemplateArgument-s if
 	 *   kind==NODE_TEMPLATE_INSTANTIATION</li>
 	 * </ul>
+	 * <p>A node is built by adding children and C-V qualifiers to it. Once
+	 * it is made part of a Type it is frozen, and all the structurally equal
+	 * nodes are replaced by a single shared instance; for this reason a
+	 * node does not know its parent. Use clone() or withCV() to derive a
+	 * modifiable node from a frozen one.</p>
 	 */
-	public static class TypeNode extends DefaultMutableTreeNode
+	public static class TypeNode implements TreeNode, Cloneable, Serializable
 	{
-		private static final long serialVersionUID = -2800000812822467645L;
-
 		public static final int NODE_LEAF = 0;
 		public static final int NODE_POINTER = 1;
 		public static final int NODE_REFERENCE = 2;
@@ -146,6 +155,7 @@ public class Type extends DefaultTreeModel {
 		{
 			m_kind = kind;
 			m_cvQualifiers = Specifiers.CVQualifiers.NONE;
+			m_children = NO_CHILDREN;
 		}
 
 		/**
@@ -158,18 +168,57 @@ public class Type extends DefaultTreeModel {
 			m_kind = NODE_LEAF;
 			m_base = base;
 			m_cvQualifiers = Specifiers.CVQualifiers.NONE;
+			m_children = NO_CHILDREN;
 		}
 
 		/**
 		 * Sets the C-V qualifiers of the type denoted by this node.
 		 * @param cv qualifier flags taken from Specifiers.CVQualifiers
 		 * (value is or-ed with previously set CV flags).
+		 * @throws IllegalStateException if the node is frozen
 		 */
 		public void setCV(int cv)
 		{
+			checkModifiable();
 			m_cvQualifiers |= cv;
 		}
 
+		/**
+		 * Returns a node which is the same as this one, except that it has
+		 * some additional C-V qualifiers.
+		 * @param cv qualifier flags taken from Specifiers.CVQualifiers
+		 * @return TypeNode <b>this</b> if all the flags are already set;
+		 * otherwise, a modifiable copy of this node with the flags set.
+		 */
+		public TypeNode withCV(int cv)
+		{
+			if ((m_cvQualifiers | cv) == m_cvQualifiers) return this;
+			TypeNode qualified = clone();
+			qualified.m_cvQualifiers |= cv;
+			return qualified;
+		}
+
+		/**
+		 * Adds a subnode after the existing ones.
+		 * @param child a TypeNode, or a DefaultMutableTreeNode holding an
+		 * array dimension or a template argument. Frozen nodes may be added
+		 * to any number of parents.
+		 * @throws IllegalStateException if the node is frozen, or if it is
+		 * a leaf
+		 */
+		public void add(TreeNode child)
+		{
+			checkModifiable();
+			if (child == null)
+				throw new IllegalArgumentException("new child is null");
+			if (!getAllowsChildren())
+				throw new IllegalStateException("node does not allow children");
+			TreeNode[] children = new TreeNode[m_children.length + 1];
+			System.arraycopy(m_children, 0, children, 0, m_children.length);
+			children[m_children.length] = child;
+			m_children = children;
+		}
+
 		/**
 		 * Returns the kind of this node.
 		 * @return int one of the NODE_* constants defined in this class
@@ -215,14 +264,90 @@ public class Type extends DefaultTreeModel {
 			return (getCV() & qualifier) != 0;
 		}
 
+		/**
+		 * Checks whether the node can no longer be modified; this is the
+		 * case for all the nodes of a Type.
+		 * @return boolean frozen flag
+		 */
+		public boolean isFrozen()
+		{
+			return m_frozen;
+		}
+
 		/**
 		 * Returns <b>true</b> if the kind of this node is not NODE_LEAF.
 		 * @see javax.swing.tree.TreeNode#getAllowsChildren()
 		 */
-		@Override
 		public boolean getAllowsChildren() {
 			return (m_kind != NODE_LEAF);
 		}
+
+		/**
+		 * @see javax.swing.tree.TreeNode#getChildAt(int)
+		 */
+		public TreeNode getChildAt(int index) {
+			return m_children[index];
+		}
+
+		/**
+		 * @see javax.swing.tree.TreeNode#getChildCount()
+		 */
+		public int getChildCount() {
+			return m_children.length;
+		}
+
+		/**
+		 * Returns the first subnode.
+		 * @throws NoSuchElementException if the node has no children
+		 */
+		public TreeNode getFirstChild() {
+			if (m_children.length == 0)
+				throw new NoSuchElementException("node has no children");
+			return m_children[0];
+		}
+
+		/**
+		 * Always returns <b>null</b>, since nodes may be shared between
+		 * several trees.
+		 * @see javax.swing.tree.TreeNode#getParent()
+		 */
+		public TreeNode getParent() {
+			return null;
+		}
+
+		/**
+		 * @see javax.swing.tree.TreeNode#getIndex(TreeNode)
+		 */
+		public int getIndex(TreeNode node) {
+			for (int i = 0; i < m_children.length; ++i) {
+				if (m_children[i] == node) return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * @see javax.swing.tree.TreeNode#isLeaf()
+		 */
+		public boolean isLeaf() {
+			return m_children.length == 0;
+		}
+
+		/**
+		 * @see javax.swing.tree.TreeNode#children()
+		 */
+		public Enumeration<TreeNode> children() {
+			return new Enumeration<TreeNode>() {
+				public boolean hasMoreElements() {
+					return m_next < m_children.length;
+				}
+				public TreeNode nextElement() {
+					if (m_next >= m_children.length)
+						throw new NoSuchElementException();
+					return m_children[m_next++];
+				}
+				private int m_next = 0;
+			};
+		}
 		
 		/**
 		 * Represents this type using an algebraic notation:
@@ -230,7 +355,6 @@ public class Type extends DefaultTreeModel {
 		 * @return String textual representation
 		 */
 		@Override
-		@SuppressWarnings("unchecked")
 		public String toString()
 		{
 			StringBuffer sb = new StringBuffer();
@@ -247,9 +371,9 @@ public class Type extends DefaultTreeModel {
 				// Prepare a string with the children's representations,
 				// comma-delimited
 				StringBuffer ab = new StringBuffer();
-				for (Enumeration cen = children(); cen.hasMoreElements(); ) {
+				for (TreeNode child: m_children) {
 					if (ab.length() > 0) ab.append(',');
-					ab.append(cen.nextElement().toString());
+					ab.append(child.toString());
 				}
 				// Get literal for kind and add it before arguments
 				String[] literal = { "leaf", "pointer", "reference", "array", "function",
@@ -268,7 +392,6 @@ public class Type extends DefaultTreeModel {
 		 * class-names involved in the type expression
 		 * @return String textual representation.
 		 */
-		@SuppressWarnings("unchecked")
 		public String formatCpp(String declname, BaseTypeFormatter baseFormatter)
 		{
 			StringBuffer sb = new StringBuffer();
@@ -303,17 +426,16 @@ public class Type extends DefaultTreeModel {
 			else if (getKind() == NODE_TEMPLATE_INSTANTIATION) {
 				sb.append(cv.toString());
 				// Show base
-				Enumeration cen = children();
-				TypeNode basenode = (TypeNode)cen.nextElement();
+				TypeNode basenode = (TypeNode)m_children[0];
 				sb.append(basenode.formatCpp("", baseFormatter));
 				// Prepare a string with the children's representations,
 				// comma-delimited
-				List children = new LinkedList();
-				while (cen.hasMoreElements()) {
+				List<TemplateArgument> children = new LinkedList<TemplateArgument>();
+				for (int childi = 1; childi < m_children.length; ++childi) {
 					// Get user object of child and add it to list
 					DefaultMutableTreeNode element = 
-						(DefaultMutableTreeNode)cen.nextElement();
-					children.add(element.getUserObject());
+						(DefaultMutableTreeNode)m_children[childi];
+					children.add((TemplateArgument)element.getUserObject());
 				}
 				formatTemplateArguments(children, sb, baseFormatter);
 				if (declname.length() > 0) sb.append(" " + declname);
@@ -368,76 +490,298 @@ public class Type extends DefaultTreeModel {
 		/**
 		 * Assigns "filltype" to any blank location.
 		 * @param filltype value to fill in blanks
-		 * @return TypeNode a normal form, may be <b>this</b>.
+		 * @return TypeNode a normal form, may be <b>this</b>. Frozen nodes
+		 * are copied rather than modified.
 		 */
-		@SuppressWarnings("unchecked")
 		private TypeNode normalize(TypeNode filltype)
 		{
 			if (getKind() == NODE_X_BLANK) {
 				return filltype;
 			}
 			else {
+				TypeNode normalized = this;
 				// Normalize all children
-				for (int childi = 0; childi < children.size(); ++childi) {
-					Object child = children.get(childi);
+				for (int childi = 0; childi < m_children.length; ++childi) {
+					TreeNode child = m_children[childi];
 					// Replace child with normalized child
 					if (child instanceof TypeNode) {
 						TypeNode normal = ((TypeNode)child).normalize(filltype);
-						if (normal != child)
-							children.set(childi, normal);
+						if (normal != child) {
+							if (normalized.m_frozen) normalized = clone();
+							normalized.m_children[childi] = normal;
+						}
 					}
 				}
-				return this;
+				return normalized;
 			}
 		}
 		
-		/* (non-Javadoc)
+		/**
+		 * Compares the whole trees rooted at the two nodes. Shared nodes
+		 * are only equal to themselves, so comparing two of them takes a
+		 * reference comparison.
 		 * @see java.lang.Object#equals(Object)
 		 */
 		@Override
 		public boolean equals(Object other)
 		{
+			if (other == this) return true;
 			if (!(other instanceof TypeNode)) {
 				return false;
 			}
 			
 			TypeNode othernode = (TypeNode)other;
-			return (othernode.m_base == m_base) &&
-			        (othernode.m_kind == m_kind) &&
-					(othernode.m_cvQualifiers == m_cvQualifiers);
+			if (m_canonical && othernode.m_canonical) return false;
+			return NodeTable.same(this, othernode);
 		}
 		
-		/* (non-Javadoc)
+		/**
+		 * Returns a hash of the whole tree rooted at this node. It is
+		 * computed once for shared nodes, when they are frozen.
 		 * @see java.lang.Object#hashCode()
 		 */
 		@Override
 		public int hashCode() {
-			int hash = Integer.toString(m_kind).hashCode();
-			hash += Integer.toString(m_cvQualifiers).hashCode(); 
-			if (m_base != null) hash += m_base.hashCode();
-			return hash;
+			return m_canonical ? m_hash : NodeTable.hash(this);
 		}
 
-		@SuppressWarnings("unchecked")
+		/**
+		 * Creates a modifiable copy of the node. Frozen subnodes are shared
+		 * with the copy; the others are copied as well.
+		 */
 		@Override
 		public TypeNode clone() {
 			TypeNode replica = new TypeNode(m_kind);
 			replica.m_base = m_base;
 			replica.m_cvQualifiers = m_cvQualifiers;
-			Enumeration cen = children();
-			while (cen.hasMoreElements()) {
-				replica.add((MutableTreeNode)
-						((DefaultMutableTreeNode)cen.nextElement()).clone());
+			if (m_children.length > 0) {
+				replica.m_children = m_children.clone();
+				if (!m_frozen) {
+					for (int childi = 0; childi < m_children.length; ++childi) {
+						TreeNode child = m_children[childi];
+						if (child instanceof TypeNode)
+							replica.m_children[childi] = ((TypeNode)child).clone();
+						else if (child instanceof DefaultMutableTreeNode)
+							replica.m_children[childi] = (TreeNode)
+								((DefaultMutableTreeNode)child).clone();
+					}
+				}
 			}
 			return replica;
 		}
+
+		private void checkModifiable()
+		{
+			if (m_frozen)
+				throw new IllegalStateException("type-node is frozen");
+		}
 		
 		// Private members
 		int m_kind;
 		Entity m_base;   // base type, can be Aggregate, Enum or Alias
 		int m_cvQualifiers;
+		TreeNode[] m_children;
+		boolean m_frozen;
+		// Set for the shared instance, which is found in Type.m_nodes;
+		// nodes read from a snapshot have to be looked up again
+		transient boolean m_canonical;
+		transient int m_hash;
 
-		
+		private static final TreeNode[] NO_CHILDREN = new TreeNode[0];
+	}
+
+	/**
+	 * Holds the shared instances of all the type-nodes in use. Two nodes are
+	 * the same if they have the same kind, base and C-V qualifiers, and their
+	 * children are the same: the shared instances of TypeNode children are
+	 * compared by identity, and the values of other children by contents
+	 * (template arguments are assumed not to change once they are part of a
+	 * type). Nodes are held by weak references, so that types which are no
+	 * longer in use are left to the garbage collector.
+	 */
+	private static class NodeTable
+	{
+		NodeTable()
+		{
+			m_buckets = new Entry[INITIAL_CAPACITY];
+			m_queue = new ReferenceQueue<TypeNode>();
+		}
+
+		/**
+		 * Freezes a node and its subnodes, and finds the shared instance
+		 * which is equal to it.
+		 * @param node root of a type-expression tree
+		 * @return TypeNode the shared instance - which is <b>node</b> itself
+		 * if no equal node is in use
+		 */
+		synchronized TypeNode intern(TypeNode node)
+		{
+			if (node.m_canonical) return node;
+			node.m_frozen = true;
+			TreeNode[] children = node.m_children;
+			for (int childi = 0; childi < children.length; ++childi) {
+				if (children[childi] instanceof TypeNode)
+					children[childi] = intern((TypeNode)children[childi]);
+			}
+			int hash = hash(node);
+			purge();
+			for (Entry entry = m_buckets[hash & (m_buckets.length - 1)];
+					entry != null; entry = entry.m_next) {
+				TypeNode shared = entry.get();
+				if (entry.m_hash == hash && shared != null && same(node, shared))
+					return shared;
+			}
+			node.m_hash = hash;
+			node.m_canonical = true;
+			if (++m_size > m_buckets.length) rehash();
+			int bucket = hash & (m_buckets.length - 1);
+			m_buckets[bucket] = new Entry(node, m_queue, m_buckets[bucket]);
+			return node;
+		}
+
+		/**
+		 * Returns the number of shared nodes currently held.
+		 */
+		synchronized int size()
+		{
+			purge();
+			return m_size;
+		}
+
+		private static int hash(TypeNode node)
+		{
+			int hash = (node.m_kind * 31 + node.m_cvQualifiers) * 31
+				+ System.identityHashCode(node.m_base);
+			for (TreeNode child: node.m_children) {
+				hash *= 31;
+				if (child instanceof TypeNode)
+					hash += child.hashCode();
+				else if (child instanceof DefaultMutableTreeNode) {
+					Object value = ((DefaultMutableTreeNode)child).getUserObject();
+					if (value instanceof DataTemplateArgument)
+						value = ((DataTemplateArgument)value).getValueString();
+					else if (value instanceof TypenameTemplateArgument)
+						value = ((TypenameTemplateArgument)value).getValue()
+							.getRootNode();
+					if (value instanceof TypeNode)
+						hash += value.hashCode();
+					else if (value instanceof TemplateArgument)
+						hash += System.identityHashCode(value);
+					else if (value != null)
+						hash += value.hashCode();
+				}
+			}
+			return hash;
+		}
+
+		private static boolean same(TypeNode first, TypeNode second)
+		{
+			if (first.m_kind != second.m_kind 
+					|| first.m_cvQualifiers != second.m_cvQualifiers
+					|| first.m_base != second.m_base
+					|| first.m_children.length != second.m_children.length)
+				return false;
+			for (int childi = 0; childi < first.m_children.length; ++childi) {
+				TreeNode firstChild = first.m_children[childi];
+				TreeNode secondChild = second.m_children[childi];
+				if (firstChild instanceof TypeNode) {
+					if (!firstChild.equals(secondChild)) return false;
+				}
+				else if (secondChild instanceof TypeNode) return false;
+				else if (!sameValue(
+						((DefaultMutableTreeNode)firstChild).getUserObject(),
+						((DefaultMutableTreeNode)secondChild).getUserObject()))
+					return false;
+			}
+			return true;
+		}
+
+		private static boolean sameValue(Object first, Object second)
+		{
+			if (first == second) return true;
+			if (first instanceof DataTemplateArgument 
+					&& second instanceof DataTemplateArgument) {
+				String value = ((DataTemplateArgument)first).getValueString();
+				return value != null && value.equals(
+						((DataTemplateArgument)second).getValueString());
+			}
+			else if (first instanceof TypenameTemplateArgument
+					&& second instanceof TypenameTemplateArgument) {
+				return ((TypenameTemplateArgument)first).getValue()
+					.getRootNode() == ((TypenameTemplateArgument)second)
+					.getValue().getRootNode();
+			}
+			else if (first instanceof TemplateArgument || first == null)
+				return false;
+			else
+				return first.equals(second);
+		}
+
+		private void rehash()
+		{
+			Entry[] buckets = new Entry[m_buckets.length * 2];
+			for (Entry entry: m_buckets) {
+				while (entry != null) {
+					Entry next = entry.m_next;
+					int bucket = entry.m_hash & (buckets.length - 1);
+					entry.m_next = buckets[bucket];
+					buckets[bucket] = entry;
+					entry = next;
+				}
+			}
+			m_buckets = buckets;
+		}
+
+		/**
+		 * Removes the entries of nodes which were collected.
+		 */
+		private void purge()
+		{
+			for (Reference<? extends TypeNode> collected;
+					(collected = m_queue.poll()) != null; ) {
+				Entry dead = (Entry)collected;
+				int bucket = dead.m_hash & (m_buckets.length - 1);
+				Entry prev = null;
+				for (Entry entry = m_buckets[bucket]; entry != null;
+						prev = entry, entry = entry.m_next) {
+					if (entry == dead) {
+						if (prev == null) m_buckets[bucket] = entry.m_next;
+						else prev.m_next = entry.m_next;
+						--m_size;
+						break;
+					}
+				}
+			}
+		}
+
+		private static class Entry extends WeakReference<TypeNode>
+		{
+			Entry(TypeNode node, ReferenceQueue<TypeNode> queue, Entry next)
+			{
+				super(node, queue);
+				m_hash = node.m_hash;
+				m_next = next;
+			}
+
+			int m_hash;
+			Entry m_next;
+		}
+
+		private static final int INITIAL_CAPACITY = 1024;
+
+		private Entry[] m_buckets;
+		private ReferenceQueue<TypeNode> m_queue;
+		private int m_size;
+	}
+
+	/**
+	 * Returns the number of distinct type-nodes currently in use by all the
+	 * types.
+	 * @return int count of shared nodes
+	 */
+	public static int getSharedNodeCount()
+	{
+		return m_nodes.size();
 	}
 
 
@@ -448,24 +792,18 @@ public class Type extends DefaultTreeModel {
 	 */
 	public Type(TypeNode root)
 	{
-		super((root != null) ? root : new DefaultMutableTreeNode());
-		m_isEmpty = (root == null);
+		m_root = (root != null) ? m_nodes.intern(root) : null;
 	}
 	
 	/**
-	 * Returns the root node of the tree just like DefaultMutableTree, with
-	 * one difference - the tree may be empty, in which case the return value
-	 * is <b>null</b>.
+	 * Returns the root node of the tree. The tree may be empty, in which
+	 * case the return value is <b>null</b>.
 	 * @return Object a node object which functions as the root, or
 	 * <b>null</b> if the type expression tree is empty.
-	 * @note some JDKs do not allow DefaultTreeModel to be empty and
-	 * throw an error when it's created with a null root. This is the main
-	 * reason for the existance of this extension. 
 	 */
-	@Override
 	public Object getRoot()
 	{
-		return m_isEmpty ? null : super.getRoot();
+		return getRootNode();
 	}
 	
 	/**
@@ -474,7 +812,10 @@ public class Type extends DefaultTreeModel {
 	 */
 	public TypeNode getRootNode()
 	{
-		return (TypeNode)getRoot();
+		// Types read from a snapshot find their shared nodes on first use
+		if (m_root != null && !m_root.m_canonical)
+			m_root = m_nodes.intern(m_root);
+		return m_root;
 	}
 	
 	/**
@@ -537,7 +878,7 @@ public class Type extends DefaultTreeModel {
 	 */
 	public void normalize()
 	{
-		this.setRoot(((TypeNode)getRoot()).normalize());
+		m_root = m_nodes.intern(getRootNode().normalize());
 	}
 	
 	/**
@@ -873,7 +1214,8 @@ public class Type extends DefaultTreeModel {
 	 * node which is calculated from the original.   
 	 * @param type type expression to transform
 	 * @param transformation the replacement to be done in the type expression
-	 * @return transformed type expression
+	 * @return transformed type expression, or <i>type</i> itself if
+	 * nothing in it was replaced
 	 * @throws InappropriateKindException if the type expression is internally
 	 * broken
 	 */
@@ -883,7 +1225,8 @@ public class Type extends DefaultTreeModel {
 		if (type.getRoot() == null)
 			return type;
 		else
-			return new Type(transformType(type.getRootNode(), transformation));	
+			return unlessSame(type,
+					transformType(type.getRootNode(), transformation));
 	}
 	
 	/**
@@ -895,7 +1238,8 @@ public class Type extends DefaultTreeModel {
 	 * node which is calculated from the original.   
 	 * @param type type expression to transform
 	 * @param transformation the replacement to be done in the type expression
-	 * @return transformed type expression
+	 * @return transformed type expression, or <i>type</i> itself if
+	 * nothing in it was replaced
 	 * @throws InappropriateKindException if the type expression is internally
 	 * broken
 	 */
@@ -905,7 +1249,20 @@ public class Type extends DefaultTreeModel {
 		if (type.getRoot() == null)
 			return type;
 		else
-			return new Type(transformType(type.getRootNode(), transformation));	
+			return unlessSame(type,
+					transformType(type.getRootNode(), transformation));
+	}
+
+	/**
+	 * Wraps a transformed type-expression. Equal trees share their interned
+	 * root, so if the transformation did not replace anything the original
+	 * Type is returned instead of a new one.
+	 */
+	private static Type unlessSame(Type type, Type.TypeNode root)
+	{
+		Type transformed = new Type(root);
+		return (transformed.getRootNode() == type.getRootNode())
+			? type : transformed;
 	}
 
 	/*@}*/
@@ -932,9 +1289,14 @@ public class Type extends DefaultTreeModel {
 		if(first == second) {
 			return true;
 		}
+		// an empty type (e.g. in a typedef) is only equal to another one
+		if(first == null || second == null) {
+			return false;
+		}
 		
 		// base type, kind and and qualifiers are the same
-		if(first.equals(second)) {
+		if(first.m_base == second.m_base && first.m_kind == second.m_kind
+				&& first.m_cvQualifiers == second.m_cvQualifiers) {
 			if(first.getChildCount() != second.getChildCount()) {
 				return false;
 			} else {
@@ -978,7 +1340,7 @@ public class Type extends DefaultTreeModel {
 		try {
 			Entity firstBase = first.getBase();
 			// if firstBase is not Alias, it's not equal at all - basic types
-			// were compared before by TypeNode.equals()
+			// were compared before
 			if(!(firstBase instanceof Alias) ) {
 				return false;
 			}
@@ -991,7 +1353,7 @@ public class Type extends DefaultTreeModel {
 		try {
 			Entity secondBase = second.getBase();
 			// if secondBase is not Alias, it's not equal at all - basic types
-			// were compared before by TypeNode.equals()
+			// were compared before
 			if(!(secondBase instanceof Alias) ) {
 				return false;
 			}
@@ -1018,7 +1380,8 @@ public class Type extends DefaultTreeModel {
 	private boolean compareTypenodeUserObjects(Object first, Object second, boolean expandTypedefs) {
 		if(first instanceof TemplateArgument && second instanceof TemplateArgument) {
 			if(first instanceof DataTemplateArgument && second instanceof DataTemplateArgument) {
-				return ((DataTemplateArgument)first).getValueString().equals(((DataTemplateArgument)second).getValueString());
+				String firstValue = ((DataTemplateArgument)first).getValueString();
+				return firstValue != null && firstValue.equals(((DataTemplateArgument)second).getValueString());
 
 			} else if(first instanceof TypenameTemplateArgument && second instanceof TypenameTemplateArgument) {
 				Type firstChildType = ((TypenameTemplateArgument)first).getValue();
@@ -1029,7 +1392,7 @@ public class Type extends DefaultTreeModel {
 				return false;
 			}
 		} else {
-			return first.equals(second);
+			return first != null && first.equals(second);
 		}
 	}
 
@@ -1041,16 +1404,12 @@ public class Type extends DefaultTreeModel {
 	 * @return boolean <b>true</b> if they are compatible as per the above definition
 	 */
 	public boolean isCompatible(Type other, boolean expandTypedefs) {
-				
-		try {
-			return equalTypenodes(getRootNode(), other.getRootNode(), expandTypedefs);
-		}
-		catch (NullPointerException e) {
-			return false;
-		}
-		
-		
-		
+		TypeNode root = getRootNode();
+		TypeNode otherRoot = other.getRootNode();
+		// Equal type-expressions share their nodes
+		if (root == otherRoot) return true;
+		if (root == null || otherRoot == null || !expandTypedefs) return false;
+		return equalTypenodes(root, otherRoot, expandTypedefs);
 	}
 	
 	/**
@@ -1063,38 +1422,31 @@ public class Type extends DefaultTreeModel {
 			return false;
 		}
 		
-		Type othertype = (Type)other;
-		try {
-			 return isCompatible(othertype, false);
-		}
-		catch (NullPointerException e) {
-			return false;
-		}
+		// Equal type-expressions share their nodes
+		return getRootNode() == ((Type)other).getRootNode();
 	}
 	
 	/**
+	 * Returns the hash of the type-expression tree, which is computed once
+	 * when the type is created.
 	 * @see java.lang.Object#hashCode()
 	 */
 	@Override
 	public int hashCode() {
-		int hash = Boolean.toString(m_isEmpty).hashCode();
-		if(root != null) hash += root.hashCode();
-		return hash;
+		TypeNode root = getRootNode();
+		return (root == null) ? 0 : root.hashCode();
 	}
 	
 	/*@}*/
 	
 	/* Members */
-	private boolean m_isEmpty;
+	private TypeNode m_root;
+
+	private static final NodeTable m_nodes = new NodeTable();
 	
 	static BaseTypeFormatter SIMPLE_TYPE_FORMATTER
 		= new BaseTypeFormatter() {
 					public String formatBase(Entity e) { return e.getFullName(); }
 				};
 
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = 7933970838007178238L;
-
 }
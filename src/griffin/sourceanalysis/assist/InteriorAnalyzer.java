@@ -556,18 +556,12 @@ public class InteriorAnalyzer {
 	private static Entity findContainer(Scope<? extends Entity> inside, String name)
 	{
 		// Search for classes
-		for (ContainedConnection<? extends Entity, Aggregate> connection: inside.getAggregates()) {
-			Aggregate aggregate = connection.getContained();
-			if (aggregate.getName().equals(name)) {
-				return aggregate;
-			}
+		for (ContainedConnection<? extends Entity, Aggregate> connection: inside.lookupAggregates(name)) {
+			return connection.getContained();
 		}
 		// Search for namespaces
-		for (ContainedConnection<? extends Entity, Namespace> connection: inside.getNamespaces()) {
-			Namespace ns = connection.getContained();
-			if (ns.getName().equals(name)) {
-				return ns;
-			}
+		for (ContainedConnection<? extends Entity, Namespace> connection: inside.lookupNamespaces(name)) {
+			return connection.getContained();
 		}
 		// Not found
 		return null;
@@ -0,0 +1,123 @@
+package sourceanalysis.dox;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import sourceanalysis.Entity;
+import sourceanalysis.SourceFile;
+
+/**
+ * Records how a program database was built from the Doxygen(r) XML input,
+ * so that a later analysis of a slightly modified input can re-translate
+ * only the documents that changed.
+ * <p>For every compound document, the history keeps the digest of the file
+ * contents, the entities registered while translating it, and the other
+ * documents it referred to. Documents are the unit of change: when a
+ * document is modified, it is translated again along with every document
+ * which referred to it, and the previous program database is patched.</p>
+ * <p>A history is obtained from DoxygenAnalyzer.getHistory() after an
+ * analysis, and is passed to DoxygenAnalyzer.processIndex(ProgramDatabase,
+ * AnalysisHistory) together with the program database it describes. It is
+ * normally stored alongside the program database in a
+ * ProgramDatabaseSnapshot.</p>
+ */
+public class AnalysisHistory implements Serializable {
+
+	/**
+	 * Constructor for AnalysisHistory. The maps are kept by reference.
+	 * @param digests document name to content digest
+	 * @param subscriptions registry id to translated entity
+	 * @param owners registry id to the name of the document which was
+	 *   being translated when the entity was registered
+	 * @param references document name to the names of the documents it
+	 *   referred to
+	 * @param contributions document name to entities which were not
+	 *   registered but were placed directly in the global scope as a result
+	 *   of translating the document (global functions, variables, friends)
+	 * @param globalNames entities known by name to the analyzer
+	 * @param files source files by name
+	 */
+	AnalysisHistory(Map<String, String> digests,
+			Map<String, Entity> subscriptions, Map<String, String> owners,
+			Map<String, Set<String>> references,
+			Map<String, List<Entity>> contributions,
+			Map<String, Entity> globalNames, Map<String, SourceFile> files)
+	{
+		m_digests = digests;
+		m_subscriptions = subscriptions;
+		m_owners = owners;
+		m_references = references;
+		m_contributions = contributions;
+		m_globalNames = globalNames;
+		m_files = files;
+	}
+
+	/**
+	 * Finds the documents which are different in the current input.
+	 * @param digests digests of the documents in the current input, as
+	 *   returned by DocumentComponentRegistry.digestDocuments()
+	 * @return Set names of documents which were modified, added or removed
+	 */
+	public Set<String> changedDocuments(Map<String, String> digests)
+	{
+		Set<String> changed = new HashSet<String>();
+		for (Map.Entry<String, String> document: digests.entrySet()) {
+			if (!document.getValue().equals(m_digests.get(document.getKey())))
+				changed.add(document.getKey());
+		}
+		for (String document: m_digests.keySet()) {
+			if (!digests.containsKey(document))
+				changed.add(document);
+		}
+		return changed;
+	}
+
+	/**
+	 * Finds the documents which have to be translated again because of
+	 * changes in other documents: the changed documents themselves, and
+	 * every document that referred to one of them.
+	 * @param changed names of changed documents
+	 * @return Set names of affected documents
+	 */
+	public Set<String> affectedDocuments(Set<String> changed)
+	{
+		Set<String> affected = new HashSet<String>(changed);
+		for (Map.Entry<String, Set<String>> referrer: m_references.entrySet()) {
+			for (String document: referrer.getValue()) {
+				if (changed.contains(document)) {
+					affected.add(referrer.getKey());
+					break;
+				}
+			}
+		}
+		return affected;
+	}
+
+	/**
+	 * Returns the number of documents recorded.
+	 * @return int number of XML documents in the input
+	 */
+	public int getDocumentCount()
+	{
+		return m_digests.size();
+	}
+
+	Map<String, String> getDigests() { return m_digests; }
+	Map<String, Entity> getSubscriptions() { return m_subscriptions; }
+	Map<String, String> getOwners() { return m_owners; }
+	Map<String, Set<String>> getReferences() { return m_references; }
+	Map<String, List<Entity>> getContributions() { return m_contributions; }
+	Map<String, Entity> getGlobalNames() { return m_globalNames; }
+	Map<String, SourceFile> getFiles() { return m_files; }
+
+	private Map<String, String> m_digests;
+	private Map<String, Entity> m_subscriptions;
+	private Map<String, String> m_owners;
+	private Map<String, Set<String>> m_references;
+	private Map<String, List<Entity>> m_contributions;
+	private Map<String, Entity> m_globalNames;
+	private Map<String, SourceFile> m_files;
+}
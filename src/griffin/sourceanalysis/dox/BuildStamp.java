@@ -0,0 +1,134 @@
+package sourceanalysis.dox;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Identifies the build of Griffin which is running, so that data produced
+ * by one build (such as a ProgramDatabaseSnapshot) is not taken up by
+ * another, whose analysis may differ even if its classes have the same
+ * shape.
+ * <p>The stamp is the SHA-1 digest of the location Griffin's classes are
+ * loaded from. For a jar, this is the digest of its contents; for a
+ * directory of classes, the files under it are digested in the order of
+ * their paths relative to the directory, each path (with '/' separators,
+ * in UTF-8) followed by a zero byte, the contents of the file, and another
+ * zero byte. The griffin script computes the same stamp for the classes
+ * it runs, to tell whether a Griffin server is up to date.</p>
+ */
+public class BuildStamp {
+
+	/**
+	 * Returns the stamp of the running build. It is computed on first use,
+	 * so a process started from an older jar keeps reporting that jar.
+	 * @return String hexadecimal digest, or "unknown" if the location of the
+	 *   classes cannot be determined
+	 * @throws IOException if the classes cannot be read
+	 */
+	public static synchronized String get() throws IOException
+	{
+		if (m_stamp == null) {
+			File location = getLocation();
+			m_stamp = (location == null) ? UNKNOWN : of(location);
+		}
+		return m_stamp;
+	}
+
+	/**
+	 * Computes the stamp of a jar or a directory of classes.
+	 * @param location jar file or directory
+	 * @return String hexadecimal digest
+	 * @throws IOException if a file cannot be read
+	 */
+	public static String of(File location) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		if (location.isDirectory()) {
+			Map<String, File> files = new TreeMap<String, File>();
+			collect(location, "", files);
+			for (Map.Entry<String, File> file: files.entrySet()) {
+				digest.update(file.getKey().getBytes("UTF-8"));
+				digest.update((byte)0);
+				update(digest, file.getValue(), buffer);
+				digest.update((byte)0);
+			}
+		}
+		else {
+			update(digest, location, buffer);
+		}
+		StringBuffer hex = new StringBuffer();
+		for (byte b: digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Returns the jar or directory from which this class was loaded.
+	 */
+	private static File getLocation()
+	{
+		CodeSource source = BuildStamp.class.getProtectionDomain()
+			.getCodeSource();
+		URL url = (source == null) ? null : source.getLocation();
+		if (url == null || !url.getProtocol().equals("file")) return null;
+		try {
+			return new File(url.toURI());
+		}
+		catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	private static void collect(File directory, String prefix,
+			Map<String, File> files)
+	{
+		File[] children = directory.listFiles();
+		if (children == null) return;
+		for (File child: children) {
+			if (child.isDirectory())
+				collect(child, prefix + child.getName() + "/", files);
+			else if (child.isFile())
+				files.put(prefix + child.getName(), child);
+		}
+	}
+
+	private static void update(MessageDigest digest, File file, byte[] buffer)
+		throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try {
+			int n;
+			while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static MessageDigest newDigest() throws IOException
+	{
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 not available");
+		}
+	}
+
+	private static String m_stamp;
+
+	private static final String UNKNOWN = "unknown";
+	private static final int BUFFER_SIZE = 1 << 16;
+}
@@ -1,14 +1,29 @@
 package sourceanalysis.dox;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import sourceanalysis.ElementNotFoundException;
 import sourceanalysis.Entity;
@@ -126,16 +141,22 @@ public class DocumentComponentRegistry {
 	/**
 	 * Represents a document retrieved by 
 	 * DocumentComponentRegistry.locateAllDocuments.
+	 * Upon creation, the document is indexed so that component definitions
+	 * (<tt>&lt;compounddef&gt;</tt>, <tt>&lt;memberdef&gt;</tt> and the like)
+	 * can be found by their id without scanning the document.
 	 */
 	public static class RequestedDocument
 	{
 		private File directory;
 		private Document document;
+		private Map<String, Node> components;
 
 		public RequestedDocument(Document document, File directory)
 		{
 			this.directory = directory;
 			this.document = document;
+			this.components = new HashMap<String, Node>();
+			index(document);
 		}
 
 		public File getDirectory() {
@@ -145,6 +166,45 @@ public class DocumentComponentRegistry {
 		public Document getDocument() {
 			return document;
 		}
+		
+		/**
+		 * Finds a definition element by its tag name and id attribute.
+		 * @param tag element name, e.g. <tt>memberdef</tt>
+		 * @param id the value of the <tt>id</tt> attribute
+		 * @return Node the element, or <b>null</b> if the document contains
+		 *   no such element.
+		 */
+		public Node getComponent(String tag, String id) {
+			return components.get(tag + "#" + id);
+		}
+		
+		/**
+		 * Returns the number of component definitions in the document.
+		 * @return int number of indexed elements
+		 */
+		public int getComponentCount() {
+			return components.size();
+		}
+		
+		private void index(Node node)
+		{
+			for (Node child = node.getFirstChild(); child != null;
+					child = child.getNextSibling()) {
+				if (child.getNodeType() == Node.ELEMENT_NODE) {
+					String tag = child.getNodeName();
+					if (tag.endsWith(DEF)) {
+						String id = ((Element)child).getAttribute(ID);
+						if (id.length() > 0 
+								&& !components.containsKey(tag + "#" + id))
+							components.put(tag + "#" + id, child);
+					}
+					index(child);
+				}
+			}
+		}
+		
+		private static final String DEF = "def";
+		private static final String ID = "id";
 	}
 	
 	/**
@@ -156,6 +216,8 @@ public class DocumentComponentRegistry {
 		m_id2entity = new HashMap<String, Entity>();
 		m_docname2dom = new HashMap<String, RequestedDocument>();
 		m_deferred = new HashSet<String>();
+		m_pending = new HashMap<String, Future<RequestedDocument>>();
+		m_workers = null;
 		m_xmldir = "xml/";
 		// Get the alternative XML path from griffin.dox.path
 		String path = System.getProperty(XML_ALTERNATIVE_PATH_PROPERTY);
@@ -163,6 +225,20 @@ public class DocumentComponentRegistry {
 			m_xmlpath = (m_xmldir + ":" + path).split(":");
 		else
 			m_xmlpath = new String[] { m_xmldir };
+		// Use a full DOM parse only if griffin.dox.dom=full
+		m_fullDOM = "full".equals(System.getProperty(DOM_MODE_PROPERTY));
+		// Get the number of parsing threads from griffin.dox.threads
+		m_nthreads = 1;
+		String threads = System.getProperty(INGESTION_THREADS_PROPERTY);
+		if (threads != null) {
+			try {
+				setIngestionThreads(Integer.parseInt(threads));
+			}
+			catch (NumberFormatException e) {
+				System.err.println("*** WARNING: invalid value for "
+						+ INGESTION_THREADS_PROPERTY + ": " + threads);
+			}
+		}
 	}
 
 	/**
@@ -178,7 +254,50 @@ public class DocumentComponentRegistry {
 			m_xmldir = xmldir + "/";
 		m_xmlpath[0] = m_xmldir;
 	}
+
+	/**
+	 * Returns the directories in which XML documents are looked for: the
+	 * input directory, followed by those listed in griffin.dox.path.
+	 * @return String[] directory names, as given
+	 */
+	public String[] getSearchPath()
+	{
+		return m_xmlpath.clone();
+	}
 	
+	/**
+	 * Sets the number of worker threads used to pre-parse XML documents.
+	 * With a single thread (the default), documents are parsed on demand
+	 * on the calling thread.
+	 * @param nthreads number of parsing threads; values lower than 1 are
+	 *   taken as 1
+	 */
+	public void setIngestionThreads(int nthreads)
+	{
+		m_nthreads = Math.max(1, nthreads);
+	}
+	
+	/**
+	 * Returns the number of worker threads used to pre-parse XML documents.
+	 * @return int number of threads (1 means sequential operation)
+	 */
+	public int getIngestionThreads()
+	{
+		return m_nthreads;
+	}
+
+	/**
+	 * Selects how XML documents are read. By default, documents are streamed
+	 * and only the parts needed by the DoxygenAnalyzer are kept; the full
+	 * DOM tree, as produced by the Xerces DOM parser, is retained as a
+	 * fallback.
+	 * @param fullDOM <b>true</b> to build complete DOM trees
+	 */
+	public void setFullDOM(boolean fullDOM)
+	{
+		m_fullDOM = fullDOM;
+	}
+
 	/**
 	 * @param directory
 	 * @return 'true' if the directory belongs to an external reference
@@ -214,6 +333,26 @@ public class DocumentComponentRegistry {
 		m_id2entity.put(id.unique(), entity);
 	}
 	
+	/**
+	 * Registers entities which were translated earlier, e.g. by a previous
+	 * analysis of the same input.
+	 * @param subscriptions a map of unique id (see EntityLocator.unique())
+	 *   to entity, as returned by getSubscriptions()
+	 */
+	public void subscribeAll(Map<String, ? extends Entity> subscriptions)
+	{
+		m_id2entity.putAll(subscriptions);
+	}
+	
+	/**
+	 * Returns all the entities registered so far.
+	 * @return Map an unmodifiable map of unique id to entity
+	 */
+	public Map<String, Entity> getSubscriptions()
+	{
+		return Collections.unmodifiableMap(m_id2entity);
+	}
+	
 	/*@}*/
 
 	/**
@@ -260,9 +399,17 @@ public class DocumentComponentRegistry {
 		if (m_deferred.contains(documentkey))
 			throw new ElementNotFoundException("document", documentname);
 		// Try getting object from registry
-		Object document = m_docname2dom.get(documentkey);
+		RequestedDocument document = m_docname2dom.get(documentkey);
 		if (document != null) {
-			return (RequestedDocument)document;
+			m_cacheHits++;
+			return document;
+		}
+		m_cacheMisses++;
+		if (m_pending.containsKey(documentkey)) {
+			// Document is being parsed by a worker thread; wait for it
+			RequestedDocument anew = await(documentkey, documentname);
+			m_docname2dom.put(documentkey, anew);
+			return anew;
 		}
 		else {
 			// Fetch from input directory (exception may occur here)
@@ -272,6 +419,192 @@ public class DocumentComponentRegistry {
 		}
 	}
 	
+	/**
+	 * Schedules an XML document to be parsed in the background, so that a
+	 * later call to locateDocument() with the same arguments does not
+	 * have to wait for the parser. If only one ingestion thread is
+	 * configured, or the document was already requested, nothing is done.
+	 * @param documentname name of XML document
+	 * @param realm whether this is a local or external reference
+	 */
+	public void prefetchDocument(final String documentname, final Realm realm)
+	{
+		if (m_nthreads <= 1) return;
+		String documentkey =
+			(realm == Realm.EXTERNAL ? "external:" : "") + documentname;
+		if (m_deferred.contains(documentkey) 
+				|| m_docname2dom.containsKey(documentkey)
+				|| m_pending.containsKey(documentkey))
+			return;
+		// Locate the file here; if it is missing, let locateDocument()
+		// report it as usual
+		final File documentfile;
+		try {
+			documentfile = searchInPath(documentname + ".xml", realm);
+		}
+		catch (ElementNotFoundException e) {
+			return;
+		}
+		// Submit a parsing task; the task does not touch the registry
+		if (m_workers == null) {
+			m_workers = Executors.newFixedThreadPool(m_nthreads,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "griffin-dox-parser");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		}
+		m_pending.put(documentkey, m_workers.submit(
+			new Callable<RequestedDocument>() {
+				public RequestedDocument call() throws ElementNotFoundException
+				{
+					return new RequestedDocument(parse(documentname, documentfile),
+							documentfile.getParentFile());
+				}
+			}));
+	}
+	
+	/**
+	 * Stops the background parsing threads, if any were started by
+	 * prefetchDocument(). Documents which were not yet requested are
+	 * discarded; they will be parsed on demand if needed later.
+	 */
+	public void finishPrefetch()
+	{
+		for (Future<RequestedDocument> pending: m_pending.values())
+			pending.cancel(false);
+		m_pending.clear();
+		if (m_workers != null) {
+			m_workers.shutdownNow();
+			m_workers = null;
+		}
+	}
+	
+	/**
+	 * Drops a document from the registry once all the components needed
+	 * from it have been translated. If the document is requested again
+	 * later, it is re-read from the input directory.
+	 * @param documentname name of XML document
+	 * @param realm the realm with which the document was located
+	 */
+	public void releaseDocument(String documentname, Realm realm)
+	{
+		String documentkey =
+			(realm == Realm.EXTERNAL ? "external:" : "") + documentname;
+		m_docname2dom.remove(documentkey);
+	}
+
+	/**
+	 * Waits for a document scheduled by prefetchDocument() to become
+	 * available.
+	 * @param documentkey registry key of the document
+	 * @param documentname name of XML document
+	 * @return RequestedDocument the parsed document
+	 * @throws ElementNotFoundException if the document could not be found
+	 *   or could not be parsed.
+	 */
+	private RequestedDocument await(String documentkey, String documentname)
+		throws ElementNotFoundException
+	{
+		Future<RequestedDocument> pending = m_pending.remove(documentkey);
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return pending.get();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof ElementNotFoundException) {
+				m_deferred.add(documentname);
+				throw (ElementNotFoundException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Finds the element defining a component inside a document, using the
+	 * document's id index.
+	 * @param document a document returned by locateDocument()
+	 * @param tag element name, e.g. <tt>memberdef</tt>
+	 * @param id component ID
+	 * @return Node the defining element
+	 * @throws ElementNotFoundException if the document does not define
+	 *   such a component.
+	 */
+	public Node locateComponent(RequestedDocument document, String tag,
+			String id) throws ElementNotFoundException
+	{
+		Node found = document.getComponent(tag, id);
+		if (found == null) {
+			m_indexMisses++;
+			throw new ElementNotFoundException(tag, id);
+		}
+		m_indexHits++;
+		return found;
+	}
+	
+	/**
+	 * Writes statistics about document and component lookups.
+	 * @param out stream to write to
+	 */
+	public void report(java.io.PrintStream out)
+	{
+		out.println("| XML documents: " + m_cacheHits + " cache hits, "
+				+ m_cacheMisses + " misses");
+		out.println("| XML components: " + m_indexHits + " index hits, "
+				+ m_indexMisses + " misses");
+	}
+
+	/**
+	 * Returns the number of documents served from the registry, having been
+	 * read before and not released yet.
+	 * @return int number of locateDocument() calls which did not parse
+	 */
+	public int getCacheHits()
+	{
+		return m_cacheHits;
+	}
+
+	/**
+	 * Returns the number of documents which had to be read because they
+	 * were not in the registry.
+	 * @return int number of locateDocument() calls which parsed a document
+	 */
+	public int getCacheMisses()
+	{
+		return m_cacheMisses;
+	}
+
+	/**
+	 * Returns the number of components found through the document index.
+	 * @return int number of successful locateComponent() calls
+	 */
+	public int getIndexHits()
+	{
+		return m_indexHits;
+	}
+	
+	/**
+	 * Returns the number of components which were looked for in a document
+	 * but were not found there.
+	 * @return int number of failed locateComponent() calls
+	 */
+	public int getIndexMisses()
+	{
+		return m_indexMisses;
+	}
+
 	public List<RequestedDocument> locateAllDocuments(String documentname)
 	{
 		List<RequestedDocument> docs = new LinkedList<RequestedDocument>();
@@ -316,20 +649,44 @@ public class DocumentComponentRegistry {
 	private Document open(String documentname, File documentfile)
 		throws ElementNotFoundException
 	{
-		org.apache.xerces.parsers.DOMParser p = new org.apache.xerces.parsers.DOMParser();
 		try {
-			p.parse(documentfile.toString());
+			return parse(documentname, documentfile);
 		}
-		catch (java.io.IOException e) {
+		catch (ElementNotFoundException e) {
 			m_deferred.add(documentname);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Parses an XML file into a DOM tree. Unless the full DOM was requested
+	 * with setFullDOM(), the document is streamed through 
+	 * StreamingDocumentReader, which only keeps the parts needed for
+	 * translation. This method does not modify the registry's state, and
+	 * may be called from worker threads.
+	 * @param documentname document title
+	 * @param documentfile XML file
+	 * @return Document the XML document as a DOM tree
+	 */
+	private Document parse(String documentname, File documentfile)
+		throws ElementNotFoundException
+	{
+		try {
+			if (m_fullDOM) {
+				return StreamingDocumentReader.newDocumentBuilder()
+					.parse(documentfile);
+			}
+			else {
+				return StreamingDocumentReader.read(documentfile);
+			}
+		}
+		catch (java.io.IOException e) {
 			throw new ElementNotFoundException("document", documentname);
 		}
 		catch (org.xml.sax.SAXException e) { 
-			m_deferred.add(documentname);
 			throw new ElementNotFoundException("document", documentname); 
 		}
-		return p.getDocument();
-	}	
+	}
 
 	/**
 	 * Looks for a document in the XML search path. The path is taken
@@ -386,16 +743,123 @@ public class DocumentComponentRegistry {
 		return found;
 	}
 	
+	/**
+	 * Computes a digest of all the XML documents in the search path. Two
+	 * registries with the same digest would translate into the same
+	 * program database.
+	 * @return String hexadecimal digest
+	 * @throws IOException if a document cannot be read
+	 */
+	public String digestInputs() throws IOException
+	{
+		return digestInputs(digestDocuments());
+	}
+	
+	/**
+	 * Combines the digests of individual documents, as returned by
+	 * digestDocuments(), into a digest of the entire input.
+	 * @param documents a map of document name to document digest
+	 * @return String hexadecimal digest
+	 */
+	public String digestInputs(Map<String, String> documents)
+		throws IOException
+	{
+		MessageDigest digest = newDigest();
+		for (int i = 0; i < m_xmlpath.length; i++) {
+			digest.update(new File(m_xmlpath[i]).getAbsolutePath()
+					.getBytes("UTF-8"));
+		}
+		for (Map.Entry<String, String> document: 
+				new TreeMap<String, String>(documents).entrySet()) {
+			digest.update(document.getKey().getBytes("UTF-8"));
+			digest.update(document.getValue().getBytes("UTF-8"));
+		}
+		return hex(digest.digest());
+	}
+	
+	/**
+	 * Computes a digest for each of the XML documents in the search path,
+	 * so that changes can be tracked per document. If documents by the same
+	 * name exist in several directories, their digests are concatenated.
+	 * @return Map a map of document name (XML file name without the
+	 *   <tt>.xml</tt> extension) to hexadecimal digest
+	 * @throws IOException if a document cannot be read
+	 */
+	public Map<String, String> digestDocuments() throws IOException
+	{
+		Map<String, String> digests = new HashMap<String, String>();
+		byte[] buffer = new byte[1 << 16];
+		for (int i = 0; i < m_xmlpath.length; i++) {
+			File directory = new File(m_xmlpath[i]);
+			File[] files = directory.listFiles();
+			if (files == null) continue;
+			for (File file: files) {
+				String name = file.getName();
+				if (!file.isFile() || !name.endsWith(".xml"))
+					continue;
+				MessageDigest digest = newDigest();
+				InputStream in = new FileInputStream(file);
+				try {
+					int n;
+					while ((n = in.read(buffer)) > 0)
+						digest.update(buffer, 0, n);
+				}
+				finally {
+					in.close();
+				}
+				String document = name.substring(0, name.length() - 4);
+				String previous = digests.get(document);
+				String value = hex(digest.digest());
+				digests.put(document, 
+						previous == null ? value : previous + value);
+			}
+		}
+		return digests;
+	}
+	
+	private static MessageDigest newDigest() throws IOException
+	{
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(DIGEST_ALGORITHM + " not available");
+		}
+	}
+	
+	private static String hex(byte[] bytes)
+	{
+		StringBuffer hex = new StringBuffer();
+		for (byte b: bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+	
 	/*@}*/
 
 	// Private
 	private Map<String, Entity> m_id2entity;
 	private Map<String, RequestedDocument> m_docname2dom;
 	private Set<String> m_deferred;  // XML documents which contained errors
+	private Map<String, Future<RequestedDocument>> m_pending;
+	private ExecutorService m_workers;
+	private int m_nthreads;
+	private boolean m_fullDOM;
+	private int m_indexHits;
+	private int m_indexMisses;
+	private int m_cacheHits;
+	private int m_cacheMisses;
 	
 	private String m_xmldir;
 	private String m_xmlpath[];
 	
 	private static final String XML_ALTERNATIVE_PATH_PROPERTY
 		= "griffin.dox.path";
+	private static final String INGESTION_THREADS_PROPERTY
+		= "griffin.dox.threads";
+	private static final String DOM_MODE_PROPERTY
+		= "griffin.dox.dom";
+	private static final String DIGEST_ALGORITHM = "SHA-1";
 }
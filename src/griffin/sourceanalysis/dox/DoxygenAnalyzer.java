@@ -2,11 +2,17 @@ package sourceanalysis.dox;
 
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -98,6 +104,7 @@ public class DoxygenAnalyzer {
 		public static final String KIND = "kind";
 
 		public static final String COMPOUND = "compound";
+		public static final String INDEX = "index";
 		public static final String FILE = "file";
 		public static final String NAMESPACE = "namespace";
 		public static final String CLASS = "class";
@@ -214,6 +221,7 @@ public class DoxygenAnalyzer {
 				else {
 					hint = m_global_byname.get(name);	// search globals
 					if (hint != null) {
+						noteReference((Entity)hint);
 						return (Entity)hint;
 					}
 					else {
@@ -238,6 +246,7 @@ public class DoxygenAnalyzer {
 		{
 			Object hint = m_global_byname.get(name);
 			if (hint != null) {
+				noteReference((Entity)hint);
 				return (Primitive)hint;
 			}
 			else {
@@ -276,6 +285,7 @@ public class DoxygenAnalyzer {
 		{
 			// Add member to global scope instead
 			globals.addMember(routine, visibility, virtuality, storage);
+			contribute(routine);
 		}
 
 		public void addMember(sourceanalysis.Enum enume, int visibility)
@@ -295,6 +305,7 @@ public class DoxygenAnalyzer {
 			m_globalFields_byname.put(field.getName(),
 				new ContainedConnection<Entity, Field>(null, visibility, 
 					Specifiers.DONT_CARE, storage, field));
+			contribute(field);
 		}
 		
 		public void addMember(Namespace inner)
@@ -323,6 +334,18 @@ public class DoxygenAnalyzer {
 		m_fieldsForRepair = new LinkedList<Field>();
 		m_inheritanceForRepair = new LinkedList<InheritanceConnection>();
 		m_globalFields_byname = new HashMap<String, ContainedConnection<Entity, Field>>();
+		m_translating = new LinkedList<String>();
+		m_references = new HashMap<String, Set<String>>();
+		m_owners = new HashMap<String, String>();
+		m_documentOf = new IdentityHashMap<Entity, String>();
+		m_contributions = new HashMap<String, List<Entity>>();
+		m_digests = null;
+		// Cache type-expressions unless griffin.dox.typecache=false
+		setTypeCaching(!"false".equals(System.getProperty(TYPE_CACHE_PROPERTY)));
+		// Parse simple type-expressions directly unless 
+		// griffin.dox.simpletypes=false
+		m_simpleTypes = 
+			!"false".equals(System.getProperty(SIMPLE_TYPES_PROPERTY));
 		logger = Logger.getLogger("sourceanalysis.dox");
 	}
 	
@@ -1387,19 +1410,41 @@ public class DoxygenAnalyzer {
 		if (expr.length() == 0) return new Type(null);
 		if (expr.equals("virtual")) return new Type(null); /* bug workaround */
 		
+		// Reuse the type if the same expression was already parsed
+		EntityNameResolving resolution = new ScopefulResolution(names);
+		TypeExpressionCache.Recording recording = null;
+		if (m_typeCache != null) {
+			Type cached = m_typeCache.lookup(expr, names, resolution);
+			if (cached != null) return cached;
+			resolution = recording = m_typeCache.record(resolution);
+		}
+		
+		// Most expressions are simple enough to be parsed without ANTLR
+		TypeNode simple = m_simpleTypes 
+			? SimpleTypeParser.parse(expr, resolution) : null;
+		if (simple != null) {
+			++m_simpleTypeParses;
+			Type translated = new Type(simple.normalize());
+			if (recording != null)
+				m_typeCache.store(expr, names, recording, translated);
+			return translated;
+		}
+		
 		// Build the parser
 		Reader in = new StringReader(expr);
 		antlr.CharScanner lexer = new TypeExpressionLexer(in);
 		TypeExpressionParser parser = new TypeExpressionParser(lexer);
-		parser.assignYellowPages(new ScopefulResolution(names));
+		parser.assignYellowPages(resolution);
 		
 		// Parse expression and return resulting type (as expression tree)
+		++m_fullTypeParses;
 		try {
-			Type translated = new Type(parser.typeexpr());
-			translated.normalize();
+			Type translated = new Type(parser.typeexpr().normalize());
 			if (parser.errorOccurred())
 				System.err.println("*** WARNING: error in type-expression '" +
 					expr + "': " + parser.getErrorMessages());
+			else if (recording != null)
+				m_typeCache.store(expr, names, recording, translated);
 			return translated;
 		}
 		catch (TokenStreamException e) {
@@ -1492,27 +1537,262 @@ public class DoxygenAnalyzer {
 	 */
 	public void processIndex(Scope<Namespace> global, Document index, boolean isExternal)
 			throws ElementNotFoundException
+	{
+		List<Entity> compounds =
+			translateTopLevel(topLevelLocators(index), isExternal);
+		admitTopLevel(global, compounds);
+		// Fill in any source connections that may have been encountered
+		// and remained unfulfilled
+		fulfillSourceConnections();
+		// Fill any broken type links which may be fixed
+		repairDamagedReferences();
+		// Put global variables in global scope
+		fillGlobalVariables(global);
+	}
+	
+	/**
+	 * Reads the entire range of accessible data from the index, building a
+	 * complete program database.
+	 * @return ProgramDatabase
+	 */
+	public ProgramDatabase processIndex() throws ElementNotFoundException
+	{
+		ProgramDatabase program = new ProgramDatabase();
+		m_db = program;
+		m_history = null;
+		Scope<Namespace> globals = program.getGlobalNamespace().getScope();
+		List<RequestedDocument> indices =
+				m_registry.locateAllDocuments(Tags.INDEX);
+		for (RequestedDocument index : indices) {
+			boolean isExternal = m_registry.isExternal(index); 
+			Scope<Namespace> scope =  isExternal ? program.getExternals() : globals;
+			processIndex(scope, index.getDocument(), isExternal);
+		}
+		compact(program);
+		logger.log(Level.INFO, "documents: " + m_registry.getCacheHits()
+				+ " cache hits, " + m_registry.getCacheMisses() + " misses; "
+				+ "component index: " + m_registry.getIndexHits()
+				+ " hits, " + m_registry.getIndexMisses() + " misses");
+		return program;
+	}
+	
+	/**
+	 * Brings a program database, built by an earlier analysis, up to date
+	 * with the current input. Only the documents which were modified,
+	 * added or removed since 'history' was recorded are translated again,
+	 * together with the documents which referred to them; entities that
+	 * were translated from other documents are kept as they are, and
+	 * references to entities which were translated again are redirected to
+	 * the new versions.
+	 * <p>The members of a scope may be ordered differently than in a
+	 * complete analysis when entities are added or removed.</p>
+	 * @param previous the program database of the earlier analysis; it is
+	 *   modified in the process and must not be used afterwards
+	 * @param history the history of the earlier analysis, as returned by
+	 *   getHistory()
+	 * @return ProgramDatabase the updated program database
+	 * @throws ElementNotFoundException if the index document is
+	 *   unavailable.
+	 * @throws java.io.IOException if the input cannot be read, or if the
+	 *   updated program database cannot be copied.
+	 */
+	public ProgramDatabase processIndex(ProgramDatabase previous,
+			AnalysisHistory history)
+		throws ElementNotFoundException, java.io.IOException
+	{
+		Map<String, String> digests =
+			(m_digests == null) ? m_registry.digestDocuments() : m_digests;
+		Set<String> changed = history.changedDocuments(digests);
+		Set<String> affected = history.affectedDocuments(changed);
+		affected.remove(Tags.INDEX);
+		logger.log(Level.INFO, "incremental analysis: " + changed.size()
+				+ " documents changed, " + affected.size() + " affected");
+		// Resume from the state of the earlier analysis
+		m_db = previous;
+		m_history = null;
+		m_global_byname = history.getGlobalNames();
+		m_files_byname = history.getFiles();
+		m_owners = history.getOwners();
+		m_references = history.getReferences();
+		m_contributions = history.getContributions();
+		// Entities which were registered while translating an affected
+		// document are replaced; all others are registered again as-is
+		Map<String, Entity> kept = new HashMap<String, Entity>();
+		Map<String, Entity> replaced = new HashMap<String, Entity>();
+		for (Map.Entry<String, Entity> subscription: 
+				history.getSubscriptions().entrySet()) {
+			String document = m_owners.get(subscription.getKey());
+			if (affected.contains(document)) {
+				replaced.put(subscription.getKey(), subscription.getValue());
+			}
+			else {
+				kept.put(subscription.getKey(), subscription.getValue());
+				m_documentOf.put(subscription.getValue(), document);
+			}
+		}
+		m_registry.subscribeAll(kept);
+		m_owners.keySet().removeAll(replaced.keySet());
+		// Discard everything which goes away with the replaced entities,
+		// including global functions and variables contributed by the
+		// affected documents
+		Set<Entity> condemned = 
+			Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>());
+		for (Entity entity: replaced.values())
+			condemn(entity, condemned);
+		for (String document: affected) {
+			List<Entity> contributed = m_contributions.remove(document);
+			if (contributed != null) {
+				for (Entity entity: contributed)
+					condemn(entity, condemned);
+			}
+			m_references.remove(document);
+		}
+		m_references.keySet().retainAll(digests.keySet());
+		m_contributions.keySet().retainAll(digests.keySet());
+		Set<Entity> containers = discard(condemned);
+		// Translate affected top-level compounds, in index order
+		for (RequestedDocument index: m_registry.locateAllDocuments(Tags.INDEX)) {
+			boolean isExternal = m_registry.isExternal(index);
+			Scope<Namespace> scope = isExternal ? m_db.getExternals()
+					: m_db.getGlobalNamespace().getScope();
+			List<DocumentComponentRegistry.EntityLocator> locators =
+				new ArrayList<DocumentComponentRegistry.EntityLocator>();
+			for (DocumentComponentRegistry.EntityLocator locator:
+					topLevelLocators(index.getDocument())) {
+				if (affected.contains(locator.getDocumentName()))
+					locators.add(locator);
+			}
+			List<Entity> compounds = translateTopLevel(locators, isExternal);
+			reinstate(replaced, condemned);
+			admitTopLevel(scope, compounds);
+			fillGlobalVariables(scope);
+		}
+		// Translate affected compounds whose containers were kept
+		for (String id: replaced.keySet()) {
+			if (affected.contains(id) && digests.containsKey(id)
+					&& !m_registry.getSubscriptions().containsKey(id)) {
+				try {
+					followReference(new DocumentComponentRegistry.EntityLocator(
+						Tags.COMPOUND, id, DocumentComponentRegistry.Realm.DONT_CARE));
+				}
+				catch (XMLFormatException xe) {
+					System.err.println("*** WARNING: compound " + id
+						+ " is corrupt: " + xe);
+				}
+				catch (ElementNotFoundException ee) {
+					System.err.println("*** WARNING: compound " + id
+						+ " cannot be found: " + ee);
+				}
+			}
+		}
+		reinstate(replaced, condemned);
+		// Remove the remains of condemned entities from containers which
+		// were kept
+		for (Entity container: containers) {
+			if (container == m_db) {
+				for (Entity entity: condemned) {
+					if (entity instanceof SourceFile)
+						m_db.delistSourceFile((SourceFile)entity);
+				}
+			}
+			else {
+				scopeOf(container).removeMembers(condemned);
+			}
+		}
+		fulfillSourceConnections();
+		repairDamagedReferences();
+		compact(m_db);
+		logger.log(Level.INFO, "incremental analysis: " 
+				+ m_registry.getCacheMisses() + " documents translated");
+		// Redirect references from entities which were kept
+		Map<Object, Object> replacements = 
+			new IdentityHashMap<Object, Object>();
+		for (Map.Entry<String, Entity> entry: replaced.entrySet()) {
+			Entity old = entry.getValue();
+			Entity replacement = 
+				m_registry.getSubscriptions().get(entry.getKey());
+			if (replacement != null && replacement != old
+					&& replacement.getClass() == old.getClass())
+				replacements.put(old, replacement);
+		}
+		m_digests = digests;
+		AnalysisHistory updated = recordHistory();
+		if (!replacements.isEmpty()) {
+			Object[] copy = ProgramDatabaseSnapshot.substitute(
+					new Object[] { m_db, updated }, replacements);
+			m_db = (ProgramDatabase)copy[0];
+			updated = (AnalysisHistory)copy[1];
+		}
+		m_history = updated;
+		return m_db;
+	}
+	
+	/**
+	 * Collects the locators of top-level compounds from an index document.
+	 * @param index the index XML document
+	 * @return List locators of compounds which are not nested in others
+	 */
+	private List<DocumentComponentRegistry.EntityLocator> 
+		topLevelLocators(Document index) throws ElementNotFoundException
 	{
 		Node indexRoot = index.getFirstChild();
-		// Translate compounds
 		Collection<Node> compoundnodes = XML.subNodes(indexRoot, Tags.COMPOUND);
-		List<Entity> compounds = new LinkedList<Entity>();
+		List<DocumentComponentRegistry.EntityLocator> locators =
+			new ArrayList<DocumentComponentRegistry.EntityLocator>();
 		for (Node element: compoundnodes) {
 			String name = XML.collectText(XML.subNode(element, Tags.NAME));
 			// - filter out entities that have a name starting with "@"
 			boolean anonymous = (name.charAt(0) == '@');
-			// Translate compound entity
 			try {
 				DocumentComponentRegistry.EntityLocator locator =
 					makeLocatorFromNode(element);
+				if (name.indexOf("::") == -1 && !anonymous &&
+						locator.getKind().equals(Tags.COMPOUND)) {
+					locators.add(locator);
+				}
+			}
+			catch (XMLFormatException e) {
+				System.err.println("*** WARNING: top-level locator " +
+					"syntax is invalid: " + e);
+			}
+		}
+		return locators;
+	}
+	
+	/**
+	 * Translates top-level compounds.
+	 * @param locators locators of compounds to translate
+	 * @param isExternal 'true' indicates that all compound entities analyzed
+	 *   should have the external flag set
+	 * @return List translated entities, in the order of 'locators'
+	 */
+	private List<Entity> translateTopLevel(
+			List<DocumentComponentRegistry.EntityLocator> locators,
+			boolean isExternal)
+	{
+		// Translate compounds; when several ingestion threads are available,
+		// documents a few compounds ahead are parsed in the background, but
+		// translation itself always proceeds in index order so that the
+		// resulting database does not depend on the number of threads
+		int lookahead = PREFETCH_DEPTH * m_registry.getIngestionThreads();
+		int scheduled = 0;
+		List<Entity> compounds = new LinkedList<Entity>();
+		try {
+			for (int i = 0; i < locators.size(); ++i) {
+				DocumentComponentRegistry.EntityLocator locator = locators.get(i);
+				for (; scheduled < locators.size() && scheduled <= i + lookahead;
+						++scheduled) {
+					DocumentComponentRegistry.EntityLocator ahead =
+						locators.get(scheduled);
+					m_registry.prefetchDocument(ahead.getDocumentName(),
+							ahead.getRealm());
+				}
+				// Translate compound entity
 				try {
-					if (name.indexOf("::") == -1 && !anonymous &&
-							locator.getKind().equals(Tags.COMPOUND)) {
-						Entity comp = followReference(locator);
-						if (!comp.hasContainer())
-							comp.setExternal(isExternal);
-						compounds.add(comp);
-					}
+					Entity comp = followReference(locator);
+					if (!comp.hasContainer())
+						comp.setExternal(isExternal);
+					compounds.add(comp);
 				}
 				catch (XMLFormatException xe) {
 					System.err.println("*** WARNING: top-level entity " +
@@ -1523,12 +1803,21 @@ public class DoxygenAnalyzer {
 						locator.getComponentID() + " cannot be found: " + ee);
 				}
 			}
-			catch (XMLFormatException e) {
-				System.err.println("*** WARNING: top-level locator " +
-					"syntax is invalid: " + e);
-			}
 		}
-		// Add compounds to global namespace
+		finally {
+			m_registry.finishPrefetch();
+		}
+		return compounds;
+	}
+	
+	/**
+	 * Adds translated top-level compounds to the global namespace, unless
+	 * they have already been placed in some other container.
+	 * @param global a scope to put translated entities in
+	 * @param compounds translated compounds
+	 */
+	private void admitTopLevel(Scope<Namespace> global, List<Entity> compounds)
+	{
 		for (Entity element: compounds) {
 			// - check whether element is class or namespace
 			if (!element.hasContainer()) {
@@ -1543,33 +1832,123 @@ public class DoxygenAnalyzer {
 				}
 			}
 		}
-		// Fill in any source connections that may have been encountered
-		// and remained unfulfilled
-		fulfillSourceConnections();
-		// Fill any broken type links which may be fixed
-		repairDamagedReferences();
-		// Put global variables in global scope
-		fillGlobalVariables(global);
 	}
 	
 	/**
-	 * Reads the entire range of accessible data from the index, building a
-	 * complete program database.
-	 * @return ProgramDatabase
+	 * Returns a record of how the program database was built by the last
+	 * call to processIndex(), which can later be used to update the
+	 * program database incrementally when the input changes.
+	 * @return AnalysisHistory the history of the analysis
+	 * @throws java.io.IOException if the input cannot be read
 	 */
-	public ProgramDatabase processIndex() throws ElementNotFoundException
+	public AnalysisHistory getHistory() throws java.io.IOException
 	{
-		ProgramDatabase program = new ProgramDatabase();
-		m_db = program;
-		Scope<Namespace> globals = program.getGlobalNamespace().getScope();
-		List<RequestedDocument> indices =
-				m_registry.locateAllDocuments("index");
-		for (RequestedDocument index : indices) {
-			boolean isExternal = m_registry.isExternal(index); 
-			Scope<Namespace> scope =  isExternal ? program.getExternals() : globals;
-			processIndex(scope, index.getDocument(), isExternal);
-		}
-		return program;
+		if (m_history == null)
+			m_history = recordHistory();
+		return m_history;
+	}
+	
+	private AnalysisHistory recordHistory() throws java.io.IOException
+	{
+		if (m_digests == null)
+			m_digests = m_registry.digestDocuments();
+		return new AnalysisHistory(m_digests,
+				new HashMap<String, Entity>(m_registry.getSubscriptions()),
+				m_owners, m_references, m_contributions,
+				m_global_byname, m_files_byname);
+	}
+	
+	/**
+	 * Computes a digest of the XML input. It can be used as a key for
+	 * caching the program database produced by processIndex().
+	 * @return String hexadecimal digest
+	 * @throws java.io.IOException if the input cannot be read
+	 */
+	public String digestInput() throws java.io.IOException
+	{
+		m_digests = m_registry.digestDocuments();
+		return m_registry.digestInputs(m_digests);
+	}
+
+	/**
+	 * Returns the directories from which the XML input is read.
+	 * @return String[] the input directory, followed by the directories
+	 *   listed in griffin.dox.path
+	 */
+	public String[] getInputPath()
+	{
+		return m_registry.getSearchPath();
+	}
+
+	/**
+	 * Writes statistics gathered while reading the XML input, such as the
+	 * efficiency of the document cache.
+	 * @param out stream to write to
+	 */
+	public void reportStatistics(java.io.PrintStream out)
+	{
+		m_registry.report(out);
+		if (m_typeCache != null) {
+			int hits = m_typeCache.getHits(), misses = m_typeCache.getMisses();
+			out.println("| Type expressions: " + hits + " cache hits, "
+					+ misses + " misses (" 
+					+ (hits + misses == 0 ? 0 : hits * 100 / (hits + misses))
+					+ "% hit rate)");
+		}
+		out.println("| Type parsing: " + m_simpleTypeParses + " simple, "
+				+ m_fullTypeParses + " by the full grammar");
+		out.println("| Type nodes: " + Type.getSharedNodeCount() + " shared");
+	}
+
+	/**
+	 * Determines whether type-expressions which were already parsed are
+	 * reused, rather than parsed again every time they occur. Caching is
+	 * on by default.
+	 * @param enabled <b>true</b> to cache type-expressions
+	 */
+	public void setTypeCaching(boolean enabled)
+	{
+		m_typeCache = enabled ? new TypeExpressionCache() : null;
+	}
+
+	/**
+	 * Determines whether the common, simple type-expressions are parsed
+	 * by a hand-written parser rather than by the full ANTLR grammar. Both
+	 * yield the same types; the hand-written parser is used by default.
+	 * @param enabled <b>true</b> to parse simple expressions directly
+	 */
+	public void setSimpleTypeParsing(boolean enabled)
+	{
+		m_simpleTypes = enabled;
+	}
+
+	/**
+	 * Returns the number of type-expressions parsed by the hand-written
+	 * parser for simple expressions.
+	 * @return int number of parseType() calls which did not need ANTLR
+	 */
+	public int getSimpleTypeParses()
+	{
+		return m_simpleTypeParses;
+	}
+
+	/**
+	 * Returns the number of type-expressions which were reused.
+	 * @return int number of parseType() calls which did not run the parser
+	 */
+	public int getTypeCacheHits()
+	{
+		return (m_typeCache == null) ? 0 : m_typeCache.getHits();
+	}
+
+	/**
+	 * Returns the number of type-expressions which had to be parsed.
+	 * @return int number of parseType() calls which ran the parser, when
+	 * caching is enabled
+	 */
+	public int getTypeCacheMisses()
+	{
+		return (m_typeCache == null) ? 0 : m_typeCache.getMisses();
 	}
 	
 	/*@}*/
@@ -1599,6 +1978,7 @@ public class DoxygenAnalyzer {
 	public Entity followReference(DocumentComponentRegistry.EntityLocator locator)
 		throws ElementNotFoundException, XMLFormatException
 	{
+		noteReference(locator.getDocumentName());
 		try {
 			return m_registry.locate(locator);
 		}
@@ -1606,26 +1986,35 @@ public class DoxygenAnalyzer {
 			// Open XML document
 			RequestedDocument document =
 				m_registry.locateDocument(locator.getDocumentName(), locator.getRealm());
-			// Scan all <...def> tags (with corresponding kind) to find that with
-			// the requested id
-			NodeList refs = document.getDocument()
-				.getElementsByTagName(Tags.def(locator.getKind()));
-			Node found = null;
-			for (int refi = 0; refi < refs.getLength(); ++refi) {
-				Node refnode = refs.item(refi);
-				// Compare node's id with that in the locator
-				if (XML.attribute(refnode, Tags.ID, null).equals(
-					locator.getComponentID())) {
-					found = refnode;
-					break;
-				}
+			// Find the <...def> tag (with corresponding kind) having the
+			// requested id
+			Node found;
+			try {
+				found = m_registry.locateComponent(document,
+						Tags.def(locator.getKind()), locator.getComponentID());
+			}
+			catch (ElementNotFoundException enf) {
+				throw new 
+					ElementNotFoundException(locator.getKind(), locator.unique());
 			}
-			
-			if (found == null)	throw new 
-				ElementNotFoundException(locator.getKind(), locator.unique());
 			
 			// Translate the node that was found into an entity
-			return translationSwitch(found, m_registry.isExternal(document));
+			Entity translated;
+			m_translating.addFirst(locator.getDocumentName());
+			try {
+				translated =
+					translationSwitch(found, m_registry.isExternal(document));
+			}
+			finally {
+				m_translating.removeFirst();
+			}
+			// A compound document describes a single compound; once it has
+			// been translated, all of its members are in the registry and
+			// the document itself is no longer needed
+			if (locator.getKind().equals(Tags.COMPOUND))
+				m_registry.releaseDocument(locator.getDocumentName(),
+						locator.getRealm());
+			return translated;
 		}
 	}
 
@@ -1839,6 +2228,10 @@ public class DoxygenAnalyzer {
 			DocumentComponentRegistry.EntityLocator locator =
 				makeLocatorFromNode(xmlnode, "any");
 			m_registry.subscribe(entity, locator);
+			String document = m_translating.isEmpty() ?
+					locator.getDocumentName() : m_translating.getFirst();
+			m_owners.put(locator.unique(), document);
+			m_documentOf.put(entity, document);
 		}
 		catch (XMLFormatException e) {
 			/* skip it */
@@ -1856,6 +2249,251 @@ public class DoxygenAnalyzer {
 		m_global_byname.put(dequalifyName(entity.getName()), entity);
 	}
 	
+	/**
+	 * Records that the document currently being translated refers to
+	 * another document. Recorded references determine which documents are
+	 * translated again by an incremental analysis.
+	 * @param document name of referenced document
+	 */
+	private void noteReference(String document)
+	{
+		if (m_translating.isEmpty() || document == null) return;
+		String referrer = m_translating.getFirst();
+		if (referrer.equals(document)) return;
+		Set<String> referenced = m_references.get(referrer);
+		if (referenced == null) {
+			referenced = new HashSet<String>();
+			m_references.put(referrer, referenced);
+		}
+		referenced.add(document);
+	}
+	
+	/**
+	 * Records that the document currently being translated refers to the
+	 * document in which an entity was registered.
+	 * @param entity referenced entity
+	 */
+	private void noteReference(Entity entity)
+	{
+		noteReference(m_documentOf.get(entity));
+	}
+	
+	/**
+	 * Records an entity which is placed directly in the global scope as a
+	 * result of translating the current document, so that an incremental
+	 * analysis can remove it when the document is translated again.
+	 * @param entity global function or variable
+	 */
+	private void contribute(Entity entity)
+	{
+		if (m_translating.isEmpty()) return;
+		String document = m_translating.getFirst();
+		List<Entity> contributed = m_contributions.get(document);
+		if (contributed == null) {
+			contributed = new ArrayList<Entity>();
+			m_contributions.put(document, contributed);
+		}
+		contributed.add(entity);
+	}
+	
+	/**
+	 * Marks an entity, and all the members it contains, for removal. 
+	 * Members which were registered by documents that are not translated
+	 * again are spared.
+	 * @param entity entity to be removed
+	 * @param condemned identity set of entities to be removed
+	 */
+	private void condemn(Entity entity, Set<Entity> condemned)
+	{
+		if (!condemned.add(entity)) return;
+		Scope<? extends Entity> scope = scopeOf(entity);
+		if (scope == null) return;
+		for (Entity member: membersOf(scope)) {
+			if (!m_documentOf.containsKey(member))
+				condemn(member, condemned);
+		}
+	}
+	
+	/**
+	 * Disconnects entities marked for removal from the rest of the program
+	 * database. Surviving members of removed scopes are detached, so they
+	 * can be added to the new versions of their containers; declarations
+	 * and definitions are removed from surviving source files, and entities
+	 * declared in removed source files are set to be fulfilled again.
+	 * @param condemned identity set of entities to be removed
+	 * @return Set surviving containers of removed entities
+	 */
+	private Set<Entity> discard(Set<Entity> condemned)
+	{
+		Set<Entity> containers = 
+			Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>());
+		Set<SourceFile> files = 
+			Collections.newSetFromMap(new IdentityHashMap<SourceFile, Boolean>());
+		for (Entity entity: condemned) {
+			if (entity.hasContainer() &&
+					!condemned.contains(entity.getContainer()))
+				containers.add(entity.getContainer());
+			// - detach surviving members
+			Scope<? extends Entity> scope = scopeOf(entity);
+			if (scope != null) {
+				Set<Entity> survivors = Collections.newSetFromMap(
+						new IdentityHashMap<Entity, Boolean>());
+				for (Entity member: membersOf(scope)) {
+					if (!condemned.contains(member)) survivors.add(member);
+				}
+				if (!survivors.isEmpty()) scope.removeMembers(survivors);
+			}
+			// - find surviving source files which refer to this entity
+			for (SourceFile.DeclDefConnection connection: new 
+					SourceFile.DeclDefConnection[] { entity.getDeclaration(),
+							entity.getDefinition() }) {
+				if (connection == null) continue;
+				try {
+					SourceFile source = connection.getSource();
+					if (!condemned.contains(source)) files.add(source);
+				}
+				catch (MissingInformationException e) {
+					/* not connected to a source file */
+				}
+			}
+			// - surviving entities declared in a removed source file
+			if (entity instanceof SourceFile) {
+				SourceFile source = (SourceFile)entity;
+				for (SourceFile.DeclDefConnection connection: 
+						source.getDeclarations()) {
+					unfulfill(connection, source.getFullName(), condemned);
+				}
+				for (Iterator<SourceFile.DeclDefConnection> di = 
+						source.definitionIterator(); di.hasNext(); ) {
+					unfulfill(di.next(), source.getFullName(), condemned);
+				}
+			}
+		}
+		for (SourceFile source: files) {
+			source.removeConnections(condemned);
+		}
+		m_global_byname.values().removeAll(condemned);
+		m_files_byname.values().removeAll(condemned);
+		return containers;
+	}
+	
+	/**
+	 * Turns the declaration or definition of a surviving entity into an
+	 * unfulfilled connection, to be fulfilled by fulfillSourceConnections().
+	 * @param connection connection to a source file which is removed
+	 * @param filename name of the source file
+	 * @param condemned identity set of entities to be removed
+	 */
+	private void unfulfill(SourceFile.DeclDefConnection connection,
+			String filename, Set<Entity> condemned)
+	{
+		Entity entity = connection.getDeclaredEntity();
+		if (condemned.contains(entity)) return;
+		if (entity.getDeclaration() == connection) {
+			entity.setDeclarationAt(filename, connection.where());
+			m_unfulfilled_declarations.add(entity.getDeclaration());
+		}
+		else if (entity.getDefinition() == connection) {
+			entity.setDefinitionAt(filename, connection.where());
+			m_unfulfilled_declarations.add(entity.getDefinition());
+		}
+	}
+	
+	/**
+	 * Puts the new versions of replaced entities in the positions of the
+	 * old ones, in containers which were kept. Entities which are already
+	 * contained elsewhere, or have not been translated yet, are skipped.
+	 * @param replaced old versions of entities, by registry id
+	 * @param condemned identity set of entities to be removed
+	 */
+	private void reinstate(Map<String, Entity> replaced, Set<Entity> condemned)
+	{
+		Map<String, Entity> current = m_registry.getSubscriptions();
+		for (Map.Entry<String, Entity> entry: replaced.entrySet()) {
+			Entity old = entry.getValue();
+			Entity replacement = current.get(entry.getKey());
+			if (replacement == null || replacement == old 
+					|| replacement.hasContainer() || !old.hasContainer())
+				continue;
+			Entity container = old.getContainer();
+			if (condemned.contains(container)) continue;
+			if (container == m_db) {
+				if (old instanceof SourceFile && replacement instanceof SourceFile)
+					m_db.replaceSourceFile((SourceFile)old, 
+							(SourceFile)replacement);
+			}
+			else {
+				Scope<? extends Entity> scope = scopeOf(container);
+				if (scope != null) scope.replaceMember(old, replacement);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the scope of a container entity.
+	 * @param entity an Aggregate or a Namespace
+	 * @return Scope the entity's scope, or <b>null</b> if it has none
+	 */
+	private static Scope<? extends Entity> scopeOf(Entity entity)
+	{
+		if (entity instanceof Aggregate)
+			return ((Aggregate)entity).getScope();
+		else if (entity instanceof Namespace)
+			return ((Namespace)entity).getScope();
+		else
+			return null;
+	}
+	
+	/**
+	 * Compacts all the scopes of an analyzed program, once no more members
+	 * are going to be added by the analysis.
+	 */
+	private static void compact(ProgramDatabase program)
+	{
+		compact(program.getGlobalNamespace().getScope());
+		compact(program.getExternals());
+	}
+
+	private static void compact(Scope<? extends Entity> scope)
+	{
+		scope.compact();
+		for (ContainedConnection<? extends Entity, Namespace> connection:
+				scope.getNamespaces())
+			compact(connection.getContained().getScope());
+		for (ContainedConnection<? extends Entity, Aggregate> connection:
+				scope.getAggregates())
+			compact(connection.getContained().getScope());
+	}
+	
+	/**
+	 * Lists the members of a scope, of all kinds.
+	 * @param scope a scope
+	 * @return List contained entities
+	 */
+	private static List<Entity> membersOf(Scope<? extends Entity> scope)
+	{
+		List<Entity> members = new ArrayList<Entity>();
+		for (ContainedConnection<? extends Entity, Routine> connection:
+				scope.getRoutines())
+			members.add(connection.getContained());
+		for (ContainedConnection<? extends Entity, Field> connection:
+				scope.getFields())
+			members.add(connection.getContained());
+		for (ContainedConnection<? extends Entity, Aggregate> connection:
+				scope.getAggregates())
+			members.add(connection.getContained());
+		for (ContainedConnection<? extends Entity, Namespace> connection:
+				scope.getNamespaces())
+			members.add(connection.getContained());
+		for (ContainedConnection<? extends Entity, sourceanalysis.Enum> 
+				connection: scope.getEnums())
+			members.add(connection.getContained());
+		for (ContainedConnection<? extends Entity, Alias> connection:
+				scope.getAliass())
+			members.add(connection.getContained());
+		return members;
+	}
+	
 	/**
 	 * Corrects properties of a friend function to a class. 
 	 * @param compound the class containing the friend declaration
@@ -1873,6 +2511,7 @@ public class DoxygenAnalyzer {
 			m_db.getGlobalNamespace().getScope().addMember(
 					emember, Specifiers.DONT_CARE, 
 					Specifiers.DONT_CARE, Specifiers.DONT_CARE);
+			contribute(emember);
 		}
 	}
 
@@ -1965,6 +2604,30 @@ public class DoxygenAnalyzer {
 	private List<Field> m_fieldsForRepair;
 	private List<InheritanceConnection> m_inheritanceForRepair;
 	private Map<String, ContainedConnection<Entity, Field>> m_globalFields_byname;
+	
+	// Bookkeeping for incremental analysis
+	private LinkedList<String> m_translating;  // documents being translated
+	private Map<String, Set<String>> m_references;
+	private Map<String, String> m_owners;
+	private Map<Entity, String> m_documentOf;
+	private Map<String, List<Entity>> m_contributions;
+	private Map<String, String> m_digests;
+	private AnalysisHistory m_history;
+	private TypeExpressionCache m_typeCache;
+	private boolean m_simpleTypes;
+	private int m_simpleTypeParses;
+	private int m_fullTypeParses;
 
 	public Logger logger;
+	
+	/**
+	 * Number of compound documents, per ingestion thread, which are
+	 * scheduled for parsing ahead of the compound currently translated.
+	 */
+	private static final int PREFETCH_DEPTH = 4;
+
+	private static final String TYPE_CACHE_PROPERTY
+		= "griffin.dox.typecache";
+	private static final String SIMPLE_TYPES_PROPERTY
+		= "griffin.dox.simpletypes";
 }
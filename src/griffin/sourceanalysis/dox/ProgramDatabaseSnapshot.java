@@ -0,0 +1,356 @@
+package sourceanalysis.dox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import sourceanalysis.ProgramDatabase;
+
+/**
+ * Stores a ProgramDatabase in a binary file, so that subsequent runs on the
+ * same input can skip the analysis of the Doxygen(r) XML.
+ * <p>The snapshot is tagged with a key, normally the digest of the XML input
+ * as computed by DoxygenAnalyzer.digestInput(). A snapshot is only loaded
+ * when its key matches the requested one; otherwise the caller is expected
+ * to analyze the input and save a new snapshot in place of the old one.</p>
+ * <p>The snapshot may also hold the AnalysisHistory of the program
+ * database, in which case a snapshot of a previous version of the input can
+ * be patched by DoxygenAnalyzer.processIndex(ProgramDatabase,
+ * AnalysisHistory) instead of analyzing the input from scratch.</p>
+ * <p>The entity graph is written using Java serialization. Besides its key,
+ * the snapshot records the BuildStamp of the Griffin which wrote it, and is
+ * only read by that same build: another build may analyze the same input
+ * differently even when the classes of the program database keep their
+ * shape, so the snapshot is considered stale, neither loaded nor patched.</p>
+ * <p>A snapshot may also be kept in memory rather than in a file, by a
+ * process which serves several runs; it is then stored uncompressed, and
+ * every read() still returns a fresh copy of the program database.</p>
+ *
+ * <h1>Example</h1>
+ * <pre>
+ * ProgramDatabaseSnapshot snapshot = new ProgramDatabaseSnapshot(file);
+ * String key = analyzer.digestInput();
+ * ProgramDatabase p = snapshot.load(key);
+ * if (p == null) {
+ *     p = analyzer.processIndex();
+ *     snapshot.save(p, key);
+ * }
+ * </pre>
+ */
+public class ProgramDatabaseSnapshot {
+
+	/**
+	 * The contents of a snapshot file.
+	 */
+	public static class Contents
+	{
+		Contents(String key, ProgramDatabase program, AnalysisHistory history)
+		{
+			m_key = key;
+			m_program = program;
+			m_history = history;
+		}
+		
+		/**
+		 * Returns the key with which the snapshot was saved.
+		 * @return String key of the input
+		 */
+		public String getKey() { return m_key; }
+		
+		/**
+		 * Returns the stored program database.
+		 * @return ProgramDatabase program database
+		 */
+		public ProgramDatabase getProgram() { return m_program; }
+		
+		/**
+		 * Returns the analysis history of the program database.
+		 * @return AnalysisHistory history, or <b>null</b> if none was saved
+		 */
+		public AnalysisHistory getHistory() { return m_history; }
+		
+		private String m_key;
+		private ProgramDatabase m_program;
+		private AnalysisHistory m_history;
+	}
+
+	/**
+	 * Constructor for ProgramDatabaseSnapshot.
+	 * @param file location of the snapshot file; it need not exist
+	 */
+	public ProgramDatabaseSnapshot(File file)
+	{
+		m_file = file;
+	}
+
+	/**
+	 * Constructor for ProgramDatabaseSnapshot - creates a snapshot which is
+	 * held in memory. It is empty until the first save().
+	 */
+	public ProgramDatabaseSnapshot()
+	{
+		m_file = null;
+		m_image = null;
+	}
+
+	/**
+	 * Reads the program database from the snapshot file, if it was saved
+	 * with the given key.
+	 * @param key the key of the current input
+	 * @return ProgramDatabase the stored program database, or <b>null</b> if
+	 *   there is no snapshot, it was saved for another input or by another
+	 *   build of Griffin, or it cannot be read
+	 */
+	public ProgramDatabase load(String key)
+	{
+		Contents contents = read();
+		if (contents == null || !contents.getKey().equals(key))
+			return null;
+		return contents.getProgram();
+	}
+
+	/**
+	 * Reads the snapshot file regardless of its key.
+	 * @return Contents the stored program database, key and history, or
+	 *   <b>null</b> if there is no snapshot, it was written by another build
+	 *   of Griffin, or it cannot be read
+	 */
+	public Contents read()
+	{
+		if (m_file == null ? m_image == null : !m_file.isFile()) return null;
+		try {
+			return deeply(new Callable<Contents>() {
+				public Contents call() throws Exception {
+					return readContents();
+				}
+			});
+		}
+		catch (Exception e) {
+			System.err.println("*** WARNING: ignoring snapshot "
+					+ (m_file == null ? "in memory" : m_file.toString())
+					+ ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a program database to the snapshot file, replacing any previous
+	 * snapshot.
+	 * @param program the program database to store
+	 * @param key the key of the input from which 'program' was created
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(ProgramDatabase program, String key)
+		throws IOException
+	{
+		save(program, key, null);
+	}
+
+	/**
+	 * Writes a program database and its analysis history to the snapshot
+	 * file, replacing any previous snapshot.
+	 * @param program the program database to store
+	 * @param key the key of the input from which 'program' was created
+	 * @param history the history of the analysis which created 'program';
+	 *   may be <b>null</b>
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(final ProgramDatabase program, final String key,
+			final AnalysisHistory history) throws IOException
+	{
+		try {
+			deeply(new Callable<Object>() {
+				public Object call() throws IOException {
+					write(program, key, history);
+					return null;
+				}
+			});
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException("failed to save snapshot: " + e);
+		}
+	}
+
+	private Contents readContents()
+		throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream in = new ObjectInputStream((m_file == null)
+				? new ByteArrayInputStream(m_image)
+				: new GZIPInputStream(new BufferedInputStream(
+						new FileInputStream(m_file), BUFFER_SIZE)));
+		try {
+			if (!MAGIC.equals(in.readUTF())
+					|| !BuildStamp.get().equals(in.readUTF()))
+				return null;
+			String key = in.readUTF();
+			ProgramDatabase program = (ProgramDatabase)in.readObject();
+			AnalysisHistory history = (AnalysisHistory)in.readObject();
+			return new Contents(key, program, history);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private void write(ProgramDatabase program, String key,
+			AnalysisHistory history)
+		throws IOException
+	{
+		if (m_file == null) {
+			ByteArrayOutputStream image = new ByteArrayOutputStream();
+			write(new ObjectOutputStream(image), program, key, history);
+			m_image = image.toByteArray();
+			return;
+		}
+		// Write to a temporary file first, so that an interrupted run does
+		// not leave a truncated snapshot behind
+		File temp = new File(m_file.getPath() + ".tmp");
+		write(new ObjectOutputStream(
+				new GZIPOutputStream(new BufferedOutputStream(
+						new FileOutputStream(temp), BUFFER_SIZE))),
+				program, key, history);
+		m_file.delete();
+		if (!temp.renameTo(m_file))
+			throw new IOException("cannot rename " + temp + " to " + m_file);
+	}
+
+	private static void write(ObjectOutputStream out, ProgramDatabase program,
+			String key, AnalysisHistory history)
+		throws IOException
+	{
+		try {
+			out.writeUTF(MAGIC);
+			out.writeUTF(BuildStamp.get());
+			out.writeUTF(key);
+			out.writeObject(program);
+			out.writeObject(history);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Copies an object graph, substituting objects along the way. Every
+	 * reference to a key of 'replacements' anywhere in the graph is
+	 * replaced by a reference to the copy of the corresponding value.
+	 * Objects which are shared between the elements of 'graph' remain
+	 * shared in the copy.
+	 * @param graph roots of the object graph; all reachable objects must
+	 *   be serializable
+	 * @param replacements objects to replace, mapped to their substitutes;
+	 *   this should be an identity-based map
+	 * @return Object[] copies of the roots
+	 * @throws IOException if the graph cannot be copied
+	 */
+	static Object[] substitute(final Object[] graph,
+			final Map<Object, Object> replacements) throws IOException
+	{
+		try {
+			return deeply(new Callable<Object[]>() {
+				public Object[] call() throws Exception {
+					ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+					ObjectOutputStream out =
+						new SubstitutingOutputStream(buffer, replacements);
+					out.writeObject(graph);
+					out.close();
+					ObjectInputStream in = new ObjectInputStream(
+						new ByteArrayInputStream(buffer.toByteArray()));
+					return (Object[])in.readObject();
+				}
+			});
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException("failed to copy program database: " + e);
+		}
+	}
+
+	/**
+	 * An object stream which writes replacements in place of some objects.
+	 */
+	private static class SubstitutingOutputStream extends ObjectOutputStream
+	{
+		SubstitutingOutputStream(OutputStream out,
+				Map<Object, Object> replacements) throws IOException
+		{
+			super(out);
+			m_replacements = replacements;
+			enableReplaceObject(true);
+		}
+		
+		@Override
+		protected Object replaceObject(Object obj)
+		{
+			Object replacement = m_replacements.get(obj);
+			return (replacement == null) ? obj : replacement;
+		}
+		
+		private Map<Object, Object> m_replacements;
+	}
+
+	/**
+	 * Runs a task on a thread with a large stack. Serialization follows
+	 * references between entities recursively, and the chains formed by
+	 * containment, inheritance and types may be very long.
+	 */
+	private static <T> T deeply(final Callable<T> task) throws Exception
+	{
+		final Object[] result = new Object[1];
+		final Exception[] error = new Exception[1];
+		Thread worker = new Thread(null, new Runnable() {
+			public void run() {
+				try {
+					result[0] = task.call();
+				}
+				catch (Exception e) {
+					error[0] = e;
+				}
+				catch (StackOverflowError e) {
+					error[0] = new IOException("program database too deep");
+				}
+			}
+		}, "griffin-snapshot", STACK_SIZE);
+		worker.start();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				worker.join();
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		if (error[0] != null) throw error[0];
+		@SuppressWarnings("unchecked")
+		T value = (T)result[0];
+		return value;
+	}
+
+	private File m_file;
+	// The snapshot, when it is kept in memory
+	private byte[] m_image;
+
+	private static final String MAGIC = "griffin-program-database-3";
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final long STACK_SIZE = 1L << 30;
+}
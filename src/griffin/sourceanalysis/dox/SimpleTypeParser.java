@@ -0,0 +1,387 @@
+package sourceanalysis.dox;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+
+import sourceanalysis.DataTemplateArgument;
+import sourceanalysis.Entity;
+import sourceanalysis.Specifiers;
+import sourceanalysis.TypenameTemplateArgument;
+import sourceanalysis.Type;
+
+/**
+ * Parses the type-expressions which make up most of the Doxygen(r) output
+ * without going through the ANTLR TypeExpressionParser.
+ * <p>The shapes recognized are: cv-qualifiers, a qualified name or a
+ * built-in type, optional template arguments (types or integers), a
+ * trailing qualified name after the template arguments, pointers and
+ * references, and an optional declarator name. Trees are built exactly as
+ * TypeExpressionParser would build them - the same nodes, with names
+ * resolved in the same order.</p>
+ * <p>Anything else - function types, arrays, pointers to members,
+ * initializers, or input which the full grammar would only partially
+ * consume - is rejected, and left for TypeExpressionParser. The input is
+ * first checked without resolving any names, so a rejected expression has
+ * no side effects.</p>
+ */
+class SimpleTypeParser {
+
+	/**
+	 * Parses a type-expression, if it has one of the common shapes.
+	 * @param expr C++ string for type
+	 * @param resolver used to find the entities named in the expression
+	 * @return Type.TypeNode root of the type-expression (not normalized
+	 * yet), or <b>null</b> if the expression should be given to
+	 * TypeExpressionParser
+	 */
+	static Type.TypeNode parse(String expr, EntityNameResolving resolver)
+	{
+		SimpleTypeParser parser = new SimpleTypeParser(expr);
+		if (!parser.tokenize()) return null;
+		// Check the whole expression first, then build it
+		if (parser.typeexpr() == null || parser.m_kinds[parser.m_pos] != END)
+			return null;
+		parser.m_resolver = resolver;
+		parser.m_pos = 0;
+		return parser.typeexpr();
+	}
+
+	private SimpleTypeParser(String expr)
+	{
+		m_expr = expr;
+		m_kinds = new int[expr.length() + 1];
+		m_starts = new int[expr.length() + 1];
+		m_ends = new int[expr.length() + 1];
+	}
+
+	/**
+	 * @name Lexer
+	 */
+	/*@{*/
+
+	/**
+	 * Splits the expression into tokens, like TypeExpressionLexer does.
+	 * @return <b>false</b> if the expression contains characters which
+	 * are not handled here
+	 */
+	private boolean tokenize()
+	{
+		int n = 0, i = 0, len = m_expr.length();
+		while (i < len) {
+			char c = m_expr.charAt(i);
+			int start = i, kind;
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				++i;
+				continue;
+			}
+			else if (isIdentifierStart(c)) {
+				while (i < len && isIdentifierPart(m_expr.charAt(i))) ++i;
+				kind = keyword(start, i);
+				if (kind == SKIP) continue;
+				if (kind == REJECT) return false;
+			}
+			else if (isDigit(c) || ((c == '-' || c == '+') && i + 1 < len
+					&& isDigit(m_expr.charAt(i + 1)))) {
+				++i;
+				while (i < len && isDigit(m_expr.charAt(i))) ++i;
+				if (i < len && (m_expr.charAt(i) == 'l'
+						|| m_expr.charAt(i) == 'L')) ++i;
+				kind = NUMBER;
+			}
+			else if (c == ':' && m_expr.startsWith("::", i)) {
+				i += 2;
+				kind = QUAD;
+			}
+			else if (c == '.' && m_expr.startsWith("...", i)) {
+				i += 3;
+				kind = ELLIPSIS;
+			}
+			else {
+				++i;
+				switch (c) {
+				case '<': kind = OPEN_ANGLE; break;
+				case '>': kind = CLOSE_ANGLE; break;
+				case ',': kind = COMMA; break;
+				case '*': kind = STAR; break;
+				case '&': kind = AMPERSAND; break;
+				default: return false;
+				}
+			}
+			m_kinds[n] = kind;
+			m_starts[n] = start;
+			m_ends[n] = i;
+			++n;
+		}
+		m_kinds[n] = END;
+		return true;
+	}
+
+	/**
+	 * Classifies an identifier. Words which TypeExpressionLexer skips are
+	 * skipped; the lexer also skips them at the beginning of a longer
+	 * identifier, which is left for it to deal with.
+	 */
+	private int keyword(int start, int end)
+	{
+		for (String key: SKIPPED) {
+			if (m_expr.startsWith(key, start))
+				return (end - start == key.length()) ? SKIP : REJECT;
+		}
+		int length = end - start;
+		for (int k = 0; k < KEYWORDS.length; ++k) {
+			if (KEYWORDS[k].length() == length
+					&& m_expr.startsWith(KEYWORDS[k], start))
+				return FIRST_KEYWORD + k;
+		}
+		return ID;
+	}
+
+	private static boolean isIdentifierStart(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	private static boolean isIdentifierPart(char c)
+	{
+		return isIdentifierStart(c) || isDigit(c);
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	/*@}*/
+
+	/**
+	 * @name Parser
+	 * Each of these follows the rule of the same name in TypeExpression.g.
+	 * While checking (m_resolver is <b>null</b>) no nodes are created and
+	 * CHECKED is returned instead; <b>null</b> is returned when the input
+	 * is not handled.
+	 */
+	/*@{*/
+
+	private Type.TypeNode typeexpr()
+	{
+		Type.TypeNode base = basename();
+		return (base == null) ? null : declarator(base);
+	}
+
+	private Type.TypeNode basename()
+	{
+		int cvflags = cvs();
+		Type.TypeNode node;
+		int kind = m_kinds[m_pos];
+		if (kind == ID || kind == QUAD) {
+			String name = nestedName();
+			if (name == null) return null;
+			if (m_kinds[m_pos] == OPEN_ANGLE) {
+				node = templateId(name);
+				if (node == null) return null;
+				if (m_kinds[m_pos] == QUAD) {
+					++m_pos;
+					String member = nestedName();
+					if (member == null) return null;
+					if (building()) node = new Type.TypeNode(
+						m_resolver.resolve(node.formatCpp() + "::" + member));
+				}
+			}
+			else {
+				node = building()
+					? new Type.TypeNode(m_resolver.resolve(name)) : CHECKED;
+			}
+		}
+		else {
+			node = basicType();
+			if (node == null || m_kinds[m_pos] == QUAD) return null;
+		}
+		cvflags |= cvs();
+		if (building()) node.setCV(cvflags);
+		return node;
+	}
+
+	private Type.TypeNode declarator(Type.TypeNode base)
+	{
+		Type.TypeNode decl = base;
+		while (m_kinds[m_pos] == STAR || m_kinds[m_pos] == AMPERSAND) {
+			int nodeType = (m_kinds[m_pos] == STAR)
+				? Type.TypeNode.NODE_POINTER : Type.TypeNode.NODE_REFERENCE;
+			++m_pos;
+			int cvflags = cvs();
+			if (building()) {
+				Type.TypeNode pnode = new Type.TypeNode(nodeType);
+				pnode.add(decl);
+				pnode.setCV(cvflags);
+				decl = pnode;
+			}
+		}
+		// Declarator name, unless it begins a pointer to member
+		if (m_kinds[m_pos] == ID) {
+			++m_pos;
+			if (m_kinds[m_pos] == QUAD) return null;
+		}
+		else if (m_kinds[m_pos] == QUAD) return null;
+		return decl;
+	}
+
+	private Type.TypeNode templateId(String templateName)
+	{
+		Type.TypeNode node = CHECKED;
+		if (building()) {
+			node = new Type.TypeNode(
+					Type.TypeNode.NODE_TEMPLATE_INSTANTIATION);
+			node.add(new Type.TypeNode(m_resolver.resolve(templateName)));
+		}
+		++m_pos; // OPEN_ANGLE
+		do {
+			if (m_kinds[m_pos] == NUMBER) {
+				if (building()) node.add(new DefaultMutableTreeNode(
+						new DataTemplateArgument(text(m_pos))));
+				++m_pos;
+			}
+			else {
+				Type.TypeNode arg = typeexpr();
+				if (arg == null) return null;
+				if (building()) node.add(new DefaultMutableTreeNode(
+						new TypenameTemplateArgument(new Type(arg))));
+			}
+		} while (m_kinds[m_pos++] == COMMA);
+		return (m_kinds[m_pos - 1] == CLOSE_ANGLE) ? node : null;
+	}
+
+	private Type.TypeNode basicType()
+	{
+		String sign = "", base = "int";
+		int kind = m_kinds[m_pos];
+		if (kind == ELLIPSIS) {
+			++m_pos;
+			return building()
+				? new Type.TypeNode(Type.TypeNode.NODE_ELLIPSIS) : CHECKED;
+		}
+		if (kind == SIGNED || kind == UNSIGNED) {
+			sign = (kind == SIGNED) ? "signed " : "unsigned ";
+			kind = m_kinds[++m_pos];
+			if (kind != CHAR && kind != SHORT && kind != INT && kind != LONG)
+				kind = NONE;
+		}
+		switch (kind) {
+		case NONE: break;
+		case SHORT:
+			base = "short";
+			if (m_kinds[++m_pos] == INT) ++m_pos;
+			break;
+		case LONG:
+			base = "long";
+			kind = m_kinds[++m_pos];
+			if (kind == INT) ++m_pos;
+			else if (kind == DOUBLE) { base = "long double"; ++m_pos; }
+			else if (kind == LONG) {
+				base = "long long";
+				if (m_kinds[++m_pos] == INT) ++m_pos;
+			}
+			break;
+		case CHAR: case WCHAR: case BOOL: case INT: case FLOAT: case DOUBLE:
+		case VOID:
+			base = KEYWORDS[kind - FIRST_KEYWORD];
+			++m_pos;
+			break;
+		default:
+			return null;
+		}
+		return building()
+			? new Type.TypeNode(m_resolver.resolvePrimitive(sign + base))
+			: CHECKED;
+	}
+
+	private String nestedName()
+	{
+		int start = m_pos;
+		if (m_kinds[m_pos] == QUAD) ++m_pos;
+		if (m_kinds[m_pos] != ID) return null;
+		++m_pos;
+		while (m_kinds[m_pos] == QUAD) {
+			if (m_kinds[++m_pos] != ID) return null;
+			++m_pos;
+		}
+		if (!building()) return "";
+		// Same as the ANTLR parser, which drops whitespace between tokens
+		StringBuffer sb = new StringBuffer();
+		for (int i = start; i < m_pos; ++i) {
+			sb.append(m_expr, m_starts[i], m_ends[i]);
+		}
+		return sb.toString();
+	}
+
+	private int cvs()
+	{
+		int cvflags = Specifiers.CVQualifiers.NONE;
+		for (;; ++m_pos) {
+			if (m_kinds[m_pos] == CONST)
+				cvflags |= Specifiers.CVQualifiers.CONST;
+			else if (m_kinds[m_pos] == VOLATILE)
+				cvflags |= Specifiers.CVQualifiers.VOLATILE;
+			else
+				return cvflags;
+		}
+	}
+
+	private boolean building()
+	{
+		return m_resolver != null;
+	}
+
+	private String text(int token)
+	{
+		return m_expr.substring(m_starts[token], m_ends[token]);
+	}
+
+	/*@}*/
+
+	private String m_expr;
+	private int[] m_kinds;
+	private int[] m_starts;
+	private int[] m_ends;
+	private int m_pos;
+	private EntityNameResolving m_resolver;
+
+	// Token kinds
+	private static final int END = 0;
+	private static final int ID = 1;
+	private static final int NUMBER = 2;
+	private static final int QUAD = 3;
+	private static final int ELLIPSIS = 4;
+	private static final int OPEN_ANGLE = 5;
+	private static final int CLOSE_ANGLE = 6;
+	private static final int COMMA = 7;
+	private static final int STAR = 8;
+	private static final int AMPERSAND = 9;
+	private static final int SKIP = 10;
+	private static final int REJECT = 11;
+	private static final int NONE = 12;
+	private static final int FIRST_KEYWORD = 16;
+	private static final String[] KEYWORDS = { "const", "volatile",
+		"signed", "unsigned", "char", "wchar", "bool", "short", "int", "long",
+		"float", "double", "void" };
+	private static final int CONST = FIRST_KEYWORD;
+	private static final int VOLATILE = FIRST_KEYWORD + 1;
+	private static final int SIGNED = FIRST_KEYWORD + 2;
+	private static final int UNSIGNED = FIRST_KEYWORD + 3;
+	private static final int CHAR = FIRST_KEYWORD + 4;
+	private static final int WCHAR = FIRST_KEYWORD + 5;
+	private static final int BOOL = FIRST_KEYWORD + 6;
+	private static final int SHORT = FIRST_KEYWORD + 7;
+	private static final int INT = FIRST_KEYWORD + 8;
+	private static final int LONG = FIRST_KEYWORD + 9;
+	private static final int FLOAT = FIRST_KEYWORD + 10;
+	private static final int DOUBLE = FIRST_KEYWORD + 11;
+	private static final int VOID = FIRST_KEYWORD + 12;
+
+	/** Words skipped by TypeExpressionLexer (the KEY rule) */
+	private static final String[] SKIPPED = { "virtual", "static", "mutable",
+		"MUTABLE", "register", "DLLTAG", "inline", "friend", "typename",
+		"struct", "class", "enum" };
+
+	/** Placeholder returned while checking the input */
+	private static final Type.TypeNode CHECKED =
+		new Type.TypeNode(Type.TypeNode.NODE_X_BLANK);
+}
@@ -0,0 +1,210 @@
+package sourceanalysis.dox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads a Doxygen(r) XML document using a SAX parser, keeping only the
+ * elements which the DoxygenAnalyzer actually translates.
+ * <p>Compound documents generated by Doxygen carry a large amount of
+ * information which is of no interest to the analyzer: program listings,
+ * inheritance and collaboration graphs, the list of all members including
+ * inherited ones, cross-references between routines, and indentation
+ * whitespace between elements. A full DOM parse keeps all of these in
+ * memory for as long as the document is cached. This reader drops them
+ * while streaming, so the resulting tree contains only the nodes that the
+ * translation algorithm visits, and therefore yields the same entities.</p>
+ */
+class StreamingDocumentReader extends DefaultHandler {
+
+	/**
+	 * Reads an XML file into a sparse DOM tree.
+	 * @param documentfile XML file
+	 * @return Document the sparse XML document
+	 * @throws IOException if the file cannot be read
+	 * @throws SAXException if the document is malformed
+	 */
+	public static Document read(File documentfile)
+		throws IOException, SAXException
+	{
+		StreamingDocumentReader handler = new StreamingDocumentReader();
+		org.apache.xerces.parsers.SAXParser p =
+			new org.apache.xerces.parsers.SAXParser();
+		p.setContentHandler(handler);
+		p.setErrorHandler(handler);
+		p.parse(documentfile.toString());
+		return handler.m_document;
+	}
+
+	private StreamingDocumentReader() throws IOException
+	{
+		m_document = domImplementation().createDocument(null, null, null);
+		m_open = new LinkedList<Node>();
+		m_open.addFirst(m_document);
+		m_text = new StringBuffer();
+		m_skipping = 0;
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes)
+	{
+		if (m_skipping > 0 || (SKIPPED.contains(qName) && 
+				DEFINITIONS.contains(m_open.getFirst().getNodeName()))) {
+			m_skipping++;
+			return;
+		}
+		flushText();
+		Element element = m_document.createElement(qName);
+		for (int i = 0; i < attributes.getLength(); ++i) {
+			element.setAttribute(attributes.getQName(i),
+					attributes.getValue(i));
+		}
+		m_open.getFirst().appendChild(element);
+		m_open.addFirst(element);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName)
+	{
+		if (m_skipping > 0) {
+			m_skipping--;
+			return;
+		}
+		flushText();
+		m_open.removeFirst();
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length)
+	{
+		if (m_skipping == 0)
+			m_text.append(ch, start, length);
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length)
+	{
+		characters(ch, start, length);
+	}
+
+	@Override
+	public void error(org.xml.sax.SAXParseException e) throws SAXException
+	{
+		throw e;
+	}
+
+	/**
+	 * Creates a DOM parser. The one registered by the Xerces on the class
+	 * path is preferred; that Xerces predates the DOM Level 3 interfaces of
+	 * recent JDKs, though, and its DOM cannot be loaded there, in which case
+	 * the platform's own parser is used instead.
+	 * @return DocumentBuilder a new parser, for use by one thread
+	 * @throws IOException if no parser is available
+	 */
+	static synchronized DocumentBuilder newDocumentBuilder()
+		throws IOException
+	{
+		try {
+			if (m_factory != null) return m_factory.newDocumentBuilder();
+			m_factory = DocumentBuilderFactory.newInstance();
+			try {
+				return m_factory.newDocumentBuilder();
+			}
+			catch (LinkageError e) {
+				m_factory = DocumentBuilderFactory.newInstance(
+						PLATFORM_FACTORY, null);
+				return m_factory.newDocumentBuilder();
+			}
+		}
+		catch (ParserConfigurationException e) {
+			throw new IOException("cannot create an XML parser", e);
+		}
+	}
+
+	private static synchronized DOMImplementation domImplementation()
+		throws IOException
+	{
+		if (m_domImplementation == null)
+			m_domImplementation = newDocumentBuilder().getDOMImplementation();
+		return m_domImplementation;
+	}
+
+	/**
+	 * Appends text accumulated since the last element boundary as a text
+	 * node. Whitespace is dropped where it only serves for indentation,
+	 * that is, inside elements whose text is never collected.
+	 */
+	private void flushText()
+	{
+		if (m_text.length() == 0) return;
+		Node parent = m_open.getFirst();
+		if (!isWhitespace(m_text) ||
+				!ELEMENT_ONLY.contains(parent.getNodeName())) {
+			if (parent != m_document)
+				parent.appendChild(m_document.createTextNode(m_text.toString()));
+		}
+		m_text.setLength(0);
+	}
+
+	private static boolean isWhitespace(CharSequence text)
+	{
+		for (int i = 0; i < text.length(); ++i) {
+			if (!Character.isWhitespace(text.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Elements whose sub-trees are not used by the DoxygenAnalyzer, when
+	 * they occur directly under one of the DEFINITIONS (the same tags may
+	 * appear inside descriptions, where they are kept).
+	 */
+	private static final Set<String> SKIPPED = new HashSet<String>(
+		Arrays.asList(new String[] {
+			"listofallmembers", "programlisting", "inheritancegraph",
+			"collaborationgraph", "incdepgraph", "invincdepgraph",
+			"references", "referencedby", "reimplements", "reimplementedby",
+			"derivedcompoundref", "includes", "includedby",
+			"inbodydescription" }));
+
+	private static final Set<String> DEFINITIONS = new HashSet<String>(
+		Arrays.asList(new String[] { "compounddef", "memberdef" }));
+
+	/**
+	 * Elements which only contain other elements, so whitespace directly
+	 * underneath them is insignificant.
+	 */
+	private static final Set<String> ELEMENT_ONLY = new HashSet<String>(
+		Arrays.asList(new String[] {
+			"doxygen", "doxygenindex", "compounddef", "compound",
+			"sectiondef", "memberdef", "member", "templateparamlist",
+			"enumvalue" }));
+
+	private static final String PLATFORM_FACTORY =
+		"com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderFactoryImpl";
+
+	private static DocumentBuilderFactory m_factory;
+	private static DOMImplementation m_domImplementation;
+
+	private Document m_document;
+	private LinkedList<Node> m_open;
+	private StringBuffer m_text;
+	private int m_skipping;
+}
@@ -0,0 +1,196 @@
+package sourceanalysis.dox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sourceanalysis.Entity;
+import sourceanalysis.Primitive;
+import sourceanalysis.Type;
+
+/**
+ * Remembers the type-expressions parsed by DoxygenAnalyzer.parseType(), so
+ * that every distinct expression is only parsed once.
+ * <p>Entries are keyed by the text of the expression together with the
+ * map of references found next to it in the XML. The names in the
+ * expression are also resolved through the analyzer's scopes, which change
+ * as the analysis goes on; so each entry records which entity every name
+ * resolved to, and on a lookup the names are resolved again (a few map
+ * lookups, which also repeat any side effects the resolution has). The
+ * cached type is only used if all of them still resolve to the same
+ * entities - otherwise the expression is parsed again.</p>
+ * <p>Types are immutable, so the cached type itself is returned.</p>
+ */
+class TypeExpressionCache {
+
+	/**
+	 * Constructor for TypeExpressionCache.
+	 */
+	TypeExpressionCache()
+	{
+		m_entries = new HashMap<Key, Entry>();
+	}
+
+	/**
+	 * Looks for a previously parsed expression.
+	 * @param expr C++ string for type
+	 * @param names references which accompany the expression
+	 * @param resolver resolution currently in effect
+	 * @return Type the cached type, or <b>null</b> if the
+	 * expression has to be parsed
+	 */
+	Type lookup(String expr, Map<String, Entity> names,
+			EntityNameResolving resolver)
+	{
+		Entry entry = m_entries.get(new Key(expr, names));
+		if (entry != null && entry.replay(resolver)) {
+			++m_hits;
+			return entry.m_type;
+		}
+		++m_misses;
+		return null;
+	}
+
+	/**
+	 * Starts recording the names resolved while parsing an expression.
+	 * @param resolver resolution currently in effect
+	 * @return Recording a resolution which delegates to the given one and
+	 * should be handed to the parser
+	 */
+	Recording record(EntityNameResolving resolver)
+	{
+		return new Recording(resolver);
+	}
+
+	/**
+	 * Remembers a parsed expression.
+	 * @param expr C++ string for type
+	 * @param names references which accompany the expression
+	 * @param recording the resolution used by the parser
+	 * @param type result of the parse
+	 */
+	void store(String expr, Map<String, Entity> names, Recording recording,
+			Type type)
+	{
+		m_entries.put(new Key(expr, new HashMap<String, Entity>(names)),
+				new Entry(type, recording));
+	}
+
+	/**
+	 * Returns the number of expressions served from the cache.
+	 */
+	int getHits() { return m_hits; }
+
+	/**
+	 * Returns the number of expressions which had to be parsed.
+	 */
+	int getMisses() { return m_misses; }
+
+	/**
+	 * An expression together with its references.
+	 */
+	private static class Key
+	{
+		Key(String expr, Map<String, Entity> names)
+		{
+			m_expr = expr;
+			m_names = names;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof Key)) return false;
+			Key key = (Key)other;
+			return m_expr.equals(key.m_expr) && m_names.equals(key.m_names);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return m_expr.hashCode() * 31 + m_names.hashCode();
+		}
+
+		private String m_expr;
+		private Map<String, Entity> m_names;
+	}
+
+	/**
+	 * A parsed type and the resolutions it depends on.
+	 */
+	private static class Entry
+	{
+		Entry(Type type, Recording recording)
+		{
+			m_type = type;
+			m_names = recording.m_names.toArray(new String[0]);
+			m_primitive = new boolean[m_names.length];
+			for (int i = 0; i < m_names.length; ++i)
+				m_primitive[i] = recording.m_primitive.get(i);
+			m_resolved = recording.m_resolved.toArray(new Entity[0]);
+		}
+
+		/**
+		 * Resolves the names again, in the same order as the parser did.
+		 * @return <b>true</b> if every name resolved to the same entity
+		 */
+		boolean replay(EntityNameResolving resolver)
+		{
+			for (int i = 0; i < m_names.length; ++i) {
+				Entity entity = m_primitive[i]
+					? resolver.resolvePrimitive(m_names[i])
+					: resolver.resolve(m_names[i]);
+				if (entity != m_resolved[i]) return false;
+			}
+			return true;
+		}
+
+		private Type m_type;
+		private String[] m_names;
+		private boolean[] m_primitive;
+		private Entity[] m_resolved;
+	}
+
+	/**
+	 * Keeps track of the names resolved by the parser.
+	 */
+	static class Recording implements EntityNameResolving
+	{
+		Recording(EntityNameResolving resolver)
+		{
+			m_resolver = resolver;
+			m_names = new ArrayList<String>();
+			m_primitive = new ArrayList<Boolean>();
+			m_resolved = new ArrayList<Entity>();
+		}
+
+		public Entity resolve(String name)
+		{
+			return note(name, false, m_resolver.resolve(name));
+		}
+
+		public Primitive resolvePrimitive(String name)
+		{
+			return note(name, true, m_resolver.resolvePrimitive(name));
+		}
+
+		private <E extends Entity> E note(String name, boolean primitive,
+				E entity)
+		{
+			m_names.add(name);
+			m_primitive.add(primitive);
+			m_resolved.add(entity);
+			return entity;
+		}
+
+		private EntityNameResolving m_resolver;
+		private List<String> m_names;
+		private List<Boolean> m_primitive;
+		private List<Entity> m_resolved;
+	}
+
+	private Map<Key, Entry> m_entries;
+	private int m_hits;
+	private int m_misses;
+}
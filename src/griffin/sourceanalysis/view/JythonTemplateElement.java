@@ -2,8 +2,12 @@ package sourceanalysis.view;
 
 import java.util.Iterator;
 
+import org.python.core.Py;
+import org.python.core.PyCode;
 import org.python.core.PyObject;
 import org.python.core.PySequence;
+import org.python.core.PyStringMap;
+import org.python.core.__builtin__;
 import org.python.util.PythonInterpreter;
 
 import sourceanalysis.ContainedConnection;
@@ -75,38 +79,70 @@ public class JythonTemplateElement extends ScriptingTemplateElement {
 	 */
 	public JythonTemplateElement(String script) {
 		super(script);
-		
+		sharedNamespace();
+	}
+
+	/**
+	 * Returns the namespace prepared by the interpreter which is shared by
+	 * all the elements; it is created when the first element is.
+	 * @return PyStringMap the interpreter's namespace - it must not be
+	 * modified, evaluations are done in copies of it
+	 */
+	private static synchronized PyStringMap sharedNamespace()
+	{
 		if (m_interp == null) {
 			m_interp = new PythonInterpreter();
 			m_interp.exec("from sourceanalysis.view import JythonIterator");
+			m_namespace = (PyStringMap)m_interp.getLocals();
+		}
+		return m_namespace;
+	}
+
+	/**
+	 * Compiles the instructions of the element, the first time they are
+	 * needed; the same code object is run on every fill.
+	 * @return PyCode compiled expression
+	 * @throws org.python.core.PyException if the instructions are not a
+	 * valid Python expression
+	 */
+	private PyCode code()
+	{
+		if (m_code == null) {
+			m_code = __builtin__.compile(getInstructions(), "<string>", "eval");
 		}
+		return m_code;
 	}
 
 	/**
 	 * @see sourceanalysis.view.TemplateElement#extractText(AbstractScope)
 	 */
 	public String extractText(AbstractScope context, Perspective perspective) {
+		// Variables are bound in a fresh copy of the shared namespace, since
+		// refill() may fill other elements (or this one) before this
+		// evaluation is over
+		PyStringMap namespace = sharedNamespace().copy();
 		// Add members of the scope as variables to the interpreter environment
 		for (java.util.Map.Entry<String, Entity> entry: context.getDecls()) {
 			try {
 				String varname = entry.getKey();
 				Entity varobj = entry.getValue();
 				// Set variable
-				m_interp.set(varname, varobj);
+				namespace.__setitem__(varname, Py.java2py(varobj));
 			}
 			catch (ClassCastException e) {
 				System.err.println("*** Warning: invalid member encountered in scope: " + e.getMessage());
 			}
 		}
 		// Add the active context too
-		m_interp.set("context", new ActiveContext(context, perspective));
-		m_interp.set("perspective", perspective);
+		namespace.__setitem__("context",
+				Py.java2py(new ActiveContext(context, perspective)));
+		namespace.__setitem__("perspective", Py.java2py(perspective));
 
 		// Run instruction code in Jython
 		PyObject formatted = null;
 		
 		try {
-			formatted = m_interp.eval(getInstructions());
+			formatted = Py.runCode(code(), namespace, namespace);
 		}
 		catch (org.python.core.PyException e) {
 			System.err.println("*** Jython error: in '" + getInstructions() + "'" + e);
@@ -128,6 +164,9 @@ public class JythonTemplateElement extends ScriptingTemplateElement {
 	}
 
 
-	// Jython interpreter environment
-	private PythonInterpreter m_interp = null;
+	// Jython interpreter environment, shared by all elements
+	private static PythonInterpreter m_interp = null;
+	private static PyStringMap m_namespace = null;
+	// Compiled instructions
+	private PyCode m_code = null;
 }
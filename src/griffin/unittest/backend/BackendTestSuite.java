@@ -21,6 +21,12 @@ public class BackendTestSuite{
        suite.addTestSuite(TestPackageFinder.class);
        suite.addTestSuite(TestBackendData.class);
        suite.addTestSuite(TestLauncher.class);
+       suite.addTestSuite(TestOutputSink.class);
+       suite.addTestSuite(TestTopologicalSort.class);
+       suite.addTestSuite(TestTemplateInstantiation.class);
+       suite.addTestSuite(TestOperatorIndex.class);
+       suite.addTestSuite(TestHierarchyCache.class);
+       suite.addTestSuite(TestServer.class);
        return suite;
    }
    
@@ -0,0 +1,313 @@
+package unittest.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import backend.Utils;
+import sourceanalysis.Aggregate;
+import sourceanalysis.ContainedConnection;
+import sourceanalysis.Field;
+import sourceanalysis.InheritanceConnection;
+import sourceanalysis.Parameter;
+import sourceanalysis.Primitive;
+import sourceanalysis.Routine;
+import sourceanalysis.Specifiers;
+import sourceanalysis.TemplateArgument;
+import sourceanalysis.Type;
+import sourceanalysis.TypenameTemplateArgument;
+import sourceanalysis.TypenameTemplateParameter;
+
+/**
+ * Tests that the results of Utils.virtualMethods(),
+ * Utils.unimplementedMethods() and Utils.accessibleFields(), which are
+ * remembered between calls, follow changes to the classes.
+ */
+public class TestHierarchyCache extends TestCase {
+
+   /**
+    * Changes the hierarchy between queries:
+    * <pre>
+    * class Base { public: int a; virtual void f(); virtual void g() = 0; };
+    * class Derived : public Base { public: virtual void f(); };
+    * </pre>
+    * then adds a base Other { public: virtual void h(); virtual void k() = 0; }
+    * to Derived, and then an implementation of g() and a field of Other.
+    */
+   public void testHierarchyChange() throws Exception
+   {
+       Map<String, Aggregate> instanceMap = new HashMap<String, Aggregate>();
+       Aggregate base = aggregate("Base");
+       field(base, "a", Specifiers.Visibility.PUBLIC);
+       Routine baseF = method(base, "f", Specifiers.Virtuality.VIRTUAL);
+       Routine baseG = method(base, "g", Specifiers.Virtuality.PURE_VIRTUAL);
+       Aggregate derived = aggregate("Derived");
+       derived.addBase(base, Specifiers.Visibility.PUBLIC);
+       Routine derivedF = method(derived, "f", Specifiers.Virtuality.VIRTUAL);
+       Aggregate other = aggregate("Other");
+       Routine otherH = method(other, "h", Specifiers.Virtuality.VIRTUAL);
+       Routine otherK = method(other, "k", Specifiers.Virtuality.PURE_VIRTUAL);
+
+       assertEquals(Arrays.asList(derivedF, baseG),
+               virtual(derived, instanceMap));
+       assertEquals(Arrays.asList(baseG), unimplemented(derived, instanceMap));
+       assertEquals(Arrays.asList("a"), fields(derived, instanceMap));
+       assertTrue(Utils.isAbstract(derived, instanceMap));
+
+       derived.addBase(other, Specifiers.Visibility.PUBLIC);
+       assertEquals(Arrays.asList(derivedF, baseG, otherH, otherK),
+               virtual(derived, instanceMap));
+       assertEquals(Arrays.asList(baseG, otherK),
+               unimplemented(derived, instanceMap));
+
+       Routine derivedG = method(derived, "g", Specifiers.Virtuality.VIRTUAL);
+       field(other, "b", Specifiers.Visibility.PUBLIC);
+       assertEquals(Arrays.asList(derivedF, derivedG, otherH, otherK),
+               virtual(derived, instanceMap));
+       assertEquals(Arrays.asList(otherK), unimplemented(derived, instanceMap));
+       assertEquals(Arrays.asList("a", "b"), fields(derived, instanceMap));
+       assertEquals(Arrays.asList(baseF, baseG), virtual(base, instanceMap));
+   }
+
+   /**
+    * Makes sure that a base which is a template instance is taken into
+    * account once it is added to the instance map, and that each instance
+    * map (or none) has results of its own.
+    */
+   public void testInstanceMap() throws Exception
+   {
+       Aggregate box = aggregate("Box");
+       TypenameTemplateParameter parameter = new TypenameTemplateParameter();
+       parameter.setName("T");
+       box.addTemplateParameter(parameter);
+       Routine boxGet = method(box, "get", Specifiers.Virtuality.PURE_VIRTUAL);
+       TemplateArgument[] targs = { new TypenameTemplateArgument(
+               new Type(new Type.TypeNode(Primitive.INT))) };
+       Aggregate derived = aggregate("Derived");
+       derived.addBase(box, targs, Specifiers.Visibility.PUBLIC);
+
+       Aggregate instance = aggregate("Box< int >");
+       Routine get = method(instance, "get",
+               Specifiers.Virtuality.PURE_VIRTUAL);
+
+       Map<String, Aggregate> instanceMap = new HashMap<String, Aggregate>();
+       assertEquals(Collections.EMPTY_LIST,
+               unimplemented(derived, instanceMap));
+       instanceMap.put(Utils.templateExpression(box, targs), instance);
+       assertEquals(Arrays.asList(get), unimplemented(derived, instanceMap));
+       assertEquals(Collections.EMPTY_LIST, unimplemented(derived,
+               new HashMap<String, Aggregate>(instanceMap.size())));
+       // - without an instance map, the template itself stands for the base
+       assertEquals(Arrays.asList(boxGet), unimplemented(derived, null));
+       assertEquals(Arrays.asList(get), unimplemented(derived, instanceMap));
+   }
+
+   /**
+    * Makes sure that the cache of an instance map which is no longer in use
+    * is dropped.
+    */
+   public void testCollectedInstanceMap() throws Exception
+   {
+       Aggregate subject = aggregate("Subject");
+       method(subject, "f", Specifiers.Virtuality.VIRTUAL);
+       Map<String, Aggregate> instanceMap = new HashMap<String, Aggregate>();
+       virtual(subject, instanceMap);
+       int caches = Utils.getHierarchyCacheCount();
+       virtual(subject, new HashMap<String, Aggregate>());
+       assertEquals(caches + 1, Utils.getHierarchyCacheCount());
+       for (int attempt = 0; attempt < 100
+               && Utils.getHierarchyCacheCount() > caches; ++attempt) {
+           System.gc();
+           Thread.sleep(10);
+       }
+       assertEquals(caches, Utils.getHierarchyCacheCount());
+       assertEquals(1, virtual(subject, instanceMap).size());
+   }
+
+   /**
+    * Compares the results with the way they used to be computed - every
+    * routine compared with every other - on a random hierarchy with
+    * overloads, const methods, destructors and diamonds.
+    */
+   public void testSignatureBuckets() throws Exception
+   {
+       Random random = new Random(19);
+       String[] names = { "f", "g", "h" };
+       Type[] types = { new Type(new Type.TypeNode(Primitive.INT)),
+               new Type(new Type.TypeNode(Primitive.DOUBLE)) };
+       int[] virtualities = { Specifiers.Virtuality.NON_VIRTUAL,
+               Specifiers.Virtuality.VIRTUAL,
+               Specifiers.Virtuality.PURE_VIRTUAL };
+       int[] visibilities = { Specifiers.Visibility.PUBLIC,
+               Specifiers.Visibility.PROTECTED, Specifiers.Visibility.PRIVATE };
+       List<Aggregate> classes = new ArrayList<Aggregate>();
+       for (int classi = 0; classi < 60; ++classi) {
+           Aggregate subject = aggregate("C" + classi);
+           for (int basei = random.nextInt(3); basei > 0 && classi > 0;
+                   --basei)
+               subject.addBase(classes.get(random.nextInt(classi)),
+                       Specifiers.Visibility.PUBLIC);
+           if (random.nextInt(3) == 0)
+               method(subject, "~C" + classi, Specifiers.Virtuality.VIRTUAL);
+           for (int routinei = 0; routinei < 6; ++routinei) {
+               Routine routine = method(subject,
+                       names[random.nextInt(names.length)],
+                       virtualities[random.nextInt(virtualities.length)]);
+               routine.setConst(random.nextBoolean());
+               for (int parami = random.nextInt(3); parami > 0; --parami) {
+                   Parameter parameter = new Parameter();
+                   parameter.setName("p" + parami);
+                   parameter.setType(types[random.nextInt(types.length)]);
+                   routine.addParameter(parameter);
+               }
+           }
+           field(subject, names[random.nextInt(names.length)],
+                   visibilities[random.nextInt(visibilities.length)]);
+           classes.add(subject);
+       }
+
+       Map<String, Aggregate> instanceMap = new HashMap<String, Aggregate>();
+       List<Aggregate> order = new ArrayList<Aggregate>(classes);
+       Collections.shuffle(order, random);
+       for (Aggregate subject: order) {
+           String name = subject.getName();
+           for (boolean destructors: new boolean[] { false, true })
+               assertEquals(name, linearVirtual(subject, destructors),
+                       new ArrayList<Routine>(Utils.virtualMethods(subject,
+                               instanceMap, destructors)));
+           assertEquals(name, linearUnimplemented(subject),
+                   unimplemented(subject, instanceMap));
+           assertEquals(name, linearFields(subject),
+                   fields(subject, instanceMap));
+       }
+   }
+
+   /**
+    * virtualMethods() as it was, for classes without template bases.
+    */
+   private static List<Routine> linearVirtual(Aggregate subject,
+           boolean withDestructors) throws Exception
+   {
+       List<Routine> virtual = new ArrayList<Routine>();
+       for (ContainedConnection<Aggregate, Routine> connection:
+               subject.getScope().getRoutines()) {
+           if (connection.getVirtuality() != Specifiers.Virtuality.NON_VIRTUAL
+                   && (withDestructors
+                           || !connection.getContained().isDestructor()))
+               virtual.add(connection.getContained());
+       }
+       for (InheritanceConnection connection: subject.getBases()) {
+           for (Routine baseMethod:
+                   linearVirtual(connection.getBase(), withDestructors)) {
+               boolean found = false;
+               for (Routine method: virtual)
+                   if (method.isCompatible(baseMethod)) found = true;
+               if (!found) virtual.add(baseMethod);
+           }
+       }
+       return virtual;
+   }
+
+   /**
+    * unimplementedMethods() as it was, for classes without template bases.
+    */
+   private static List<Routine> linearUnimplemented(Aggregate subject)
+       throws Exception
+   {
+       List<Routine> unimplemented = new ArrayList<Routine>();
+       for (InheritanceConnection connection: subject.getBases()) {
+           for (Routine baseMethod:
+                   linearUnimplemented(connection.getBase())) {
+               boolean found = false;
+               for (ContainedConnection<Aggregate, Routine> mine:
+                       subject.getScope().getRoutines())
+                   if (mine.getVirtuality()
+                           != Specifiers.Virtuality.PURE_VIRTUAL
+                           && Utils.hasCompatibleSignatures(baseMethod,
+                                   mine.getContained()))
+                       found = true;
+               if (!found) unimplemented.add(baseMethod);
+           }
+       }
+       for (ContainedConnection<Aggregate, Routine> connection:
+               subject.getScope().getRoutines()) {
+           if (connection.getVirtuality() == Specifiers.Virtuality.PURE_VIRTUAL)
+               unimplemented.add(connection.getContained());
+       }
+       return unimplemented;
+   }
+
+   /**
+    * Names of accessibleFields() as it was, for public fields through
+    * public bases without templates.
+    */
+   private static List<String> linearFields(Aggregate subject)
+   {
+       List<String> accessible = new ArrayList<String>();
+       for (ContainedConnection<Aggregate, Field> connection:
+               subject.getScope().getFields()) {
+           if (connection.getVisibility() == Specifiers.Visibility.PUBLIC)
+               accessible.add(connection.getContained().getName());
+       }
+       for (InheritanceConnection connection: subject.getBases()) {
+           for (String baseField: linearFields(connection.getBase()))
+               if (!accessible.contains(baseField)) accessible.add(baseField);
+       }
+       return accessible;
+   }
+
+   private static List<Routine> virtual(Aggregate subject,
+           Map<String, Aggregate> instanceMap) throws Exception
+   {
+       return new ArrayList<Routine>(
+               Utils.virtualMethods(subject, instanceMap, false));
+   }
+
+   private static List<Routine> unimplemented(Aggregate subject,
+           Map<String, Aggregate> instanceMap) throws Exception
+   {
+       return new ArrayList<Routine>(
+               Utils.unimplementedMethods(subject, instanceMap));
+   }
+
+   private static List<String> fields(Aggregate subject,
+           Map<String, Aggregate> instanceMap) throws Exception
+   {
+       List<String> names = new ArrayList<String>();
+       for (Field field: Utils.accessibleFields(subject, instanceMap,
+               Specifiers.Visibility.PUBLIC))
+           names.add(field.getName());
+       return names;
+   }
+
+   private static Aggregate aggregate(String name)
+   {
+       Aggregate aggregate = new Aggregate();
+       aggregate.setName(name);
+       return aggregate;
+   }
+
+   private static Routine method(Aggregate owner, String name,
+           int virtuality)
+   {
+       Routine routine = new Routine();
+       routine.setName(name);
+       owner.getScope().addMember(routine, Specifiers.Visibility.PUBLIC,
+               virtuality, Specifiers.Storage.EXTERN);
+       return routine;
+   }
+
+   private static void field(Aggregate owner, String name, int visibility)
+   {
+       Field field = new Field();
+       field.setName(name);
+       field.setType(new Type(new Type.TypeNode(Primitive.INT)));
+       owner.getScope().addMember(field, visibility,
+               Specifiers.Storage.EXTERN);
+   }
+}
@@ -0,0 +1,196 @@
+package unittest.backend;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+
+import junit.framework.TestCase;
+import backend.Utils;
+import sourceanalysis.Aggregate;
+import sourceanalysis.Alias;
+import sourceanalysis.Entity;
+import sourceanalysis.Namespace;
+import sourceanalysis.Parameter;
+import sourceanalysis.ProgramDatabase;
+import sourceanalysis.Routine;
+import sourceanalysis.Specifiers;
+import sourceanalysis.Type;
+import sourceanalysis.TypenameTemplateArgument;
+import sourceanalysis.TypenameTemplateParameter;
+
+/**
+ * Tests the lookup of global operators by Utils.hasOutputOperator() and
+ * Utils.findGloballyScopedOperators(), which go through an index kept
+ * with the program database.
+ */
+public class TestOperatorIndex extends TestCase {
+
+   /**
+    * Makes sure that operators added to the program after a lookup are
+    * found by the next one.
+    */
+   public void testRebuild() throws Exception
+   {
+       ProgramDatabase program = new ProgramDatabase();
+       Aggregate ostream = aggregate(program, "ostream");
+       Aggregate point = aggregate(program, "Point");
+       assertFalse(Utils.hasOutputOperator(point, program));
+       assertEquals(Collections.EMPTY_LIST,
+               Utils.findGloballyScopedOperators(point, program));
+
+       Routine output = operator(program, "operator<<",
+               reference(ostream), reference(point));
+       assertTrue(Utils.hasOutputOperator(point, program));
+       assertEquals(Collections.EMPTY_LIST,
+               Utils.findGloballyScopedOperators(point, program));
+
+       Routine equals = operator(program, "operator==",
+               reference(point), reference(point));
+       assertEquals(Arrays.asList(equals),
+               Utils.findGloballyScopedOperators(point, program));
+       assertEquals(Arrays.asList(output),
+               Utils.findGloballyScopedOperators(ostream, program));
+       assertTrue(Utils.hasOutputOperator(point, program));
+   }
+
+   /**
+    * Compares the lookups with the way they used to go: an operand matched
+    * if following the typedefs from both sides reached the same entity,
+    * where a typedef of a template instance never matched anything.
+    * Each entity below is tried as the operand of an operator, and looked
+    * up by all the others:
+    * <pre>
+    * class X, Y;  template &lt;typename T&gt; class V;
+    * typedef X XA;  typedef XA XAA;  typedef XAA XAAA;
+    * typedef X *XP;  typedef XP XPA;
+    * typedef X (*R)[];  typedef R RA;
+    * typedef V&lt;X&gt; VX;  typedef VX VXA;
+    * </pre>
+    */
+   public void testAliases() throws Exception
+   {
+       ProgramDatabase declarations = new ProgramDatabase();
+       Aggregate x = aggregate(declarations, "X");
+       Aggregate y = aggregate(declarations, "Y");
+       Aggregate v = aggregate(declarations, "V");
+       TypenameTemplateParameter parameter = new TypenameTemplateParameter();
+       parameter.setName("T");
+       v.addTemplateParameter(parameter);
+
+       Map<String, Entity> entities = new LinkedHashMap<String, Entity>();
+       entities.put("X", x);
+       entities.put("Y", y);
+       entities.put("V", v);
+       entities.put("XA", alias("XA", new Type.TypeNode(x)));
+       entities.put("XAA", alias("XAA",
+               new Type.TypeNode(entities.get("XA"))));
+       entities.put("XAAA", alias("XAAA",
+               new Type.TypeNode(entities.get("XAA"))));
+       entities.put("XP", alias("XP",
+               wrap(Type.TypeNode.NODE_POINTER, new Type.TypeNode(x))));
+       entities.put("XPA", alias("XPA",
+               new Type.TypeNode(entities.get("XP"))));
+       entities.put("R", alias("R", wrap(Type.TypeNode.NODE_POINTER,
+               wrap(Type.TypeNode.NODE_ARRAY, new Type.TypeNode(x)))));
+       entities.put("RA", alias("RA", new Type.TypeNode(entities.get("R"))));
+       Type.TypeNode vx =
+           new Type.TypeNode(Type.TypeNode.NODE_TEMPLATE_INSTANTIATION);
+       vx.add(new Type.TypeNode(v));
+       vx.add(new DefaultMutableTreeNode(new TypenameTemplateArgument(
+               new Type(new Type.TypeNode(x)))));
+       entities.put("VX", alias("VX", vx));
+       entities.put("VXA", alias("VXA",
+               new Type.TypeNode(entities.get("VX"))));
+
+       for (Map.Entry<String, Entity> operand: entities.entrySet()) {
+           ProgramDatabase program = new ProgramDatabase();
+           Aggregate ostream = aggregate(program, "ostream");
+           operator(program, "operator<<", reference(ostream),
+                   reference(operand.getValue()));
+           Routine equals = operator(program, "operator==",
+                   reference(operand.getValue()),
+                   reference(operand.getValue()));
+           for (Map.Entry<String, Entity> query: entities.entrySet()) {
+               String pair = operand.getKey() + " / " + query.getKey();
+               boolean congruent = (unalias(operand.getValue())
+                       == unalias(query.getValue()));
+               assertEquals(pair, congruent,
+                       Utils.hasOutputOperator(query.getValue(), program));
+               List<Routine> expected = (congruent
+                       && operand.getValue() == query.getValue()
+                       && !query.getValue().isTemplated())
+                   ? Arrays.asList(equals) : Collections.<Routine>emptyList();
+               assertEquals(pair, expected, Utils.findGloballyScopedOperators(
+                       query.getValue(), program));
+           }
+       }
+   }
+
+   /**
+    * Follows typedefs as Utils once did before comparing operands: through
+    * flat types only, making up a new object for each template reached.
+    */
+   private static Object unalias(Entity entity) throws Exception
+   {
+       while (entity instanceof Alias) {
+           Type type = ((Alias)entity).getAliasedType();
+           if (!type.isFlat()) return entity;
+           entity = type.getBaseType();
+           if (entity.isTemplated()) return new Object();
+       }
+       return entity;
+   }
+
+   private static Aggregate aggregate(ProgramDatabase program, String name)
+   {
+       Aggregate aggregate = new Aggregate();
+       aggregate.setName(name);
+       program.getGlobalNamespace().getScope().addMember(aggregate,
+               Specifiers.Visibility.PUBLIC);
+       return aggregate;
+   }
+
+   private static Alias alias(String name, Type.TypeNode aliased)
+   {
+       Alias alias = new Alias();
+       alias.setName(name);
+       alias.setAliasedType(new Type(aliased));
+       return alias;
+   }
+
+   private static Type.TypeNode wrap(int kind, Type.TypeNode inner)
+   {
+       Type.TypeNode node = new Type.TypeNode(kind);
+       node.add(inner);
+       return node;
+   }
+
+   private static Type reference(Entity base)
+   {
+       return new Type(wrap(Type.TypeNode.NODE_REFERENCE,
+               new Type.TypeNode(base)));
+   }
+
+   /**
+    * Adds a binary operator to the global namespace of a program.
+    */
+   private static Routine operator(ProgramDatabase program, String name,
+           Type left, Type right)
+   {
+       Routine routine = new Routine();
+       routine.setName(name);
+       for (Type type: new Type[] { left, right }) {
+           Parameter parameter = new Parameter();
+           parameter.setType(type);
+           routine.addParameter(parameter);
+       }
+       Namespace global = program.getGlobalNamespace();
+       global.getScope().addMember(routine, Specifiers.Visibility.PUBLIC,
+               Specifiers.Virtuality.NON_VIRTUAL, Specifiers.Storage.EXTERN);
+       return routine;
+   }
+}
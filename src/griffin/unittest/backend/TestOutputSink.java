@@ -0,0 +1,155 @@
+package unittest.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import junit.framework.TestCase;
+import backend.Launcher;
+import backend.OutputSink;
+
+/**
+ * Tests that generated files are only written when their contents change.
+ */
+public class TestOutputSink extends TestCase {
+
+   @Override
+   protected void setUp() throws Exception {
+       m_dir = File.createTempFile("griffin", "sink");
+       m_dir.delete();
+       m_dir.mkdirs();
+   }
+
+   @Override
+   protected void tearDown() throws Exception {
+       File[] files = m_dir.listFiles();
+       if (files != null) {
+           for (File file: files) file.delete();
+       }
+       m_dir.delete();
+   }
+
+   /**
+    * Generates the same files twice, then changes one of them.
+    */
+   public void testWriteIfChanged() throws Exception {
+       File first = new File(m_dir, "first.cc");
+       File second = new File(m_dir, "second.cc");
+
+       OutputSink sink = generate("one", "two");
+       assertEquals(2, sink.getCreatedCount());
+       assertEquals("one", read(first));
+
+       first.setLastModified(0);
+       second.setLastModified(0);
+       sink = generate("one", "two");
+       assertEquals(2, sink.getUnchangedCount());
+       assertEquals(0, first.lastModified());
+       assertEquals(0, second.lastModified());
+
+       sink = generate("one", "three");
+       assertEquals(1, sink.getUnchangedCount());
+       assertEquals(1, sink.getRewrittenCount());
+       assertEquals(0, sink.getCreatedCount());
+       assertEquals(0, first.lastModified());
+       assertEquals("three", read(second));
+       // No temporary files are left behind
+       assertEquals(2, m_dir.listFiles().length);
+   }
+
+   /**
+    * Rewrites a file with a short name through a symbolic link, which must
+    * stay a link to a file that keeps its permissions.
+    */
+   public void testLinkAndMode() throws Exception {
+       Path real = new File(m_dir, "a").toPath();
+       Path link = new File(m_dir, "b").toPath();
+       Files.write(real, "old".getBytes());
+       Files.setPosixFilePermissions(real,
+               PosixFilePermissions.fromString("rwxr-x---"));
+       Files.createSymbolicLink(link, real.getFileName());
+
+       OutputSink sink = new OutputSink("test");
+       sink.open(link.toString()).write("new");
+       sink.close();
+       assertEquals(1, sink.getRewrittenCount());
+       assertTrue(Files.isSymbolicLink(link));
+       assertEquals("new", read(real.toFile()));
+       assertEquals("rwxr-x---", PosixFilePermissions.toString(
+               Files.getPosixFilePermissions(real)));
+       assertEquals(2, m_dir.listFiles().length);
+   }
+
+   /**
+    * Makes sure that a new file gets the same permissions as any other new
+    * file in its directory - those the umask allows.
+    */
+   public void testNewFileMode() throws Exception {
+       File ordinary = new File(m_dir, "ordinary");
+       new FileOutputStream(ordinary).close();
+       OutputSink sink = generate("one", "two");
+       assertEquals(2, sink.getCreatedCount());
+       String expected = PosixFilePermissions.toString(
+               Files.getPosixFilePermissions(ordinary.toPath()));
+       for (String name: new String[] { "first.cc", "second.cc" })
+           assertEquals(name, expected, PosixFilePermissions.toString(
+                   Files.getPosixFilePermissions(
+                           new File(m_dir, name).toPath())));
+       assertEquals(3, m_dir.listFiles().length);
+   }
+
+   /**
+    * Makes sure that closing the sink prints nothing unless statistics are
+    * requested.
+    */
+   public void testStatistics() throws Exception {
+       PrintStream stdout = System.out, stderr = System.err;
+       ByteArrayOutputStream printed = new ByteArrayOutputStream();
+       PrintStream capture = new PrintStream(printed, true);
+       System.setOut(capture);
+       System.setErr(capture);
+       try {
+           generate("one", "two");
+           assertEquals("", printed.toString());
+           System.setProperty(Launcher.STATISTICS_PROPERTY, "true");
+           generate("one", "three");
+       }
+       finally {
+           System.clearProperty(Launcher.STATISTICS_PROPERTY);
+           System.setOut(stdout);
+           System.setErr(stderr);
+       }
+       assertEquals("| test output: 8 bytes in 2 files - 1 unchanged,"
+               + " 1 rewritten, 0 new", printed.toString().trim());
+   }
+
+   private OutputSink generate(String first, String second) throws Exception {
+       OutputSink sink = new OutputSink("test");
+       Writer out = sink.open(new File(m_dir, "first.cc").getPath());
+       out.write(first);
+       out.close();
+       sink.open(new File(m_dir, "second.cc").getPath()).write(second);
+       sink.close();
+       return sink;
+   }
+
+   private static String read(File file) throws Exception {
+       java.io.FileReader reader = new java.io.FileReader(file);
+       try {
+           StringBuffer text = new StringBuffer();
+           int c;
+           while ((c = reader.read()) != -1) text.append((char)c);
+           return text.toString();
+       }
+       finally {
+           reader.close();
+       }
+   }
+
+   private File m_dir;
+}
@@ -0,0 +1,153 @@
+package unittest.backend;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import unittest.backend.configuration.testbackendconfiguration.BackendConfigurationTest;
+import unittest.sourceanalysis.SyntheticDoxygen;
+import sourceanalysis.dox.BuildStamp;
+import backend.Launcher;
+import backend.Server;
+
+/**
+ * Tests running backends through a Griffin server.
+ */
+public class TestServer extends TestCase {
+
+   /**
+    * Sends a request to the server, with statistics turned on.
+    * @return the exit status, followed by the output of the run
+    */
+   private static String request(Server server, String... args)
+       throws IOException
+   {
+       ByteArrayOutputStream output = new ByteArrayOutputStream();
+       PrintStream out = new PrintStream(output, true);
+       int status = Server.request(server.getPort(),
+               Collections.singletonMap(Launcher.STATISTICS_PROPERTY, "true"),
+               args, out, out);
+       return "exit " + status + "\n" + output.toString();
+   }
+
+   /**
+    * Runs the test backend several times on the same input, making sure
+    * that the analysis is only repeated when the input changes.
+    */
+   public void testWarmRuns() throws Exception
+   {
+       final Server server = new Server(new BackendConfigurationTest(), 0);
+       Thread thread = new Thread() {
+           @Override
+           public void run() {
+               try {
+                   server.serve(0);
+               }
+               catch (IOException e) {
+                   e.printStackTrace();
+               }
+           }
+       };
+       thread.start();
+       File dir = File.createTempFile("griffin", "xml");
+       dir.delete();
+       SyntheticDoxygen doxygen = new SyntheticDoxygen(dir, 10);
+       doxygen.write();
+       try {
+           String output = request(server);
+           assertTrue(output, output.startsWith("exit 2\nUsage:"));
+
+           String[] args = { "Test", "--input", dir.getPath(),
+                             "--barProperty", "x" };
+           output = request(server, args);
+           assertTrue(output, output.startsWith("exit 0\n"));
+           assertTrue(output, output.contains("| Server: XML input digested"));
+           assertTrue(output, output.contains("| Type parsing"));
+
+           output = request(server, args);
+           assertTrue(output, output.startsWith("exit 0\n"));
+           assertTrue(output, output.contains("| Server: XML input unchanged"));
+           assertFalse(output, output.contains("| Type parsing"));
+
+           doxygen.writeClass(0, 2);
+           output = request(server, args);
+           assertTrue(output, output.contains("| Server: XML input digested"));
+           assertTrue(output, output.contains("| Type parsing"));
+
+           assertNull(System.getProperty(Launcher.STATISTICS_PROPERTY));
+       }
+       finally {
+           doxygen.delete();
+           Server.stop(server.getPort());
+           thread.join();
+       }
+       assertFalse(Server.getTokenFile(server.getPort()).exists());
+   }
+
+   /**
+    * Sends a request with the wrong token, and then one on behalf of
+    * another build of Griffin, which the server must turn down by
+    * stopping.
+    */
+   public void testRejectedRequests() throws Exception
+   {
+       final Server server = new Server(new BackendConfigurationTest(), 0);
+       Thread thread = new Thread() {
+           @Override
+           public void run() {
+               try {
+                   server.serve(0);
+               }
+               catch (IOException e) {
+                   e.printStackTrace();
+               }
+           }
+       };
+       thread.start();
+       File tokenFile = Server.getTokenFile(server.getPort());
+       String token = new String(Files.readAllBytes(tokenFile.toPath()),
+               "UTF-8").trim();
+       assertEquals("reject not a valid Griffin request",
+               send(server, "griffin-server-2 x" + token + " "
+                       + BuildStamp.get()));
+       assertEquals("stale " + BuildStamp.get(),
+               send(server, "griffin-server-2 " + token + " other"));
+       thread.join(10000);
+       assertFalse(thread.isAlive());
+       assertFalse(tokenFile.exists());
+   }
+
+   /**
+    * Sends a request with the given first line to the server.
+    * @return the first line of the answer
+    */
+   private static String send(Server server, String header)
+       throws IOException
+   {
+       Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+               server.getPort());
+       try {
+           Writer out = new OutputStreamWriter(socket.getOutputStream(),
+                   "UTF-8");
+           out.write(header + "\nrun\n");
+           out.flush();
+           BufferedReader in = new BufferedReader(new InputStreamReader(
+                   socket.getInputStream(), "UTF-8"));
+           return in.readLine();
+       }
+       finally {
+           socket.close();
+       }
+   }
+
+}
@@ -0,0 +1,323 @@
+package unittest.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+
+import junit.framework.TestCase;
+import backend.GenericCodeGenerator;
+import backend.Utils;
+import sourceanalysis.Aggregate;
+import sourceanalysis.ContainedConnection;
+import sourceanalysis.Field;
+import sourceanalysis.Namespace;
+import sourceanalysis.Parameter;
+import sourceanalysis.Primitive;
+import sourceanalysis.ProgramDatabase;
+import sourceanalysis.Routine;
+import sourceanalysis.SourceFile;
+import sourceanalysis.Specifiers;
+import sourceanalysis.TemplateArgument;
+import sourceanalysis.Type;
+import sourceanalysis.TypenameTemplateArgument;
+import sourceanalysis.TypenameTemplateParameter;
+
+/**
+ * Tests the instantiation of class templates by Utils.instantiateTemplate().
+ */
+public class TestTemplateInstantiation extends TestCase {
+
+   /**
+    * Creates a class template:
+    * <pre>
+    * template &lt;typename T&gt; class Box {
+    *     T *value; int count;
+    *     const T &amp;get(int index) const;
+    * };
+    * </pre>
+    */
+   private static Aggregate box(Namespace ns)
+   {
+       Aggregate box = new Aggregate();
+       box.setName("Box");
+       ns.getScope().addMember(box, Specifiers.Visibility.PUBLIC);
+       TypenameTemplateParameter parameter = new TypenameTemplateParameter();
+       parameter.setName("T");
+       Aggregate blank = new Aggregate();
+       blank.setName("T");
+       box.getScope().addMember(blank, Specifiers.Visibility.PRIVATE);
+       parameter.associate(blank);
+       box.addTemplateParameter(parameter);
+
+       Field value = new Field();
+       value.setName("value");
+       value.setType(new Type(pointer(Type.TypeNode.NODE_POINTER, blank, 0)));
+       box.getScope().addMember(value, Specifiers.Visibility.PUBLIC,
+               Specifiers.Storage.EXTERN);
+       Field count = new Field();
+       count.setName("count");
+       count.setType(new Type(new Type.TypeNode(Primitive.INT)));
+       box.getScope().addMember(count, Specifiers.Visibility.PUBLIC,
+               Specifiers.Storage.EXTERN);
+
+       Routine get = new Routine();
+       get.setName("get");
+       get.setConst(true);
+       get.setReturnType(new Type(pointer(Type.TypeNode.NODE_REFERENCE, blank,
+               Specifiers.CVQualifiers.CONST)));
+       Parameter index = new Parameter();
+       index.setName("index");
+       index.setType(new Type(new Type.TypeNode(Primitive.INT)));
+       get.addParameter(index);
+       box.getScope().addMember(get, Specifiers.Visibility.PUBLIC,
+               Specifiers.Virtuality.NON_VIRTUAL, Specifiers.Storage.EXTERN);
+       return box;
+   }
+
+   private static Type.TypeNode pointer(int kind, Aggregate base, int cv)
+   {
+       Type.TypeNode root = new Type.TypeNode(kind);
+       Type.TypeNode leaf = new Type.TypeNode(base);
+       leaf.setCV(cv);
+       root.add(leaf);
+       return root;
+   }
+
+   private static String describe(Aggregate instance) throws Exception
+   {
+       StringBuffer sb = new StringBuffer(instance.getFullName() + " {");
+       for (ContainedConnection<Aggregate, Field> connection:
+               instance.getScope().getFields()) {
+           Field field = connection.getContained();
+           sb.append(" " + field.getType().formatCpp() + " " + field.getName() + ";");
+       }
+       for (ContainedConnection<Aggregate, Routine> connection:
+               instance.getScope().getRoutines()) {
+           Routine routine = connection.getContained();
+           sb.append(" " + routine.getReturnType().formatCpp() + " " + routine.getName()
+                   + "(");
+           for (Parameter parameter: routine.getParameters())
+               sb.append(parameter.getType().formatCpp() + " " + parameter.getName());
+           sb.append(");");
+       }
+       return sb.append(" }").toString();
+   }
+
+   private static Aggregate instantiate(Aggregate template, Primitive with)
+       throws Exception
+   {
+       TemplateArgument[] arguments = { new TypenameTemplateArgument(
+               new Type(new Type.TypeNode(with))) };
+       return Utils.instantiateTemplate(template, arguments,
+               new HashMap<String, Aggregate>());
+   }
+
+   /**
+    * Makes sure that an instance created lazily gets the same members as
+    * one created eagerly, once they are accessed, and that members which do
+    * not mention template parameters keep their types.
+    */
+   public void testLazyInstantiation() throws Exception
+   {
+       Namespace ns = new Namespace();
+       ns.setName("tp");
+       Aggregate template = box(ns);
+       Aggregate eager = instantiate(template, Primitive.DOUBLE);
+       assertTrue(Utils.isMaterialized(eager));
+       String expected = describe(eager);
+       assertEquals("tp::Box< double > { double * value; int count;"
+               + " const double & get(int index); }", expected);
+
+       System.setProperty(Utils.LAZY_INSTANTIATION_PROPERTY, "true");
+       Aggregate lazy;
+       try {
+           lazy = instantiate(template, Primitive.DOUBLE);
+       }
+       finally {
+           System.clearProperty(Utils.LAZY_INSTANTIATION_PROPERTY);
+       }
+       assertNotSame(eager, lazy);
+       assertFalse(Utils.isMaterialized(lazy));
+       assertEquals(expected, describe(lazy));
+       assertTrue(Utils.isMaterialized(lazy));
+
+       Field count = template.getScope().lookupFields("count").iterator()
+           .next().getContained();
+       for (Aggregate instance: new Aggregate[] { eager, lazy }) {
+           Field instanceCount = instance.getScope().lookupFields("count")
+               .iterator().next().getContained();
+           assertSame(count.getType(), instanceCount.getType());
+       }
+   }
+
+   /**
+    * Exposes the subjects and the instances of GenericCodeGenerator.
+    */
+   private static class Investigator extends GenericCodeGenerator {
+       Investigator() {
+           super(new ProgramDatabase(), null);
+       }
+
+       List<String> subjects() throws Exception {
+           List<String> names = new ArrayList<String>();
+           for (Aggregate subject: m_subjects)
+               names.add(subject.getFullName());
+           return names;
+       }
+
+       void addSubject(Aggregate subject) {
+           m_subjects.add(subject);
+       }
+
+       void addTemplate(Aggregate template) {
+           m_subjectTemplates.add(template);
+       }
+
+       Set<Aggregate> instances() {
+           Set<Aggregate> instances = new HashSet<Aggregate>(m_subjects);
+           instances.retainAll(m_instanceMap.values());
+           assertEquals(m_instanceMap.size(), instances.size());
+           return instances;
+       }
+   }
+
+   /**
+    * Creates a class template with one type parameter, declared in a
+    * header file.
+    * @return the template, and the blank class standing for its parameter
+    */
+   private static Aggregate[] template(Namespace ns, String name,
+           SourceFile header)
+   {
+       Aggregate template = new Aggregate();
+       template.setName(name);
+       template.setDeclarationAt(header, new SourceFile.Position(1));
+       ns.getScope().addMember(template, Specifiers.Visibility.PUBLIC);
+       TypenameTemplateParameter parameter = new TypenameTemplateParameter();
+       parameter.setName("T");
+       Aggregate blank = new Aggregate();
+       blank.setName("T");
+       template.getScope().addMember(blank, Specifiers.Visibility.PRIVATE);
+       parameter.associate(blank);
+       template.addTemplateParameter(parameter);
+       return new Aggregate[] { template, blank };
+   }
+
+   /**
+    * Creates the type node of a template instance.
+    */
+   private static Type.TypeNode instance(Aggregate template,
+           Type.TypeNode argument)
+   {
+       Type.TypeNode root =
+           new Type.TypeNode(Type.TypeNode.NODE_TEMPLATE_INSTANTIATION);
+       root.add(new Type.TypeNode(template));
+       root.add(new DefaultMutableTreeNode(
+               new TypenameTemplateArgument(new Type(argument))));
+       return root;
+   }
+
+   private static void field(Aggregate owner, String name, Type.TypeNode type)
+   {
+       Field field = new Field();
+       field.setName(name);
+       field.setType(new Type(type));
+       owner.getScope().addMember(field, Specifiers.Visibility.PUBLIC,
+               Specifiers.Storage.EXTERN);
+   }
+
+   /**
+    * Makes sure that the instances needed by the subjects are found pass
+    * after pass, both those nested in template arguments and those used by
+    * the members of other instances:
+    * <pre>
+    * template &lt;typename T&gt; struct A { T value; };  // B and C alike
+    * template &lt;typename T&gt; struct Pair { T first; };
+    * template &lt;typename T&gt; struct Wrap { Pair&lt;T&gt; get(); };
+    * struct User { A&lt;B&lt;C&lt;int&gt; &gt; &gt; nested; Wrap&lt;double&gt; wrapped; };
+    * </pre>
+    * The subjects and the counters must come out as they did when each
+    * pass investigated all the subjects again.
+    */
+   public void testImplicitInstantiations() throws Exception
+   {
+       SourceFile header = new SourceFile();
+       header.setName("tp.h");
+       Namespace ns = new Namespace();
+       ns.setName("tp");
+       Investigator investigator = new Investigator();
+       Map<String, Aggregate[]> templates =
+           new LinkedHashMap<String, Aggregate[]>();
+       for (String name: new String[] { "A", "B", "C", "Pair", "Wrap" }) {
+           Aggregate[] template = template(ns, name, header);
+           templates.put(name, template);
+           investigator.addTemplate(template[0]);
+       }
+       for (String name: new String[] { "A", "B", "C", "Pair" }) {
+           Aggregate[] template = templates.get(name);
+           field(template[0], name.equals("Pair") ? "first" : "value",
+                   new Type.TypeNode(template[1]));
+       }
+       Aggregate[] wrap = templates.get("Wrap");
+       Routine get = new Routine();
+       get.setName("get");
+       get.setReturnType(new Type(instance(templates.get("Pair")[0],
+               new Type.TypeNode(wrap[1]))));
+       wrap[0].getScope().addMember(get, Specifiers.Visibility.PUBLIC,
+               Specifiers.Virtuality.NON_VIRTUAL, Specifiers.Storage.EXTERN);
+
+       Aggregate user = new Aggregate();
+       user.setName("User");
+       user.setDeclarationAt(header, new SourceFile.Position(2));
+       ns.getScope().addMember(user, Specifiers.Visibility.PUBLIC);
+       field(user, "nested", instance(templates.get("A")[0],
+               instance(templates.get("B")[0],
+                       instance(templates.get("C")[0],
+                               new Type.TypeNode(Primitive.INT)))));
+       field(user, "wrapped", instance(wrap[0],
+               new Type.TypeNode(Primitive.DOUBLE)));
+       investigator.addSubject(user);
+
+       investigator.investImplicitInstantiations();
+       List<String> expected = Arrays.asList("tp::User",
+               "tp::A< tp::B< tp::C< int > > >", "tp::Wrap< double >",
+               "tp::B< tp::C< int > >", "tp::Pair< double >",
+               "tp::C< int >");
+       assertEquals(expected, investigator.subjects());
+       assertEquals(5, investigator.getInstantiationCount());
+       assertEquals(4, investigator.getInstantiationPasses());
+       Set<Aggregate> instances = investigator.instances();
+       assertEquals(5, instances.size());
+       assertFalse(instances.contains(user));
+
+       // Investigating again finds nothing new, in a single pass
+       investigator.investImplicitInstantiations();
+       assertEquals(expected, investigator.subjects());
+       assertEquals(5, investigator.getInstantiationCount());
+       assertEquals(5, investigator.getInstantiationPasses());
+
+       // ... except in subjects collected since
+       Aggregate other = new Aggregate();
+       other.setName("Other");
+       other.setDeclarationAt(header, new SourceFile.Position(3));
+       ns.getScope().addMember(other, Specifiers.Visibility.PUBLIC);
+       field(other, "box", instance(templates.get("A")[0],
+               new Type.TypeNode(Primitive.INT)));
+       investigator.addSubject(other);
+       investigator.investImplicitInstantiations();
+       List<String> more = new ArrayList<String>(expected);
+       more.add("tp::Other");
+       more.add("tp::A< int >");
+       assertEquals(more, investigator.subjects());
+       assertEquals(6, investigator.getInstantiationCount());
+       assertEquals(7, investigator.getInstantiationPasses());
+   }
+
+}
@@ -0,0 +1,105 @@
+package unittest.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import backend.GenericCodeGenerator;
+import sourceanalysis.Aggregate;
+import sourceanalysis.InheritanceConnection;
+import sourceanalysis.ProgramDatabase;
+import sourceanalysis.Specifiers;
+
+/**
+ * Tests the ordering of classes such that base classes come first.
+ */
+public class TestTopologicalSort extends TestCase {
+
+   /**
+    * Exposes the sort of GenericCodeGenerator.
+    */
+   private static class Sorter extends GenericCodeGenerator {
+       Sorter(Collection<Aggregate> subjects) {
+           super(new ProgramDatabase(), null);
+           m_subjects.addAll(subjects);
+       }
+
+       List<Aggregate> sort() {
+           return topologicallySortSubjects(false);
+       }
+   }
+
+   /**
+    * Checks that ties are broken by the original order.
+    */
+   public void testOrder() throws Exception {
+       Aggregate[] classes = classes(5);
+       derive(classes[0], classes[3]);
+       derive(classes[1], classes[3]);
+       derive(classes[4], classes[1]);
+       List<Aggregate> sorted = new Sorter(Arrays.asList(classes)).sort();
+       assertEquals(Arrays.asList(classes[2], classes[3], classes[0],
+               classes[1], classes[4]), sorted);
+   }
+
+   /**
+    * Makes sure that an inheritance cycle does not prevent the sort from
+    * finishing, and that no class is lost.
+    */
+   public void testCycle() throws Exception {
+       Aggregate[] classes = classes(4);
+       derive(classes[0], classes[1]);
+       derive(classes[1], classes[0]);
+       derive(classes[2], classes[1]);
+       List<Aggregate> sorted = new Sorter(Arrays.asList(classes)).sort();
+       assertEquals(Arrays.asList(classes[3], classes[0], classes[1],
+               classes[2]), sorted);
+   }
+
+   /**
+    * Sorts a synthetic hierarchy of 50,000 classes, listed with the most
+    * derived classes first.
+    */
+   public void testLargeHierarchy() throws Exception {
+       int nclasses = 50000;
+       Aggregate[] classes = classes(nclasses);
+       Random random = new Random(nclasses);
+       for (int i = 1; i < nclasses; ++i) {
+           derive(classes[i], classes[random.nextInt(i)]);
+           if (i > 2 && random.nextInt(4) == 0)
+               derive(classes[i], classes[random.nextInt(i)]);
+       }
+       List<Aggregate> subjects = new ArrayList<Aggregate>(Arrays.asList(classes));
+       Collections.reverse(subjects);
+
+       List<Aggregate> sorted = new Sorter(subjects).sort();
+
+       assertEquals(nclasses, sorted.size());
+       Map<Aggregate, Integer> positions = new HashMap<Aggregate, Integer>();
+       for (Aggregate agg: sorted) positions.put(agg, positions.size());
+       for (Aggregate agg: sorted) {
+           for (InheritanceConnection connection: agg.getBases()) {
+               assertTrue(positions.get(connection.getBase()) < positions.get(agg));
+           }
+       }
+   }
+
+   private static Aggregate[] classes(int n) {
+       Aggregate[] classes = new Aggregate[n];
+       for (int i = 0; i < n; ++i) {
+           classes[i] = new Aggregate();
+           classes[i].setName("C" + i);
+       }
+       return classes;
+   }
+
+   private static void derive(Aggregate derived, Aggregate base) {
+       derived.addBase(base, Specifiers.Visibility.PUBLIC);
+   }
+}
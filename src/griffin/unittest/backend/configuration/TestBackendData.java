@@ -82,6 +82,10 @@ protected void tearDown() throws Exception {
        
        bd.getPropertyData(BackendData.DEFAULT_MIXINS_PROPERTY.getPropertyName());
        
+       PropertyData snapshotData = bd.getPropertyData(BackendData.DEFAULT_SNAPSHOT_PROPERTY.getPropertyName());
+       
+       assertEquals(1, snapshotData.getNumArguments());
+       
    }
 
    /**
@@ -90,7 +94,7 @@ protected void tearDown() throws Exception {
     */
    public void testGetPropertiesData() {
        bd.getPropertiesData();
-       assertEquals("Should have 4 properties", 4, bd.getPropertiesData().size());
+       assertEquals("Should have 5 properties", 5, bd.getPropertiesData().size());
    }
    
    
@@ -4,12 +4,21 @@
  */
 package unittest.backend.robin;
 
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
+import sourceanalysis.ProgramDatabase;
 import sourceanalysis.assist.InteriorAnalyzer;
+import sourceanalysis.dox.DoxygenAnalyzer;
+import unittest.sourceanalysis.SyntheticDoxygen;
 
 /**
  */
@@ -156,5 +165,116 @@ public class GeneratorTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Tests spreading the class wrappers across several files: every class
+	 * registered in the entry table of the main file must be defined in
+	 * exactly one of the shards.
+	 * @throws Exception
+	 */
+	public void testShards() throws Exception
+	{
+		File dir = File.createTempFile("griffin", "robin");
+		dir.delete();
+		SyntheticDoxygen synthetic = new SyntheticDoxygen(dir, 10);
+		synthetic.write();
+		try {
+			String outfile = generate(dir, "syn_robin.cc", 3);
+			assertFalse(new File(backend.robin.Launcher.shardFilename(outfile, 4))
+				.exists());
+			
+			String main = read(new File(outfile));
+			String[] shards = new String[3];
+			for (int i = 0; i < shards.length; ++i) {
+				shards[i] = read(new File(
+					backend.robin.Launcher.shardFilename(outfile, i + 1)));
+				assertTrue(shards[i].indexOf("RegData scope_") >= 0);
+				assertTrue(shards[i].indexOf("__robin_callback) = 0") < 0);
+			}
+			assertTrue(main.indexOf("RegData entry[]") >= 0);
+			Matcher scopes = Pattern.compile("\"class\", (\\w+)::(scope_\\w+)")
+				.matcher(main);
+			int nclasses = 0;
+			while (scopes.find()) {
+				String definition = "RegData " + scopes.group(2) + "[]";
+				int defined = 0;
+				for (int i = 0; i < shards.length; ++i) {
+					if (shards[i].indexOf(definition) >= 0) {
+						assertTrue(shards[i].indexOf("namespace " 
+								+ scopes.group(1) + " {") >= 0);
+						++defined;
+					}
+				}
+				assertEquals(1, defined);
+				++nclasses;
+			}
+			// Ten classes and their interceptors
+			assertEquals(20, nclasses);
+		}
+		finally {
+			synthetic.delete();
+		}
+	}
+
+	/**
+	 * Makes sure that generating code twice for the same input yields
+	 * identical files.
+	 * @throws Exception
+	 */
+	public void testDeterministicOutput() throws Exception
+	{
+		File dir = File.createTempFile("griffin", "robin");
+		dir.delete();
+		SyntheticDoxygen synthetic = new SyntheticDoxygen(dir, 10);
+		synthetic.write();
+		try {
+			String first = generate(dir, "first.cc", 2);
+			String second = generate(dir, "second.cc", 2);
+			assertEquals(read(new File(first)), read(new File(second)));
+			for (int i = 1; i <= 2; ++i) {
+				assertEquals(
+					read(new File(backend.robin.Launcher.shardFilename(first, i))),
+					read(new File(backend.robin.Launcher.shardFilename(second, i))));
+			}
+		}
+		finally {
+			synthetic.delete();
+		}
+	}
+
+	/**
+	 * Utility function; analyzes the synthetic Doxygen input in a directory
+	 * and runs Robin on all of its classes, with interceptors.
+	 * @return the name of the main output file
+	 */
+	private static String generate(File dir, String filename, int shards)
+		throws Exception
+	{
+		DoxygenAnalyzer dox = new DoxygenAnalyzer(dir.getPath());
+		dox.logger.setLevel(Level.WARNING);
+		ProgramDatabase program = dox.processIndex();
+		String outfile = new File(dir, filename).getPath();
+		String[] classes = { "*" };
+		backend.robin.Launcher.execute(program, classes, outfile, true, shards);
+		return outfile;
+	}
+
+	/**
+	 * Utility function; reads an entire text file.
+	 */
+	private static String read(File file) throws IOException
+	{
+		StringBuffer text = new StringBuffer();
+		Reader reader = new FileReader(file);
+		try {
+			char[] buffer = new char[4096];
+			int n;
+			while ((n = reader.read(buffer)) > 0) text.append(buffer, 0, n);
+		}
+		finally {
+			reader.close();
+		}
+		return text.toString();
+	}
+
 	final String gmakeCmd = "gmake --no-print-directory";
 }
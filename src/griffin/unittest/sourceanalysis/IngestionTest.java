@@ -0,0 +1,333 @@
+package unittest.sourceanalysis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+import sourceanalysis.Aggregate;
+import sourceanalysis.ContainedConnection;
+import sourceanalysis.ElementNotFoundException;
+import sourceanalysis.Field;
+import sourceanalysis.Namespace;
+import sourceanalysis.Primitive;
+import sourceanalysis.ProgramDatabase;
+import sourceanalysis.dox.AnalysisHistory;
+import sourceanalysis.dox.BuildStamp;
+import sourceanalysis.dox.DocumentComponentRegistry;
+import sourceanalysis.dox.DoxygenAnalyzer;
+import sourceanalysis.dox.ProgramDatabaseSnapshot;
+import sourceanalysis.dox.DocumentComponentRegistry.RequestedDocument;
+
+/**
+ * Tests the ingestion of Doxygen(r) XML documents by the DoxygenAnalyzer,
+ * using a synthetic intermediate document so that the external Doxygen tool
+ * is not needed.
+ */
+public class IngestionTest extends TestCase {
+
+	/**
+	 * Constructor for IngestionTest.
+	 * @param title test to run
+	 */
+	public IngestionTest(String title) {
+		super(title);
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		m_xmldir = File.createTempFile("griffin", "xml");
+		m_xmldir.delete();
+		m_synthetic = new SyntheticDoxygen(m_xmldir, NCLASSES);
+		m_synthetic.write();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		m_synthetic.delete();
+	}
+
+	/**
+	 * Creates an analyzer for the synthetic input.
+	 */
+	private DoxygenAnalyzer analyzer()
+	{
+		DoxygenAnalyzer dox = new DoxygenAnalyzer(m_xmldir.getPath());
+		dox.logger.setLevel(Level.WARNING);
+		return dox;
+	}
+
+	/**
+	 * Analyzes the synthetic input with the given number of parsing threads.
+	 */
+	private ProgramDatabase analyze(int nthreads) throws Exception
+	{
+		DoxygenAnalyzer dox = analyzer();
+		dox.getInternalRegistry().setIngestionThreads(nthreads);
+		return dox.processIndex();
+	}
+
+	/**
+	 * Makes sure that parsing documents in parallel yields exactly the same
+	 * program database as the sequential analysis.
+	 */
+	public void testParallelIngestion() throws Exception
+	{
+		String sequential = SyntheticDoxygen.dump(analyze(1));
+		assertTrue(sequential.indexOf(SyntheticDoxygen.className(NCLASSES - 1)) >= 0);
+		for (int nthreads = 2; nthreads <= 8; nthreads *= 2) {
+			assertEquals(sequential, SyntheticDoxygen.dump(analyze(nthreads)));
+		}
+	}
+
+	/**
+	 * Makes sure that the streaming reader and the full DOM parser lead to
+	 * the same program database.
+	 */
+	public void testStreamingReader() throws Exception
+	{
+		DoxygenAnalyzer dox = analyzer();
+		dox.getInternalRegistry().setFullDOM(true);
+		String full = SyntheticDoxygen.dump(dox.processIndex());
+		assertEquals(full, SyntheticDoxygen.dump(analyzer().processIndex()));
+	}
+
+	/**
+	 * Checks that references are resolved through the per-document index.
+	 */
+	public void testComponentIndex() throws Exception
+	{
+		DoxygenAnalyzer dox = analyzer();
+		dox.processIndex();
+		DocumentComponentRegistry registry = dox.getInternalRegistry();
+		assertTrue(registry.getIndexHits() >= NCLASSES);
+		assertEquals(0, registry.getIndexMisses());
+		
+		RequestedDocument doc = registry.locateAllDocuments(
+				SyntheticDoxygen.classId(0)).get(0);
+		assertEquals(4, doc.getComponentCount());
+		assertNotNull(registry.locateComponent(doc, "memberdef",
+				SyntheticDoxygen.classId(0) + "_1m1"));
+		try {
+			registry.locateComponent(doc, "memberdef", "nosuchid");
+			fail("component should not have been found");
+		}
+		catch (ElementNotFoundException e) { }
+		assertEquals(1, registry.getIndexMisses());
+	}
+
+	/**
+	 * Makes sure that every document is read exactly once, now that the
+	 * registry keeps documents only until they are translated.
+	 */
+	public void testDocumentReads() throws Exception
+	{
+		DoxygenAnalyzer dox = analyzer();
+		DocumentComponentRegistry registry = dox.getInternalRegistry();
+		dox.processIndex();
+		// - the namespace and the classes
+		assertEquals(NCLASSES + 1, registry.getCacheMisses());
+		assertEquals(0, registry.getCacheHits());
+	}
+
+	/**
+	 * Makes sure that a program database survives a round trip through a
+	 * snapshot file, and that the snapshot is only used for the same input.
+	 */
+	public void testSnapshot() throws Exception
+	{
+		DoxygenAnalyzer dox = analyzer();
+		ProgramDatabase program = dox.processIndex();
+		String key = dox.digestInput();
+		assertEquals(key, analyzer().digestInput());
+		
+		File file = new File(m_xmldir, "snapshot.pdb");
+		ProgramDatabaseSnapshot snapshot = new ProgramDatabaseSnapshot(file);
+		assertNull(snapshot.load(key));
+		snapshot.save(program, key);
+		ProgramDatabase loaded = snapshot.load(key);
+		assertNotNull(loaded);
+		assertEquals(SyntheticDoxygen.dump(program),
+				SyntheticDoxygen.dump(loaded));
+		assertNull(snapshot.load("other"));
+		// Standard primitives must keep their identity
+		Aggregate last = loaded.getGlobalNamespace().getScope().getNamespaces()
+			.iterator().next().getContained().getScope().getAggregates()
+			.iterator().next().getContained();
+		assertEquals(SyntheticDoxygen.className(NCLASSES - 1), last.getName());
+		Field field = last.getScope().getFields().iterator().next().getContained();
+		assertSame(Primitive.INT, field.getType().getBaseType());
+		
+		// Changing a document changes the key
+		m_synthetic.writeClass(0, 1);
+		assertFalse(key.equals(analyzer().digestInput()));
+		
+		// A snapshot written by another build of Griffin is stale
+		String stamp = BuildStamp.get();
+		assertEquals(stamp, BuildStamp.get());
+		String other = stamp.replace(stamp.charAt(0),
+				stamp.charAt(0) == '0' ? '1' : '0');
+		byte[] contents = gunzip(file);
+		String text = new String(contents, "ISO-8859-1");
+		assertTrue(text.contains(stamp));
+		gzip(text.replace(stamp, other).getBytes("ISO-8859-1"), file);
+		assertNull(snapshot.read());
+		gzip(contents, file);
+		assertNotNull(snapshot.load(key));
+	}
+
+	/**
+	 * Makes sure that the stamp of a directory of classes changes when one
+	 * of the classes does.
+	 */
+	public void testBuildStamp() throws Exception
+	{
+		File classes = new File(m_xmldir, "classes");
+		File file = new File(classes, "a/A.class");
+		file.getParentFile().mkdirs();
+		try {
+			write(file, "A1");
+			String stamp = BuildStamp.of(classes);
+			assertEquals(stamp, BuildStamp.of(classes));
+			write(file, "A2");
+			assertFalse(stamp.equals(BuildStamp.of(classes)));
+		}
+		finally {
+			file.delete();
+			file.getParentFile().delete();
+			classes.delete();
+		}
+	}
+
+	/**
+	 * Makes sure that updating a program database after some documents
+	 * change yields the same result as analyzing the new input from
+	 * scratch, while translating only the affected documents.
+	 */
+	public void testIncrementalAnalysis() throws Exception
+	{
+		DoxygenAnalyzer dox = analyzer();
+		dox.digestInput();
+		ProgramDatabase program = dox.processIndex();
+		AnalysisHistory history = dox.getHistory();
+		assertEquals(NCLASSES + 2, history.getDocumentCount());
+		
+		int changed = NCLASSES / 2;
+		m_synthetic.writeClass(changed, 1);
+		dox = analyzer();
+		program = dox.processIndex(program, history);
+		assertEquals(SyntheticDoxygen.dump(analyzer().processIndex()),
+				SyntheticDoxygen.dump(program));
+		// Only the changed class, the classes referring to it and the
+		// namespace containing it are translated again
+		assertEquals(4, dox.getInternalRegistry().getCacheMisses());
+		// Classes which were kept refer to the new versions of classes
+		// which were translated again
+		Aggregate kept = aggregate(program, changed - 2);
+		Field field = kept.getScope().getFields().iterator().next()
+			.getContained();
+		assertSame(aggregate(program, changed - 1), 
+				field.getType().getBaseType());
+		assertSame(aggregate(program, changed + 1), 
+				aggregate(program, changed + 2).getBases().iterator().next()
+					.getBase());
+		
+		// Update again through a snapshot
+		File file = new File(m_xmldir, "snapshot.pdb");
+		ProgramDatabaseSnapshot snapshot = new ProgramDatabaseSnapshot(file);
+		snapshot.save(program, dox.digestInput(), dox.getHistory());
+		m_synthetic.writeClass(changed, 0);
+		m_synthetic.writeClass(0, 2);
+		ProgramDatabaseSnapshot.Contents contents = snapshot.read();
+		assertNotNull(contents.getHistory());
+		dox = analyzer();
+		program = dox.processIndex(contents.getProgram(), 
+				contents.getHistory());
+		assertEquals(SyntheticDoxygen.dump(analyzer().processIndex()),
+				SyntheticDoxygen.dump(program));
+		assertEquals(6, dox.getInternalRegistry().getCacheMisses());
+	}
+	
+	/**
+	 * Makes sure that reusing parsed type-expressions does not change the
+	 * program database.
+	 */
+	public void testTypeCache() throws Exception
+	{
+		DoxygenAnalyzer dox = analyzer();
+		dox.setTypeCaching(false);
+		String uncached = SyntheticDoxygen.dump(dox.processIndex());
+		assertEquals(0, dox.getTypeCacheHits());
+
+		dox = analyzer();
+		assertEquals(uncached, SyntheticDoxygen.dump(dox.processIndex()));
+		assertTrue(dox.getTypeCacheHits() > dox.getTypeCacheMisses());
+	}
+
+	/**
+	 * Finds one of the synthetic classes in a program database.
+	 */
+	private static Aggregate aggregate(ProgramDatabase program, int i)
+		throws ElementNotFoundException
+	{
+		for (ContainedConnection<Namespace, Aggregate> connection:
+				program.getGlobalNamespace().getScope().getNamespaces()
+				.iterator().next().getContained().getScope().getAggregates()) {
+			if (connection.getContained().getName().equals(
+					SyntheticDoxygen.className(i)))
+				return connection.getContained();
+		}
+		throw new ElementNotFoundException("class", 
+				SyntheticDoxygen.className(i));
+	}
+
+	private static void write(File file, String text) throws Exception
+	{
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static byte[] gunzip(File file) throws Exception
+	{
+		InputStream in = new GZIPInputStream(new FileInputStream(file));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static void gzip(byte[] contents, File file) throws Exception
+	{
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+		try {
+			out.write(contents);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static final int NCLASSES = 60;
+
+	private File m_xmldir;
+	private SyntheticDoxygen m_synthetic;
+}
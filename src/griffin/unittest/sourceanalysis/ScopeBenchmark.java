@@ -0,0 +1,116 @@
+package unittest.sourceanalysis;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import sourceanalysis.ConstCollection;
+import sourceanalysis.ContainedConnection;
+import sourceanalysis.Field;
+import sourceanalysis.Namespace;
+import sourceanalysis.Routine;
+import sourceanalysis.Scope;
+import sourceanalysis.Specifiers;
+
+/**
+ * Measures the traversal of the members of a large scope, compared with
+ * the way Scope used to hand them out: as a linked list, wrapped in a new
+ * ConstCollection by every call to a getter.
+ * <p>This is not part of the unit tests; run it directly:</p>
+ * <pre>
+ * java unittest.sourceanalysis.ScopeBenchmark [members [rounds [repeats]]]
+ * </pre>
+ * <p>Each repeat goes over all the routines and fields of the scope the
+ * given number of rounds; the best repeat is reported.</p>
+ */
+public class ScopeBenchmark {
+
+	public static void main(String[] args)
+	{
+		int members = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+		int repeats = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+
+		Namespace ns = new Namespace();
+		ns.setName("ns");
+		Scope<Namespace> scope = ns.getScope();
+		for (int i = 0; i < members / 2; ++i) {
+			Routine routine = new Routine();
+			routine.setName("f" + i);
+			scope.addMember(routine, Specifiers.DONT_CARE,
+					Specifiers.DONT_CARE, Specifiers.Storage.EXTERN);
+			Field field = new Field();
+			field.setName("v" + i);
+			scope.addMember(field, Specifiers.DONT_CARE,
+					Specifiers.Storage.STATIC);
+		}
+		scope.compact();
+		List<ContainedConnection<Namespace, Routine>> routines =
+			new LinkedList<ContainedConnection<Namespace, Routine>>();
+		for (ContainedConnection<Namespace, Routine> connection:
+				scope.getRoutines())
+			routines.add(connection);
+		List<ContainedConnection<Namespace, Field>> fields =
+			new LinkedList<ContainedConnection<Namespace, Field>>();
+		for (ContainedConnection<Namespace, Field> connection:
+				scope.getFields())
+			fields.add(connection);
+
+		long linked = Long.MAX_VALUE, arrays = Long.MAX_VALUE;
+		for (int repeat = 0; repeat < repeats; ++repeat) {
+			long start = System.nanoTime();
+			long visited = 0;
+			for (int round = 0; round < rounds; ++round) {
+				visited += traverse(view(routines), view(fields));
+			}
+			linked = Math.min(linked, System.nanoTime() - start);
+			check(visited, members, rounds);
+
+			start = System.nanoTime();
+			visited = 0;
+			for (int round = 0; round < rounds; ++round) {
+				visited += traverse(scope.getRoutines(), scope.getFields());
+			}
+			arrays = Math.min(arrays, System.nanoTime() - start);
+			check(visited, members, rounds);
+		}
+		System.out.println("| scope traversal: " + members + " members "
+				+ rounds + " times, best of " + repeats + ": "
+				+ linked / 1000000 + " ms with linked lists, "
+				+ arrays / 1000000 + " ms with Scope");
+	}
+
+	/**
+	 * Goes over routines and fields the way the code generators do.
+	 * @return the number of members visited
+	 */
+	private static long traverse(
+			ConstCollection<ContainedConnection<Namespace, Routine>> routines,
+			ConstCollection<ContainedConnection<Namespace, Field>> fields)
+	{
+		long visited = 0;
+		for (ContainedConnection<Namespace, Routine> connection: routines) {
+			if (connection.getStorage() == Specifiers.Storage.EXTERN)
+				++visited;
+		}
+		for (ContainedConnection<Namespace, Field> connection: fields) {
+			if (connection.getStorage() == Specifiers.Storage.STATIC)
+				++visited;
+		}
+		return visited;
+	}
+
+	/**
+	 * Wraps a list the way the getters of Scope used to.
+	 */
+	private static <T> ConstCollection<T> view(List<T> list)
+	{
+		return new ConstCollection<T>(list);
+	}
+
+	private static void check(long visited, int members, int rounds)
+	{
+		if (visited != (long)members * rounds)
+			throw new IllegalStateException("visited " + visited
+					+ " members instead of " + (long)members * rounds);
+	}
+}
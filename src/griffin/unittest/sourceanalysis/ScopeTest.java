@@ -0,0 +1,215 @@
+package unittest.sourceanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import sourceanalysis.Aggregate;
+import sourceanalysis.ContainedConnection;
+import sourceanalysis.ElementNotFoundException;
+import sourceanalysis.Entity;
+import sourceanalysis.Field;
+import sourceanalysis.Namespace;
+import sourceanalysis.ProgramDatabase;
+import sourceanalysis.Routine;
+import sourceanalysis.Scope;
+import sourceanalysis.SourceFile;
+import sourceanalysis.Specifiers;
+
+/**
+ * Tests looking up the members of a Scope by name.
+ */
+public class ScopeTest extends TestCase {
+
+	/**
+	 * Constructor for ScopeTest.
+	 * @param title test to run
+	 */
+	public ScopeTest(String title) {
+		super(title);
+	}
+
+	/**
+	 * Makes sure that lookups see members which are added, removed, or
+	 * renamed after the index was built.
+	 */
+	public void testLookup() throws Exception
+	{
+		Namespace ns = new Namespace();
+		ns.setName("ns");
+		Scope<Namespace> scope = ns.getScope();
+		Aggregate first = aggregate(scope, "A");
+		assertEquals(Collections.singletonList(first),
+				aggregates(scope, "A"));
+		assertTrue(aggregates(scope, "B").isEmpty());
+
+		// Members added after the first lookup
+		Aggregate second = aggregate(scope, "B");
+		Aggregate third = aggregate(scope, "A");
+		assertEquals(Arrays.asList(first, third),
+				aggregates(scope, "A"));
+		assertEquals(Collections.singletonList(second),
+				aggregates(scope, "B"));
+
+		// Renamed and removed members
+		third.setName("C");
+		assertEquals(Collections.singletonList(third),
+				aggregates(scope, "C"));
+		scope.removeMembers(Collections.singletonList(first));
+		assertTrue(aggregates(scope, "A").isEmpty());
+
+		// Overloaded routines
+		for (int i = 0; i < 2; ++i) {
+			Routine routine = new Routine();
+			routine.setName("f");
+			scope.addMember(routine, Specifiers.DONT_CARE,
+					Specifiers.DONT_CARE, Specifiers.DONT_CARE);
+		}
+		int count = 0;
+		for (ContainedConnection<Namespace, Routine> connection:
+				scope.lookupRoutines("f")) {
+			assertEquals("f", connection.getContained().getName());
+			++count;
+		}
+		assertEquals(2, count);
+	}
+
+	/**
+	 * Checks the program-wide name index against additions and renames,
+	 * and the lookup of source files by partial paths.
+	 */
+	public void testProgramIndex() throws Exception
+	{
+		ProgramDatabase program = new ProgramDatabase();
+		Namespace ns = new Namespace();
+		ns.setName("ns");
+		program.getGlobalNamespace().getScope().addMember(ns);
+		Aggregate outer = aggregate(program.getGlobalNamespace().getScope(), "A");
+		Aggregate inner = aggregate(ns.getScope(), "A");
+		assertEquals(Arrays.asList(outer, inner), lookup(program, "A"));
+		assertEquals(Collections.singletonList(ns), lookup(program, "ns"));
+
+		Aggregate external = aggregate(program.getExternals(), "A");
+		assertEquals(Arrays.asList(outer, inner, external), lookup(program, "A"));
+		inner.setName("B");
+		assertEquals(Arrays.asList(outer, external), lookup(program, "A"));
+		assertEquals(Collections.singletonList(inner), lookup(program, "B"));
+
+		SourceFile source = new SourceFile();
+		source.setName("a.h");
+		source.setFullPath("include/sub/a.h");
+		program.enlistSourceFile(source);
+		assertSame(source, program.lookupSourceFile("a.h"));
+		assertSame(source, program.lookupSourceFile("sub/a.h"));
+		try {
+			program.lookupSourceFile("ub/a.h");
+			fail("source file should not have been found");
+		}
+		catch (ElementNotFoundException e) { }
+	}
+
+	/**
+	 * Makes sure that remembered qualified names follow renames and moves
+	 * of the entities they are made of.
+	 */
+	public void testQualifiedNames() throws Exception
+	{
+		Namespace outer = new Namespace();
+		outer.setName("outer");
+		Namespace ns = new Namespace();
+		ns.setName("ns");
+		outer.getScope().addMember(ns);
+		Aggregate agg = aggregate(ns.getScope(), "A");
+		assertEquals("outer::ns::A", agg.getFullName());
+		ns.setName("other");
+		assertEquals("outer::other::A", agg.getFullName());
+		outer.getScope().removeMembers(Collections.singletonList(ns));
+		assertEquals("other::A", agg.getFullName());
+	}
+
+	/**
+	 * Goes over the members of a large scope. The getters must hand out the
+	 * same read-only view every time.
+	 */
+	public void testTraversal() throws Exception
+	{
+		Namespace ns = new Namespace();
+		ns.setName("ns");
+		Scope<Namespace> scope = ns.getScope();
+		int members = 1000;
+		for (int i = 0; i < members / 2; ++i) {
+			Routine routine = new Routine();
+			routine.setName("f" + i);
+			scope.addMember(routine, Specifiers.DONT_CARE,
+					Specifiers.DONT_CARE, Specifiers.Storage.EXTERN);
+			Field field = new Field();
+			field.setName("v" + i);
+			scope.addMember(field, Specifiers.DONT_CARE,
+					Specifiers.Storage.STATIC);
+		}
+		scope.compact();
+		assertSame(scope.getRoutines(), scope.getRoutines());
+		assertEquals(members / 2, scope.getFields().size());
+		assertTrue(scope.getAggregates().isEmpty());
+		try {
+			Iterator<ContainedConnection<Namespace, Field>> fi =
+				scope.getFields().iterator();
+			fi.next();
+			fi.remove();
+			fail("members should not be removable through the view");
+		}
+		catch (UnsupportedOperationException e) { }
+
+		int visited = 0;
+		for (ContainedConnection<Namespace, Routine> connection:
+				scope.getRoutines()) {
+			if (connection.getStorage() == Specifiers.Storage.EXTERN)
+				++visited;
+		}
+		for (ContainedConnection<Namespace, Field> connection:
+				scope.getFields()) {
+			if (connection.getStorage() == Specifiers.Storage.STATIC)
+				++visited;
+		}
+		assertEquals(members, visited);
+	}
+
+	private static List<Entity> lookup(ProgramDatabase program, String name)
+	{
+		List<Entity> found = new ArrayList<Entity>();
+		for (ContainedConnection<Namespace, ? extends Entity> connection:
+				program.lookupByName(name, NAMING)) {
+			found.add(connection.getContained());
+		}
+		return found;
+	}
+
+	private static final ProgramDatabase.Naming NAMING =
+		new ProgramDatabase.Naming() {
+			public java.util.Collection<String> namesOf(Entity entity) {
+				return Collections.singletonList(entity.getName());
+			}
+		};
+
+	private static Aggregate aggregate(Scope<Namespace> scope, String name)
+	{
+		Aggregate aggregate = new Aggregate();
+		aggregate.setName(name);
+		scope.addMember(aggregate, Specifiers.Visibility.PUBLIC);
+		return aggregate;
+	}
+
+	private static List<Aggregate> aggregates(Scope<Namespace> scope,
+			String name)
+	{
+		List<Aggregate> found = new ArrayList<Aggregate>();
+		for (ContainedConnection<Namespace, Aggregate> connection:
+				scope.lookupAggregates(name)) {
+			found.add(connection.getContained());
+		}
+		return found;
+	}
+}
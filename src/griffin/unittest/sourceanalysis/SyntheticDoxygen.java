@@ -0,0 +1,222 @@
+package unittest.sourceanalysis;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import sourceanalysis.Aggregate;
+import sourceanalysis.ContainedConnection;
+import sourceanalysis.Entity;
+import sourceanalysis.Namespace;
+import sourceanalysis.ProgramDatabase;
+import sourceanalysis.Routine;
+
+/**
+ * Writes a small, self-consistent set of Doxygen(r) XML files into a
+ * directory, so that the analyzer can be exercised without running the
+ * external Doxygen tool. The generated program contains a namespace with
+ * a chain of classes, each deriving from the previous one and having
+ * methods and fields which refer to other classes in the chain.
+ */
+public class SyntheticDoxygen {
+
+	/**
+	 * Constructor for SyntheticDoxygen.
+	 * @param directory directory to put XML files in; created if missing
+	 * @param nclasses number of classes to generate
+	 */
+	public SyntheticDoxygen(File directory, int nclasses)
+	{
+		m_directory = directory;
+		m_nclasses = nclasses;
+	}
+
+	/**
+	 * Writes index.xml and all the compound documents.
+	 * @throws IOException if a file cannot be written
+	 */
+	public void write() throws IOException
+	{
+		m_directory.mkdirs();
+		StringBuffer index = new StringBuffer();
+		index.append("<doxygenindex version=\"1.5.1\">\n");
+		index.append("  <compound refid=\"namespacesyn\" kind=\"namespace\">"
+				+ "<name>syn</name></compound>\n");
+		for (int i = 0; i < m_nclasses; ++i) {
+			index.append("  <compound refid=\"" + classId(i)
+					+ "\" kind=\"class\"><name>syn::" + className(i)
+					+ "</name></compound>\n");
+		}
+		index.append("</doxygenindex>\n");
+		writeFile("index.xml", index.toString());
+
+		StringBuffer ns = new StringBuffer();
+		ns.append("<doxygen version=\"1.5.1\">\n");
+		ns.append("  <compounddef id=\"namespacesyn\" kind=\"namespace\">\n");
+		ns.append("    <compoundname>syn</compoundname>\n");
+		for (int i = m_nclasses - 1; i >= 0; --i) {
+			ns.append("    <innerclass refid=\"" + classId(i)
+					+ "\" prot=\"public\">syn::" + className(i)
+					+ "</innerclass>\n");
+		}
+		ns.append("    <briefdescription></briefdescription>\n");
+		ns.append("    <detaileddescription></detaileddescription>\n");
+		ns.append("    <location file=\"syn.h\" line=\"1\"/>\n");
+		ns.append("  </compounddef>\n");
+		ns.append("</doxygen>\n");
+		writeFile("namespacesyn.xml", ns.toString());
+
+		for (int i = 0; i < m_nclasses; ++i) {
+			writeClass(i, 0);
+		}
+	}
+
+	/**
+	 * Rewrites the document of a single class, changing the number of
+	 * methods it declares.
+	 * @param i index of class to rewrite
+	 * @param extra number of methods to add beyond the usual ones
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeClass(int i, int extra) throws IOException
+	{
+		String other = (i + 1 < m_nclasses) ? className(i + 1) : "int";
+		String otherRef = (i + 1 < m_nclasses)
+			? "<ref refid=\"" + classId(i + 1) + "\" kindref=\"compound\">"
+					+ other + "</ref>"
+			: other;
+		StringBuffer doc = new StringBuffer();
+		doc.append("<doxygen version=\"1.5.1\">\n");
+		doc.append("  <compounddef id=\"" + classId(i)
+				+ "\" kind=\"class\" prot=\"public\">\n");
+		doc.append("    <compoundname>syn::" + className(i)
+				+ "</compoundname>\n");
+		if (i > 0) {
+			doc.append("    <basecompoundref refid=\"" + classId(i - 1)
+					+ "\" prot=\"public\" virt=\"non-virtual\">syn::"
+					+ className(i - 1) + "</basecompoundref>\n");
+		}
+		doc.append("    <sectiondef kind=\"public-func\">\n");
+		for (int m = 0; m < 2 + extra; ++m) {
+			doc.append("      <memberdef kind=\"function\" id=\"" + classId(i)
+					+ "_1m" + m + "\" prot=\"public\" static=\"no\""
+					+ " const=\"no\" explicit=\"no\" inline=\"no\""
+					+ " virt=\"virtual\">\n");
+			doc.append("        <type>" + otherRef + " &amp;</type>\n");
+			doc.append("        <definition>" + other + "&amp; syn::"
+					+ className(i) + "::method" + m + "</definition>\n");
+			doc.append("        <argsstring>(const " + other
+					+ " *x, int y)</argsstring>\n");
+			doc.append("        <name>method" + m + "</name>\n");
+			doc.append("        <param><type>const " + otherRef
+					+ " *</type><declname>x</declname></param>\n");
+			doc.append("        <param><type>int</type><declname>y</declname>"
+					+ "<defval>" + m + "</defval></param>\n");
+			doc.append("        <briefdescription><para>Method " + m
+					+ ".</para></briefdescription>\n");
+			doc.append("        <detaileddescription></detaileddescription>\n");
+			doc.append("        <location file=\"syn.h\" line=\""
+					+ (i * 100 + m) + "\"/>\n");
+			doc.append("      </memberdef>\n");
+		}
+		doc.append("    </sectiondef>\n");
+		doc.append("    <sectiondef kind=\"public-attrib\">\n");
+		doc.append("      <memberdef kind=\"variable\" id=\"" + classId(i)
+				+ "_1f0\" prot=\"public\" static=\"no\" mutable=\"no\">\n");
+		doc.append("        <type>" + otherRef + " *</type>\n");
+		doc.append("        <definition>" + other + "* syn::" + className(i)
+				+ "::field</definition>\n");
+		doc.append("        <argsstring></argsstring>\n");
+		doc.append("        <name>field</name>\n");
+		doc.append("        <briefdescription></briefdescription>\n");
+		doc.append("        <detaileddescription></detaileddescription>\n");
+		doc.append("        <location file=\"syn.h\" line=\""
+				+ (i * 100 + 99) + "\"/>\n");
+		doc.append("      </memberdef>\n");
+		doc.append("    </sectiondef>\n");
+		doc.append("    <briefdescription><para>Class " + i
+				+ ".</para></briefdescription>\n");
+		doc.append("    <detaileddescription><para>Uses " + otherRef
+				+ " <computeroutput>x</computeroutput> <bold>y</bold>:"
+				+ "<programlisting><codeline><highlight class=\"normal\">"
+				+ "int x;</highlight></codeline></programlisting>"
+				+ "<simplesect kind=\"note\"><title>Note</title><para>n"
+				+ "</para></simplesect></para></detaileddescription>\n");
+		doc.append("    <inheritancegraph><node id=\"1\"><label>"
+				+ className(i) + "</label></node></inheritancegraph>\n");
+		doc.append("    <location file=\"syn.h\" line=\"" + (i * 100)
+				+ "\"/>\n");
+		doc.append("    <listofallmembers>\n");
+		for (int m = 0; m < 2 + extra; ++m) {
+			doc.append("      <member refid=\"" + classId(i) + "_1m" + m
+					+ "\" prot=\"public\" virt=\"virtual\"><scope>syn::"
+					+ className(i) + "</scope><name>method" + m
+					+ "</name></member>\n");
+		}
+		doc.append("    </listofallmembers>\n");
+		doc.append("  </compounddef>\n");
+		doc.append("</doxygen>\n");
+		writeFile(classId(i) + ".xml", doc.toString());
+	}
+
+	/**
+	 * Produces a textual dump of an entire program database, suitable for
+	 * comparing the results of two analyses.
+	 * @param program program database to dump
+	 * @return String dump text
+	 */
+	public static String dump(ProgramDatabase program) throws Exception
+	{
+		StringWriter out = new StringWriter();
+		new Dumpster().dump(program.getGlobalNamespace(), out);
+		// The Dumpster does not show documentation, so add it here
+		for (ContainedConnection<Namespace, Namespace> ns:
+				program.getGlobalNamespace().getScope().getNamespaces()) {
+			for (ContainedConnection<Namespace, Aggregate> agg:
+					ns.getContained().getScope().getAggregates()) {
+				dumpProperties(agg.getContained(), out);
+				for (ContainedConnection<Aggregate, Routine> routine:
+						agg.getContained().getScope().getRoutines()) {
+					dumpProperties(routine.getContained(), out);
+				}
+			}
+		}
+		return out.toString();
+	}
+
+	private static void dumpProperties(Entity entity, Writer out)
+		throws IOException
+	{
+		for (Entity.Property property: entity.getProperties()) {
+			out.write("[property] " + entity.getFullName() + " "
+					+ property.getName() + "=" + property.getValue() + "\n");
+		}
+	}
+
+	/**
+	 * Removes the generated directory with all its files.
+	 */
+	public void delete()
+	{
+		File[] files = m_directory.listFiles();
+		if (files != null) {
+			for (File file: files) file.delete();
+		}
+		m_directory.delete();
+	}
+
+	public static String className(int i) { return "C" + i; }
+	public static String classId(int i) { return "classsyn_1_1C" + i; }
+
+	private void writeFile(String name, String content) throws IOException
+	{
+		Writer out = new FileWriter(new File(m_directory, name));
+		out.write(content);
+		out.close();
+	}
+
+	private File m_directory;
+	private int m_nclasses;
+}
@@ -0,0 +1,312 @@
+package unittest.sourceanalysis;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.TestCase;
+import sourceanalysis.Aggregate;
+import sourceanalysis.ContainedConnection;
+import sourceanalysis.Entity;
+import sourceanalysis.Field;
+import sourceanalysis.InheritanceConnection;
+import sourceanalysis.MissingInformationException;
+import sourceanalysis.Namespace;
+import sourceanalysis.Parameter;
+import sourceanalysis.Routine;
+import sourceanalysis.Specifiers;
+import sourceanalysis.Type;
+import sourceanalysis.dox.DoxygenAnalyzer;
+import sourceanalysis.xml.XMLFormatException;
+
+/**
+ * Compares the hand-written parser for simple type-expressions with the
+ * full ANTLR grammar.
+ */
+public class TypeExpressionTest extends TestCase {
+
+	/**
+	 * Constructor for TypeExpressionTest.
+	 * @param title test to run
+	 */
+	public TypeExpressionTest(String title) {
+		super(title);
+	}
+
+	/**
+	 * Parses every type-expression found in the test XML, and some
+	 * expressions on the edge of what the simple parser handles, both ways;
+	 * the resulting types must be the same.
+	 */
+	public void testDifferential() throws Exception
+	{
+		List<String> expressions = new ArrayList<String>(Arrays.asList(EDGES));
+		File synthetic = File.createTempFile("griffin", "xml");
+		synthetic.delete();
+		SyntheticDoxygen doxygen = new SyntheticDoxygen(synthetic, 5);
+		doxygen.write();
+		try {
+			collectTypes(synthetic, expressions);
+		}
+		finally {
+			doxygen.delete();
+		}
+		for (String dir: XML_DIRECTORIES) {
+			collectTypes(new File(dir), expressions);
+		}
+
+		DoxygenAnalyzer dox = new DoxygenAnalyzer();
+		dox.setTypeCaching(false);
+		for (String expr: expressions) {
+			// Parse with the full grammar first, so that it is the one
+			// which introduces new names
+			dox.setSimpleTypeParsing(false);
+			String full = parse(dox, expr);
+			dox.setSimpleTypeParsing(true);
+			assertEquals(expr, full, parse(dox, expr));
+		}
+		// Most of the expressions must not need the full grammar
+		assertTrue(dox.getSimpleTypeParses() > expressions.size() / 2);
+	}
+
+	/**
+	 * Makes sure that equal types share their nodes, and that these nodes
+	 * cannot be modified.
+	 */
+	public void testSharedNodes() throws Exception
+	{
+		DoxygenAnalyzer dox = new DoxygenAnalyzer();
+		dox.setTypeCaching(false);
+		String expr = "const std::map<std::string, int*> &";
+		Type first = dox.parseType(expr, new HashMap<String, Entity>());
+		Type second = dox.parseType(expr, new HashMap<String, Entity>());
+		assertNotSame(first, second);
+		assertSame(first.getRootNode(), second.getRootNode());
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+		assertFalse(first.equals(
+				dox.parseType("std::map<std::string, int*> &",
+						new HashMap<String, Entity>())));
+
+		Type.TypeNode root = first.getRootNode();
+		assertTrue(root.isFrozen());
+		try {
+			root.setCV(Specifiers.CVQualifiers.VOLATILE);
+			fail("shared node should not be modifiable");
+		}
+		catch (IllegalStateException e) { }
+		Type.TypeNode copy = root.clone();
+		assertSame(root.getFirstChild(), copy.getFirstChild());
+		copy.setCV(Specifiers.CVQualifiers.VOLATILE);
+		assertEquals("volatile " + root.toString(), copy.toString());
+		assertSame(root, root.withCV(Specifiers.CVQualifiers.NONE));
+		assertFalse(first.equals(new Type(copy)));
+	}
+
+	/**
+	 * Hashes all the types of an analyzed program, checking that equal
+	 * types collide and that copies of a type are found by lookups.
+	 */
+	public void testHashing() throws Exception
+	{
+		File dir = File.createTempFile("griffin", "xml");
+		dir.delete();
+		SyntheticDoxygen doxygen = new SyntheticDoxygen(dir, 300);
+		doxygen.write();
+		List<Type> types = new ArrayList<Type>();
+		try {
+			DoxygenAnalyzer dox = new DoxygenAnalyzer(dir.getPath());
+			dox.logger.setLevel(java.util.logging.Level.WARNING);
+			collectDeclaredTypes(dox.processIndex().getGlobalNamespace(), types);
+		}
+		finally {
+			doxygen.delete();
+		}
+		assertTrue(types.size() > 1000);
+
+		Map<String, Type> byText = new HashMap<String, Type>();
+		for (Type type: types) {
+			Type same = byText.get(type.toString());
+			if (same == null) byText.put(type.toString(), type);
+			else {
+				assertEquals(same, type);
+				assertEquals(same.hashCode(), type.hashCode());
+			}
+		}
+
+		Map<Type, Type> distinct = new HashMap<Type, Type>();
+		for (Type type: types) distinct.put(type, type);
+		assertEquals(byText.size(), distinct.size());
+
+		for (Type type: types) {
+			Type.TypeNode copy = type.getRootNode().clone();
+			assertEquals(type.getRootNode(), copy);
+			assertEquals(type.getRootNode().hashCode(), copy.hashCode());
+			assertSame(distinct.get(type), distinct.get(new Type(copy)));
+		}
+	}
+
+	/**
+	 * Adds the types of all the routines, fields and base classes of the
+	 * classes in a namespace and its nested namespaces.
+	 */
+	private static void collectDeclaredTypes(Namespace namespace,
+			List<Type> types) throws MissingInformationException
+	{
+		for (ContainedConnection<Namespace, Namespace> connection:
+				namespace.getScope().getNamespaces()) {
+			collectDeclaredTypes(connection.getContained(), types);
+		}
+		for (ContainedConnection<Namespace, Aggregate> connection:
+				namespace.getScope().getAggregates()) {
+			Aggregate aggregate = connection.getContained();
+			for (ContainedConnection<Aggregate, Routine> routine:
+					aggregate.getScope().getRoutines()) {
+				types.add(routine.getContained().getReturnType());
+				for (Parameter parameter: routine.getContained().getParameters())
+					types.add(parameter.getType());
+			}
+			for (ContainedConnection<Aggregate, Field> field:
+					aggregate.getScope().getFields()) {
+				types.add(field.getContained().getType());
+			}
+			for (InheritanceConnection base: aggregate.getBases()) {
+				types.add(base.getBaseAsType());
+			}
+		}
+	}
+
+	/**
+	 * Parses a type-expression and describes the resulting type, including
+	 * the identity of the entities it refers to.
+	 */
+	private static String parse(DoxygenAnalyzer dox, String expr)
+	{
+		try {
+			Type type = dox.parseType(expr, new HashMap<String, Entity>());
+			return describe(type.getRootNode()) + " = " + type;
+		}
+		catch (XMLFormatException e) {
+			return "error";
+		}
+	}
+
+	private static String describe(javax.swing.tree.TreeNode node)
+	{
+		if (node == null) return "-";
+		StringBuffer sb = new StringBuffer();
+		if (node instanceof Type.TypeNode) {
+			Type.TypeNode typenode = (Type.TypeNode)node;
+			sb.append(typenode.getKind() + "/" + typenode.getCV());
+			if (typenode.getKind() == Type.TypeNode.NODE_LEAF) {
+				try {
+					sb.append("@" + System.identityHashCode(typenode.getBase()));
+				}
+				catch (sourceanalysis.InappropriateKindException e) { }
+			}
+		}
+		else {
+			Object value = ((javax.swing.tree.DefaultMutableTreeNode)node)
+				.getUserObject();
+			if (value instanceof sourceanalysis.TypenameTemplateArgument)
+				sb.append(describe(((sourceanalysis.TypenameTemplateArgument)
+						value).getValue().getRootNode()));
+			else
+				sb.append(value);
+		}
+		sb.append("(");
+		for (int i = 0; i < node.getChildCount(); ++i) {
+			sb.append(describe(node.getChildAt(i)) + " ");
+		}
+		return sb.append(")").toString();
+	}
+
+	/**
+	 * Adds the contents of all the &lt;type&gt; elements in the XML files of
+	 * a directory.
+	 */
+	private static void collectTypes(File dir, List<String> expressions)
+		throws Exception
+	{
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+		for (File file: files) {
+			if (!file.getName().endsWith(".xml")) continue;
+			parser.parse(file, new TypeCollector(expressions));
+		}
+	}
+
+	/**
+	 * Collects the text of &lt;type&gt; elements, including the text of the
+	 * elements nested in them.
+	 */
+	private static class TypeCollector extends DefaultHandler
+	{
+		TypeCollector(List<String> expressions)
+		{
+			m_expressions = expressions;
+			m_text = new StringBuffer();
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes attributes)
+		{
+			if (m_depth > 0 || qName.equals("type")) ++m_depth;
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName)
+		{
+			if (m_depth > 0 && --m_depth == 0) {
+				m_expressions.add(m_text.toString());
+				m_text.setLength(0);
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length)
+		{
+			if (m_depth > 0) m_text.append(ch, start, length);
+		}
+
+		private List<String> m_expressions;
+		private StringBuffer m_text;
+		private int m_depth;
+	}
+
+	private static final String[] XML_DIRECTORIES = {
+		"check/unittest/xml", "check/suite/intermediate/xml" };
+
+	private static final String[] EDGES = {
+		"int", "const std::string &", "size_t", "unsigned", "signed",
+		"unsigned long long int", "long long", "long int", "long double",
+		"signed char", "short int", "unsigned short", "wchar", "wchar_t",
+		"bool", "float", "double", "void", "void *", "...",
+		"const char *const", "char const*", "volatile int *const volatile &",
+		"std::vector< std::pair< int, double > >", "std::vector<int>>",
+		"std::map<std::string, int>::iterator", "A<B<C> >::D::E",
+		"::std::string", "const ::ns::A<3, -1L> &", "A< 42 , +7 >",
+		"int x", "char * name", "const A & a", "struct stat *",
+		"class Foo", "enum Color", "virtual void", "inline int",
+		"typename T::value_type", "DLLTAG Foo *", "MUTABLE int",
+		"static const int",
+		// - the lexer skips keywords at the beginning of longer names
+		"classname", "enumerate", "static_cast", "registered", "structure",
+		// - left for the full grammar
+		"int (*)(int)", "int[3]", "char [10]", "void (Foo::*)()",
+		"int Foo::*", "A<>", "int = 0", "T =5", "unsigned double",
+		"long unsigned int", "int x y", "@1", "int A::x", "A<int x>",
+		"A<int*, const B&>", "Foo<int>::", "a < b", "std::vector<int>::"
+	};
+}